@@ -34,8 +34,11 @@ import javax.swing.plaf.ColorUIResource;
 import javax.swing.plaf.metal.DefaultMetalTheme;
 import javax.swing.plaf.metal.MetalLookAndFeel;
 
+import jpass.crypt.io.AeadAlgorithm;
+import jpass.data.DocumentHelper;
 import jpass.ui.JPassFrame;
 import jpass.util.Configuration;
+import jpass.util.RandomService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +53,11 @@ public class JPass {
     private static final String METAL_LOOK_AND_FEEL = "javax.swing.plaf.metal.MetalLookAndFeel";
 
     public static void main(final String[] args) {
+        RandomService.warmUp();
+        AeadAlgorithm.warmUp();
+        if (Configuration.is("jaxb.warm.up.enabled", true)) {
+            DocumentHelper.warmUp();
+        }
         try {
             String lookAndFeel;
             if (Configuration.is("system.look.and.feel.enabled", true)) {
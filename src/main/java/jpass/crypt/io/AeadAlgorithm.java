@@ -0,0 +1,201 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import jpass.util.Configuration;
+
+/**
+ * Authenticated cipher of the payload. The algorithm is recorded in the file header; files
+ * without a cipher field use AES-GCM. Both algorithms take a 256 bit key and a 96 bit nonce and
+ * produce a 128 bit tag, so the segment layout does not depend on the algorithm.
+ * <p>
+ * New files use the algorithm set by the {@code crypt.cipher} property. If it is {@code auto}
+ * (the default), a short benchmark picks the faster algorithm on the current CPU: AES-GCM where
+ * AES instructions are available, ChaCha20-Poly1305 on CPUs without them.
+ */
+public enum AeadAlgorithm {
+    /**
+     * AES in Galois/Counter Mode, the cipher of the original file format.
+     */
+    AES_GCM(0, "aes-gcm", "AES/GCM/NoPadding", "AES"),
+    /**
+     * ChaCha20 with the Poly1305 authenticator (RFC 8439).
+     */
+    CHACHA20_POLY1305(1, "chacha20-poly1305", "ChaCha20-Poly1305", "ChaCha20");
+
+    private static final Logger LOG = Logger.getLogger(AeadAlgorithm.class.getName());
+    private static final int BENCHMARK_BUFFER_SIZE = 64 * 1024;
+    private static final int BENCHMARK_WARM_UP_ROUNDS = 40;
+    private static final int BENCHMARK_ROUNDS = 16;
+    private static volatile AeadAlgorithm fastest = null;
+
+    private final int id;
+    private final String name;
+    private final String transformation;
+    private final String keyAlgorithm;
+
+    AeadAlgorithm(int id, String name, String transformation, String keyAlgorithm) {
+        this.id = id;
+        this.name = name;
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+    }
+
+    /**
+     * Gets the identifier which is recorded in the file header.
+     *
+     * @return the identifier
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets the name of the algorithm used in the configuration.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the algorithm recorded in a file header.
+     *
+     * @param id identifier of the algorithm
+     * @return the algorithm
+     * @throws IOException if the algorithm is unknown
+     */
+    public static AeadAlgorithm forId(int id) throws IOException {
+        for (AeadAlgorithm algorithm : values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        throw new IOException("Unsupported cipher: " + id);
+    }
+
+    /**
+     * Gets the algorithm by its name.
+     *
+     * @param name name of the algorithm
+     * @return the algorithm
+     * @throws IllegalArgumentException if the algorithm is unknown
+     */
+    public static AeadAlgorithm forName(String name) {
+        for (AeadAlgorithm algorithm : values()) {
+            if (algorithm.name.equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported cipher: " + name);
+    }
+
+    /**
+     * Gets the algorithm for new files according to the {@code crypt.cipher} property. An unknown
+     * name is logged and the faster algorithm is used, as with {@code auto}.
+     *
+     * @return the algorithm
+     */
+    public static AeadAlgorithm forNewFiles() {
+        String name = Configuration.getString("crypt.cipher", "auto");
+        if (!"auto".equalsIgnoreCase(name)) {
+            try {
+                return forName(name);
+            } catch (IllegalArgumentException e) {
+                LOG.log(Level.WARNING, "{0}, using auto", e.getMessage());
+            }
+        }
+        return getFastest();
+    }
+
+    /**
+     * Gets the faster algorithm on the current CPU. The benchmark runs once, later calls return
+     * the cached result.
+     *
+     * @return the algorithm
+     */
+    public static AeadAlgorithm getFastest() {
+        AeadAlgorithm result = fastest;
+        if (result == null) {
+            result = benchmark();
+            fastest = result;
+        }
+        return result;
+    }
+
+    /**
+     * Runs the benchmark in the background, so it is not measured when the first file is saved.
+     */
+    public static void warmUp() {
+        Thread thread = new Thread(AeadAlgorithm::getFastest, "JPass-cipher-benchmark");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static AeadAlgorithm benchmark() {
+        try {
+            long aes = AES_GCM.measure();
+            long chacha = CHACHA20_POLY1305.measure();
+            AeadAlgorithm result = chacha < aes ? CHACHA20_POLY1305 : AES_GCM;
+            LOG.log(Level.CONFIG, "Cipher benchmark: AES-GCM {0} us, ChaCha20-Poly1305 {1} us per {2} bytes, using {3}",
+                    new Object[] {aes / 1000, chacha / 1000, BENCHMARK_BUFFER_SIZE, result.name});
+            return result;
+        } catch (GeneralSecurityException e) {
+            LOG.log(Level.CONFIG, "Cipher benchmark failed, using AES-GCM", e);
+            return AES_GCM;
+        }
+    }
+
+    /**
+     * Measures encryption of one buffer.
+     *
+     * @return the best time of the measured rounds in nanoseconds
+     */
+    private long measure() throws GeneralSecurityException {
+        Cipher cipher = newCipher();
+        SecretKeySpec key = new SecretKeySpec(new byte[CipherSpecifications.KEY_SIZE_BITS / 8], this.keyAlgorithm);
+        byte[] input = new byte[BENCHMARK_BUFFER_SIZE];
+        byte[] output = new byte[BENCHMARK_BUFFER_SIZE + CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS / 8];
+        byte[] nonce = new byte[CipherSpecifications.IV_LENGTH_BYTES];
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < BENCHMARK_WARM_UP_ROUNDS + BENCHMARK_ROUNDS; round++) {
+            nonce[0]++;
+            long start = System.nanoTime();
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameterSpec(nonce));
+            cipher.doFinal(input, 0, input.length, output, 0);
+            if (round >= BENCHMARK_WARM_UP_ROUNDS) {
+                best = Math.min(best, System.nanoTime() - start);
+            }
+        }
+        return best;
+    }
+
+    Cipher newCipher() throws GeneralSecurityException {
+        return Cipher.getInstance(this.transformation);
+    }
+
+    /**
+     * Converts a key to the key algorithm of this cipher.
+     */
+    SecretKeySpec toKey(SecretKeySpec key) {
+        return this.keyAlgorithm.equals(key.getAlgorithm()) ? key : new SecretKeySpec(key.getEncoded(), this.keyAlgorithm);
+    }
+
+    AlgorithmParameterSpec parameterSpec(byte[] nonce) {
+        return switch (this) {
+            case AES_GCM -> new GCMParameterSpec(CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS, nonce);
+            case CHACHA20_POLY1305 -> new IvParameterSpec(nonce);
+        };
+    }
+}
@@ -17,6 +17,14 @@ public final class CipherSpecifications {
     public static final int KEY_GENERATION_ITERATION_COUNT = 65535;
     
     public static final int SALT_SIZE_BYTES = 8;
+
+    public static final int SEGMENT_SIZE_BYTES = 64 * 1024;
+
+    public static final int MAX_SEGMENT_SIZE_BYTES = 16 * 1024 * 1024;
+
+    public static final int KDF_SALT_SIZE_BYTES = 16;
+
+    public static final String KEY_CHECK_ALGORITHM = "HmacSHA256";
     
     static final byte[] FILE_HEADER = {0x23, 0x57, 0x79, (byte) 0xCF};
 
@@ -0,0 +1,223 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import jpass.util.Configuration;
+
+/**
+ * Compression of the payload before encryption. The codec and its level are recorded in the
+ * file header; files without a codec field use GZIP. The size of the buffers of the compressing
+ * and decompressing streams is read from the {@code compression.buffer.size} property.
+ */
+public enum CompressionCodec {
+    /**
+     * GZIP at the default level, the codec of the original file format.
+     */
+    GZIP(0, "gzip"),
+    /**
+     * No compression.
+     */
+    NONE(1, "none"),
+    /**
+     * Raw Deflate at the configured level, without the GZIP header and checksum.
+     */
+    DEFLATE(2, "deflate"),
+    /**
+     * Raw Deflate with a preset dictionary of the XML vocabulary of the entries schema, which
+     * mostly helps small files.
+     */
+    DEFLATE_DICTIONARY(3, "deflate-dict");
+
+    /**
+     * Preset dictionary of {@link #DEFLATE_DICTIONARY}. Files depend on its exact content, so it
+     * must never be changed; a different dictionary needs a new codec. Deflate prefers matches
+     * close to the end of the dictionary, so the most frequent strings come last.
+     */
+    private static final byte[] DICTIONARY = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<entries></entries>&amp;&lt;&gt;&quot;&apos;"
+            + "http://https://www..com/.org/login@gmail.com"
+            + "<notes></notes></entry>"
+            + "<entry><title></title><url></url><user></user><password></password>"
+            + "</entry><entry><title></title><url>https://</url><user></user><password></password>")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final Logger LOG = Logger.getLogger(CompressionCodec.class.getName());
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private final int id;
+    private final String name;
+
+    CompressionCodec(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Gets the identifier which is recorded in the file header.
+     *
+     * @return the identifier
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets the name of the codec used in the configuration.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the codec recorded in a file header.
+     *
+     * @param id identifier of the codec
+     * @return the codec
+     * @throws IOException if the codec is unknown
+     */
+    public static CompressionCodec forId(int id) throws IOException {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unsupported compression codec: " + id);
+    }
+
+    /**
+     * Gets the codec by its name.
+     *
+     * @param name name of the codec
+     * @return the codec
+     * @throws IllegalArgumentException if the codec is unknown
+     */
+    public static CompressionCodec forName(String name) {
+        for (CompressionCodec codec : values()) {
+            if (codec.name.equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported compression codec: " + name);
+    }
+
+    /**
+     * Gets the codec for new files according to the {@code compression.codec} property. An unknown
+     * name is logged and {@link #DEFLATE_DICTIONARY} is used.
+     *
+     * @return the codec
+     */
+    public static CompressionCodec forNewFiles() {
+        String name = Configuration.getString("compression.codec", DEFLATE_DICTIONARY.getName());
+        try {
+            return forName(name);
+        } catch (IllegalArgumentException e) {
+            LOG.log(Level.WARNING, "{0}, using {1}", new Object[]{e.getMessage(), DEFLATE_DICTIONARY.getName()});
+            return DEFLATE_DICTIONARY;
+        }
+    }
+
+    /**
+     * Wraps the stream into a compressing one.
+     *
+     * @param out the stream of the compressed data
+     * @param level the compression level, 0-9, or -1 for the default
+     * @return the compressing stream
+     * @throws IOException if an I/O error occurs
+     */
+    public OutputStream compress(OutputStream out, int level) throws IOException {
+        int bufferSize = getBufferSize();
+        return switch (this) {
+            case GZIP -> new GZIPOutputStream(out, bufferSize);
+            case NONE -> out;
+            case DEFLATE, DEFLATE_DICTIONARY -> {
+                Deflater deflater = new Deflater(level, true);
+                if (this == DEFLATE_DICTIONARY) {
+                    deflater.setDictionary(DICTIONARY);
+                }
+                yield new DeflaterOutputStream(out, deflater, bufferSize) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Wraps the stream into a decompressing one.
+     *
+     * @param in the stream of the compressed data
+     * @return the decompressing stream
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        int bufferSize = getBufferSize();
+        return switch (this) {
+            case GZIP -> new GZIPInputStream(in, bufferSize);
+            case NONE -> in;
+            case DEFLATE, DEFLATE_DICTIONARY -> {
+                Inflater inflater = createInflater();
+                yield new InflaterInputStream(in, inflater, bufferSize) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Gets the size of the buffers of the compressing and decompressing streams. Invalid sizes
+     * fall back to the default.
+     *
+     * @return the buffer size in bytes
+     */
+    static int getBufferSize() {
+        int bufferSize = Configuration.getInteger("compression.buffer.size", DEFAULT_BUFFER_SIZE);
+        if (bufferSize <= 0 || bufferSize > MAX_BUFFER_SIZE) {
+            return DEFAULT_BUFFER_SIZE;
+        }
+        return bufferSize;
+    }
+
+    /**
+     * Creates an inflater for the raw Deflate codecs, with the preset dictionary if needed.
+     *
+     * @return the inflater, which has to be ended by the caller
+     * @throws IllegalStateException if the codec is not a raw Deflate codec
+     */
+    Inflater createInflater() {
+        if (this != DEFLATE && this != DEFLATE_DICTIONARY) {
+            throw new IllegalStateException("Codec " + this.name + " has no raw inflater");
+        }
+        Inflater inflater = new Inflater(true);
+        if (this == DEFLATE_DICTIONARY) {
+            inflater.setDictionary(DICTIONARY);
+        }
+        return inflater;
+    }
+}
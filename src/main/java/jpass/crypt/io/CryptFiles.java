@@ -0,0 +1,102 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Operations on encrypted files which do not need the payload to be decrypted, and key files.
+ */
+public final class CryptFiles {
+
+    private CryptFiles() {
+        throw new AssertionError("Class CryptFiles can't be instantiated");
+    }
+
+    /**
+     * Reads a key file as a password. Any file can be a key file, its SHA-256 digest in
+     * hexadecimal form is the password.
+     *
+     * @param path the key file
+     * @return the password
+     * @throws IOException if the file cannot be read
+     */
+    public static char[] readKeyFile(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(path)) {
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            Arrays.fill(buffer, (byte) 0);
+        }
+        byte[] hash = digest.digest();
+        try {
+            char[] pass = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                pass[2 * i] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+                pass[2 * i + 1] = Character.forDigit(hash[i] & 0xF, 16);
+            }
+            return pass;
+        } finally {
+            Arrays.fill(hash, (byte) 0);
+        }
+    }
+
+    /**
+     * Reads the identifier of the version of an encrypted file from its header, without
+     * unlocking it, see {@link CryptOutputStream#getSnapshotId()}.
+     *
+     * @param path the file
+     * @return the snapshot identifier
+     * @throws IOException if the file cannot be read or it has no valid header
+     */
+    public static byte[] readSnapshotId(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return FileHeader.read(in).getIv();
+        }
+    }
+
+    /**
+     * Copies an encrypted file to another file, replacing its key slots by the key slots of
+     * another session key with the same data key, see {@link SessionKey#withPassword(char[])},
+     * {@link SessionKey#withAddedSlot(char[])} and {@link SessionKey#withoutSlot(int)}. Only the
+     * header is written, the payload is copied as it is. The copy is forced to the storage device.
+     *
+     * @param source the file
+     * @param target the copy, which has to exist and is overwritten
+     * @param sessionKey the key the file was unlocked or last saved with
+     * @param replacement the key with the new key slots
+     * @throws IOException if the file cannot be copied, or its key slots are not the ones of the session key
+     */
+    public static void copyWithKeys(Path source, Path target, SessionKey sessionKey, SessionKey replacement) throws IOException {
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel output = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            FileHeader header = FileHeader.read(Channels.newInputStream(input));
+            if (!header.hasKeySlots(sessionKey)) {
+                throw new IOException("The file has been changed since it was opened");
+            }
+            header.withKey(replacement).write(Channels.newOutputStream(output));
+            long position = input.position();
+            long size = input.size();
+            while (position < size) {
+                position += input.transferTo(position, size - position, output);
+            }
+            output.force(true);
+        }
+    }
+}
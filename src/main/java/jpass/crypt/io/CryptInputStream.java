@@ -1,36 +1,235 @@
 package jpass.crypt.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 
+import jpass.util.Configuration;
+
+/**
+ * Stream which decrypts and decompresses a payload. Both the segmented and the single stream
+ * formats are supported. Segments are opened in parallel if the {@code crypt.parallelism}
+ * property is greater than 1.
+ */
 public class CryptInputStream extends InputStream {
+    private static final Logger LOG = Logger.getLogger(CryptInputStream.class.getName());
+    private static final ExecutorService UNLOCK_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "JPass-unlock");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final InputStream input;
+    private final SessionKey sessionKey;
+    private final UnlockTimings timings;
+    private final byte[] iv;
 
-    @SuppressWarnings({"java:S2674", "ResultOfMethodCallIgnored"})
     public CryptInputStream(InputStream in, char[] pass) throws GeneralSecurityException, IOException {
-        in.skip(CipherSpecifications.FILE_HEADER.length);
-        byte[] salt = new byte[CipherSpecifications.SALT_SIZE_BYTES];
-        in.read(salt);
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(CipherSpecifications.KEY_GENERATION_ALGORITHM);
-        PBEKeySpec pbeKeySpec = new PBEKeySpec(pass, salt, CipherSpecifications.KEY_GENERATION_ITERATION_COUNT, CipherSpecifications.KEY_SIZE_BITS);
-        SecretKey key = secretKeyFactory.generateSecret(pbeKeySpec);
-        SecretKeySpec secretKey = new SecretKeySpec(key.getEncoded(), CipherSpecifications.KEY_ALGORITHM);
-        byte[] iv = new byte[CipherSpecifications.IV_LENGTH_BYTES];
-        in.read(iv);
-        GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS, iv);
-        Cipher cipher = Cipher.getInstance(CipherSpecifications.CIPHER);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmParameterSpec);
-        this.input = new GZIPInputStream(new CipherInputStream(in, cipher));
+        this(in, pass, Configuration.getInteger("crypt.parallelism", 1));
+    }
+
+    /**
+     * Creates a decrypting stream which opens the segments of the payload on several threads.
+     *
+     * @param in the underlying stream
+     * @param pass the password
+     * @param parallelism the number of segments opened in parallel; 1 opens them on the calling thread
+     * @throws InvalidPasswordException if the password does not match the key section of the header
+     * @throws GeneralSecurityException if the key cannot be derived or the cipher cannot be initialized
+     * @throws IOException if the header cannot be read
+     */
+    public CryptInputStream(InputStream in, char[] pass, int parallelism) throws GeneralSecurityException, IOException {
+        this(in, FileHeader.read(in), pass, parallelism);
+    }
+
+    private CryptInputStream(InputStream in, FileHeader header, char[] pass, int parallelism) throws GeneralSecurityException, IOException {
+        this(in, header, SessionKey.unlock(pass, header), parallelism, null);
+    }
+
+    private CryptInputStream(InputStream in, FileHeader header, SessionKey sessionKey, int parallelism, UnlockTimings timings)
+            throws GeneralSecurityException, IOException {
+        this.sessionKey = sessionKey;
+        this.timings = timings;
+        this.iv = header.getIv();
+        if (header.getSegmentSize() > 0) {
+            SegmentCipher segmentCipher = new SegmentCipher(header.getCipher(), this.sessionKey.getSecretKey(), header.getIv(), header.getAssociatedData());
+            InputStream segmented;
+            if (parallelism > 1) {
+                segmented = new ParallelSegmentedInputStream(in, segmentCipher, header.getSegmentSize(), parallelism);
+            } else {
+                segmented = new SegmentedInputStream(in, segmentCipher, header.getSegmentSize());
+            }
+            this.input = header.getCompressionCodec().decompress(segmented);
+        } else {
+            AeadAlgorithm algorithm = header.getCipher();
+            Cipher cipher = algorithm.newCipher();
+            cipher.init(Cipher.DECRYPT_MODE, algorithm.toKey(this.sessionKey.getSecretKey()), algorithm.parameterSpec(header.getIv()));
+            cipher.updateAAD(header.getAssociatedData());
+            this.input = header.getCompressionCodec().decompress(new CipherInputStream(in, cipher));
+        }
+    }
+
+    private CryptInputStream(InputStream input, FileHeader header, SessionKey sessionKey, UnlockTimings timings) {
+        this.input = input;
+        this.sessionKey = sessionKey;
+        this.timings = timings;
+        this.iv = header.getIv();
+    }
+
+    /**
+     * Opens an encrypted file. The key is derived on a separate thread while the file is read,
+     * so the latency of slow storage is hidden behind the key derivation function.
+     * <p>
+     * If the {@code io.mmap.enabled} property allows it (the default except on Windows, where
+     * mapped files cannot be replaced), the file is memory-mapped and loaded into memory, and
+     * segmented payloads are decrypted from buffer to buffer without intermediate heap copies.
+     * Otherwise the payload is read into a heap buffer.
+     *
+     * @param path the file
+     * @param pass the password
+     * @return the decrypting stream
+     * @throws FileNotFoundException if the file does not exist
+     * @throws InvalidPasswordException if the password does not match the key section of the header
+     * @throws GeneralSecurityException if the key cannot be derived or the cipher cannot be initialized
+     * @throws IOException if the file cannot be read
+     * @see #getUnlockTimings()
+     */
+    public static CryptInputStream open(Path path, char[] pass) throws GeneralSecurityException, IOException {
+        UnlockTimings timings = new UnlockTimings();
+        boolean windows = System.getProperty("os.name", "").startsWith("Windows");
+        if (Configuration.is("io.mmap.enabled", !windows)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                FileHeader header = FileHeader.read(mapped);
+                timings.headerRead();
+                if (MappedPayloadInputStream.supports(header)) {
+                    Future<SessionKey> unlocking = startUnlock(pass, header, timings);
+                    SessionKey sessionKey;
+                    try {
+                        mapped.load();
+                        timings.payloadRead();
+                        sessionKey = await(unlocking);
+                        timings.keyAvailable();
+                        return new CryptInputStream(new MappedPayloadInputStream(mapped, header, sessionKey), header, sessionKey, timings);
+                    } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                        discard(unlocking);
+                        throw e;
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException(path.toString());
+            }
+            timings = new UnlockTimings();
+        }
+        try (InputStream in = new FileInputStream(path.toFile())) {
+            FileHeader header = FileHeader.read(in);
+            timings.headerRead();
+            Future<SessionKey> unlocking = startUnlock(pass, header, timings);
+            try {
+                byte[] payload = in.readAllBytes();
+                timings.payloadRead();
+                SessionKey sessionKey = await(unlocking);
+                timings.keyAvailable();
+                return new CryptInputStream(new ByteArrayInputStream(payload), header, sessionKey,
+                        Configuration.getInteger("crypt.parallelism", 1), timings);
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                discard(unlocking);
+                throw e;
+            }
+        }
+    }
+
+    private static Future<SessionKey> startUnlock(char[] pass, FileHeader header, UnlockTimings timings) {
+        return UNLOCK_EXECUTOR.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return SessionKey.unlock(pass, header);
+            } finally {
+                timings.keyDerived(System.nanoTime() - start);
+            }
+        });
+    }
+
+    private static SessionKey await(Future<SessionKey> unlocking) throws GeneralSecurityException, IOException {
+        try {
+            return unlocking.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Unlocking the file has been interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Cancels an unlock which is not needed any more, wiping the key if it is already derived.
+     */
+    private static void discard(Future<SessionKey> unlocking) {
+        if (!unlocking.cancel(true) && !unlocking.isCancelled()) {
+            try {
+                unlocking.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // the key was not derived
+            }
+        }
+    }
+
+    /**
+     * Gets the key derived from the password and the salt of this stream. It can be reused
+     * for saving the same file without deriving the key again.
+     *
+     * @return the session key
+     */
+    public SessionKey getSessionKey() {
+        return this.sessionKey;
+    }
+
+    /**
+     * Gets the identifier of the version of the file which is read, see
+     * {@link CryptOutputStream#getSnapshotId()}.
+     *
+     * @return the snapshot identifier
+     */
+    public byte[] getSnapshotId() {
+        return this.iv.clone();
+    }
+
+    /**
+     * Gets the time spent in the phases of opening the file. The decryption phase is complete
+     * when the stream is closed.
+     *
+     * @return the timings, or {@code null} if the stream was not created by {@link #open(Path, char[])}
+     */
+    public UnlockTimings getUnlockTimings() {
+        return this.timings;
     }
 
     @Override
@@ -61,6 +260,9 @@ public class CryptInputStream extends InputStream {
     @Override
     public void close() throws IOException {
         input.close();
+        if (this.timings != null && this.timings.decrypted()) {
+            LOG.log(Level.FINE, "Opened file: {0}", this.timings);
+        }
     }
 
     @Override
@@ -1,38 +1,106 @@
 package jpass.crypt.io;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.security.GeneralSecurityException;
-import java.security.SecureRandom;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
+import jpass.util.Configuration;
+import jpass.util.RandomService;
+
+/**
+ * Stream which compresses and encrypts a payload into the segmented file format. The segment
+ * size is read from the {@code crypt.segment.size} property, the number of segments sealed in
+ * parallel from {@code crypt.parallelism}, and the compression from {@code compression.codec}
+ * and {@code compression.level}.
+ */
 public class CryptOutputStream extends OutputStream {
     private final OutputStream output;
+    private final byte[] iv;
+    private final SessionKey ownedKey;
 
+    /**
+     * Creates an encrypting stream with a key derived from the password. The derived key is wiped
+     * when the stream is closed.
+     *
+     * @param out the underlying stream
+     * @param pass the password
+     * @throws GeneralSecurityException if the key cannot be derived or the cipher cannot be initialized
+     * @throws IOException if the header cannot be written
+     */
     public CryptOutputStream(OutputStream out, char[] pass) throws GeneralSecurityException, IOException {
-        SecureRandom random = SecureRandom.getInstanceStrong();
-        byte[] salt = new byte[CipherSpecifications.SALT_SIZE_BYTES];
-        random.nextBytes(salt);
-        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(CipherSpecifications.KEY_GENERATION_ALGORITHM);
-        PBEKeySpec pbeKeySpec = new PBEKeySpec(pass, salt, CipherSpecifications.KEY_GENERATION_ITERATION_COUNT, CipherSpecifications.KEY_SIZE_BITS);
-        SecretKey key = secretKeyFactory.generateSecret(pbeKeySpec);
-        SecretKeySpec secretKey = new SecretKeySpec(key.getEncoded(), CipherSpecifications.KEY_ALGORITHM);
-        byte[] iv = new byte[CipherSpecifications.IV_LENGTH_BYTES];
-        random.nextBytes(iv);
-        GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS, iv);
-        Cipher cipher = Cipher.getInstance(CipherSpecifications.CIPHER);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmParameterSpec);
-        out.write(CipherSpecifications.FILE_HEADER);
-        out.write(salt);
-        out.write(iv);
-        this.output = new GZIPOutputStream(new CipherOutputStream(out, cipher));
+        this(out, SessionKey.derive(pass), Configuration.getInteger("crypt.parallelism", 1), true);
+    }
+
+    /**
+     * Creates an encrypting stream with an already derived key. Only a fresh IV is generated.
+     *
+     * @param out the underlying stream
+     * @param sessionKey the key of the unlocked file
+     * @throws GeneralSecurityException if the cipher cannot be initialized
+     * @throws IOException if the header cannot be written
+     */
+    public CryptOutputStream(OutputStream out, SessionKey sessionKey) throws GeneralSecurityException, IOException {
+        this(out, sessionKey, Configuration.getInteger("crypt.parallelism", 1));
+    }
+
+    /**
+     * Creates an encrypting stream with an already derived key, which seals segments on several
+     * threads.
+     *
+     * @param out the underlying stream
+     * @param sessionKey the key of the unlocked file
+     * @param parallelism the number of segments sealed in parallel; 1 seals on the calling thread
+     * @throws GeneralSecurityException if the cipher cannot be initialized
+     * @throws IOException if the header cannot be written
+     */
+    public CryptOutputStream(OutputStream out, SessionKey sessionKey, int parallelism) throws GeneralSecurityException, IOException {
+        this(out, sessionKey, parallelism, false);
+    }
+
+    private CryptOutputStream(OutputStream out, SessionKey sessionKey, int parallelism, boolean ownsKey)
+            throws GeneralSecurityException, IOException {
+        this.ownedKey = ownsKey ? sessionKey : null;
+        try {
+            byte[] iv = new byte[CipherSpecifications.IV_LENGTH_BYTES];
+            RandomService.nextBytes(iv);
+            int segmentSize = Configuration.getInteger("crypt.segment.size", CipherSpecifications.SEGMENT_SIZE_BYTES);
+            if (segmentSize <= 0 || segmentSize > CipherSpecifications.MAX_SEGMENT_SIZE_BYTES) {
+                segmentSize = CipherSpecifications.SEGMENT_SIZE_BYTES;
+            }
+            CompressionCodec codec = CompressionCodec.forNewFiles();
+            int level = Configuration.getInteger("compression.level", Deflater.DEFAULT_COMPRESSION);
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                level = Deflater.DEFAULT_COMPRESSION;
+            }
+            AeadAlgorithm cipher = AeadAlgorithm.forNewFiles();
+            FileHeader header = new FileHeader(sessionKey, cipher, iv, segmentSize, codec, level);
+            SegmentCipher segmentCipher = new SegmentCipher(cipher, sessionKey.getSecretKey(), iv, header.getAssociatedData());
+            header.write(out);
+            OutputStream segmented;
+            if (parallelism > 1) {
+                segmented = new ParallelSegmentedOutputStream(out, segmentCipher, segmentSize, parallelism);
+            } else {
+                segmented = new SegmentedOutputStream(out, segmentCipher, segmentSize);
+            }
+            this.output = codec.compress(segmented, level);
+            this.iv = iv;
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            if (ownsKey) {
+                sessionKey.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the identifier of the written version of the file. It is the random IV of the header,
+     * which is new on every save, but kept when only the key slots are rewritten.
+     *
+     * @return the snapshot identifier
+     */
+    public byte[] getSnapshotId() {
+        return this.iv.clone();
     }
 
     @Override
@@ -57,6 +125,12 @@ public class CryptOutputStream extends OutputStream {
 
     @Override
     public void close() throws IOException {
-        output.close();
+        try {
+            output.close();
+        } finally {
+            if (this.ownedKey != null) {
+                this.ownedKey.close();
+            }
+        }
     }
 }
@@ -0,0 +1,314 @@
+package jpass.crypt.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Header of an encrypted file.
+ * <p>
+ * Version 1 is the original fixed layout: the signature, an 8 byte salt and the IV, with the
+ * PBKDF2 parameters implied. Version 2 keeps the first three bytes of the signature, followed by
+ * the version byte and a length-prefixed list of tagged fields, so that new fields can be added
+ * without changing the layout. The fields describing the payload are authenticated as associated
+ * data of the cipher.
+ * <p>
+ * If the header has a segment size, the payload is a sequence of separately authenticated
+ * segments (see {@link SegmentCipher}), otherwise it is a single cipher stream. The plain text is
+ * compressed by the recorded codec, or by GZIP if there is none, and encrypted by the recorded
+ * cipher, or by AES-GCM if there is none.
+ * <p>
+ * A key check value lets a wrong password be rejected right after key derivation, before any
+ * of the payload is read. Files written without it are only verified by the payload tags.
+ * <p>
+ * The key slots (see {@link KeySlot}) form the key section of the header. The first slot is
+ * stored as separate KDF, key check and wrapped key fields, every further slot as one key slot
+ * field. The key section is not authenticated with the payload, so it can be replaced without
+ * touching the payload when passwords change.
+ */
+final class FileHeader {
+    static final int VERSION_1 = CipherSpecifications.FILE_HEADER[3] & 0xFF;
+    static final int VERSION_2 = 0x02;
+    private static final int SIGNATURE_LENGTH = 3;
+    private static final int TAG_KDF = 1;
+    private static final int TAG_IV = 2;
+    private static final int TAG_SEGMENT_SIZE = 3;
+    private static final int TAG_COMPRESSION = 4;
+    private static final int TAG_KEY_CHECK = 5;
+    private static final int TAG_WRAPPED_KEY = 6;
+    private static final int TAG_KEY_SLOT = 7;
+    private static final int TAG_CIPHER = 8;
+
+    private static final int DEFAULT_COMPRESSION = -1;
+
+    private final int version;
+    private final List<KeySlot> keySlots;
+    private final byte[] iv;
+    private final int segmentSize;
+    private final CompressionCodec compressionCodec;
+    private final int compressionLevel;
+    private final AeadAlgorithm cipher;
+
+    FileHeader(SessionKey sessionKey, AeadAlgorithm cipher, byte[] iv, int segmentSize,
+            CompressionCodec compressionCodec, int compressionLevel) {
+        this(VERSION_2, sessionKey.getKeySlots(), cipher, iv, segmentSize, compressionCodec, compressionLevel);
+    }
+
+    private FileHeader(int version, List<KeySlot> keySlots, AeadAlgorithm cipher, byte[] iv, int segmentSize,
+            CompressionCodec compressionCodec, int compressionLevel) {
+        this.version = version;
+        this.keySlots = List.copyOf(keySlots);
+        this.cipher = cipher;
+        this.iv = iv;
+        this.segmentSize = segmentSize;
+        this.compressionCodec = compressionCodec;
+        this.compressionLevel = compressionLevel;
+    }
+
+    int getVersion() {
+        return this.version;
+    }
+
+    List<KeySlot> getKeySlots() {
+        return this.keySlots;
+    }
+
+    /**
+     * Checks whether the key section of this header is the one of a session key.
+     *
+     * @param sessionKey the session key
+     * @return {@code true} if the header has the same key slots
+     */
+    boolean hasKeySlots(SessionKey sessionKey) {
+        List<KeySlot> other = sessionKey.getKeySlots();
+        if (other.size() != this.keySlots.size()) {
+            return false;
+        }
+        for (int i = 0; i < other.size(); i++) {
+            if (!other.get(i).isSame(this.keySlots.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a copy of this header with the key section of another session key. The payload
+     * fields are kept, so the payload remains valid.
+     *
+     * @param sessionKey the session key
+     * @return the new header
+     */
+    FileHeader withKey(SessionKey sessionKey) {
+        return new FileHeader(this.version, sessionKey.getKeySlots(), this.cipher, this.iv, this.segmentSize,
+                this.compressionCodec, this.compressionLevel);
+    }
+
+    AeadAlgorithm getCipher() {
+        return this.cipher;
+    }
+
+    byte[] getIv() {
+        return this.iv.clone();
+    }
+
+    /**
+     * Gets the size of the plain text segments of the payload.
+     *
+     * @return the segment size, or 0 if the payload is not segmented
+     */
+    int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    CompressionCodec getCompressionCodec() {
+        return this.compressionCodec;
+    }
+
+    int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * Reads the header from a buffer, leaving the position of the buffer at the payload.
+     */
+    static FileHeader read(ByteBuffer buffer) throws IOException {
+        return read(new InputStream() {
+            @Override
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!buffer.hasRemaining()) {
+                    return len == 0 ? 0 : -1;
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.get(b, off, count);
+                return count;
+            }
+        });
+    }
+
+    static FileHeader read(InputStream in) throws IOException {
+        DataInputStream input = new DataInputStream(in);
+        byte[] signature = new byte[SIGNATURE_LENGTH + 1];
+        input.readFully(signature);
+        for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+            if (signature[i] != CipherSpecifications.FILE_HEADER[i]) {
+                throw new IOException("Unknown file format");
+            }
+        }
+        int version = signature[SIGNATURE_LENGTH] & 0xFF;
+        if (version == VERSION_1) {
+            byte[] salt = new byte[CipherSpecifications.SALT_SIZE_BYTES];
+            input.readFully(salt);
+            byte[] iv = new byte[CipherSpecifications.IV_LENGTH_BYTES];
+            input.readFully(iv);
+            KeySlot keySlot = new KeySlot(new Pbkdf2KeyDerivation().getDefaultParameters(salt), null, null);
+            return new FileHeader(VERSION_1, List.of(keySlot), AeadAlgorithm.AES_GCM, iv, 0,
+                    CompressionCodec.GZIP, DEFAULT_COMPRESSION);
+        }
+        if (version != VERSION_2) {
+            throw new IOException("Unsupported file format version: " + version);
+        }
+        byte[] fields = new byte[input.readUnsignedShort()];
+        input.readFully(fields);
+        DataInputStream fieldInput = new DataInputStream(new ByteArrayInputStream(fields));
+        KdfParameters kdfParameters = null;
+        byte[] keyCheck = null;
+        byte[] wrappedKey = null;
+        List<KeySlot> keySlots = new ArrayList<>();
+        byte[] iv = null;
+        int segmentSize = 0;
+        CompressionCodec compressionCodec = CompressionCodec.GZIP;
+        int compressionLevel = DEFAULT_COMPRESSION;
+        AeadAlgorithm cipher = AeadAlgorithm.AES_GCM;
+        while (fieldInput.available() > 0) {
+            int tag = fieldInput.readUnsignedByte();
+            byte[] value = new byte[fieldInput.readUnsignedShort()];
+            fieldInput.readFully(value);
+            DataInputStream valueInput = new DataInputStream(new ByteArrayInputStream(value));
+            switch (tag) {
+                case TAG_KDF -> kdfParameters = readKdfParameters(valueInput);
+                case TAG_KEY_CHECK -> keyCheck = value;
+                case TAG_WRAPPED_KEY -> wrappedKey = value;
+                case TAG_KEY_SLOT -> {
+                    byte[] kdfValue = new byte[valueInput.readUnsignedShort()];
+                    valueInput.readFully(kdfValue);
+                    byte[] slotKeyCheck = new byte[valueInput.readUnsignedByte()];
+                    valueInput.readFully(slotKeyCheck);
+                    keySlots.add(new KeySlot(readKdfParameters(new DataInputStream(new ByteArrayInputStream(kdfValue))),
+                            slotKeyCheck, valueInput.readAllBytes()));
+                }
+                case TAG_IV -> iv = value;
+                case TAG_SEGMENT_SIZE -> segmentSize = valueInput.readInt();
+                case TAG_COMPRESSION -> {
+                    compressionCodec = CompressionCodec.forId(valueInput.readUnsignedByte());
+                    compressionLevel = valueInput.readByte();
+                }
+                case TAG_CIPHER -> cipher = AeadAlgorithm.forId(valueInput.readUnsignedByte());
+                default -> throw new IOException("Unsupported file header field: " + tag);
+            }
+        }
+        if (kdfParameters == null || iv == null || iv.length != CipherSpecifications.IV_LENGTH_BYTES) {
+            throw new IOException("Incomplete file header");
+        }
+        if (segmentSize < 0 || segmentSize > CipherSpecifications.MAX_SEGMENT_SIZE_BYTES) {
+            throw new IOException("Invalid segment size: " + segmentSize);
+        }
+        keySlots.add(0, new KeySlot(kdfParameters, keyCheck, wrappedKey));
+        return new FileHeader(VERSION_2, keySlots, cipher, iv, segmentSize, compressionCodec, compressionLevel);
+    }
+
+    void write(OutputStream out) throws IOException {
+        if (this.version != VERSION_2) {
+            throw new IOException("Writing file format version " + this.version + " is not supported");
+        }
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        KeySlot first = this.keySlots.get(0);
+        writeField(fields, TAG_KDF, encodeKdfParameters(first.getKdfParameters()));
+        if (first.getKeyCheck() != null) {
+            writeField(fields, TAG_KEY_CHECK, first.getKeyCheck());
+        }
+        if (first.getWrappedKey() != null) {
+            writeField(fields, TAG_WRAPPED_KEY, first.getWrappedKey());
+        }
+        for (KeySlot keySlot : this.keySlots.subList(1, this.keySlots.size())) {
+            ByteArrayOutputStream slotValue = new ByteArrayOutputStream();
+            DataOutputStream slot = new DataOutputStream(slotValue);
+            byte[] kdfValue = encodeKdfParameters(keySlot.getKdfParameters());
+            slot.writeShort(kdfValue.length);
+            slot.write(kdfValue);
+            slot.writeByte(keySlot.getKeyCheck().length);
+            slot.write(keySlot.getKeyCheck());
+            slot.write(keySlot.getWrappedKey());
+            writeField(fields, TAG_KEY_SLOT, slotValue.toByteArray());
+        }
+        fields.write(getAssociatedData());
+        if (fields.size() > 0xFFFF) {
+            throw new IOException("Header fields are too long: " + fields.size() + " bytes");
+        }
+        DataOutputStream output = new DataOutputStream(out);
+        output.write(CipherSpecifications.FILE_HEADER, 0, SIGNATURE_LENGTH);
+        output.writeByte(this.version);
+        output.writeShort(fields.size());
+        fields.writeTo(output);
+        output.flush();
+    }
+
+    /**
+     * Gets the encoded fields which describe the payload. They are authenticated together with
+     * the payload.
+     *
+     * @return the associated data, empty for version 1
+     */
+    byte[] getAssociatedData() throws IOException {
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        if (this.version != VERSION_1) {
+            if (this.cipher != AeadAlgorithm.AES_GCM) {
+                writeField(fields, TAG_CIPHER, new byte[] {(byte) this.cipher.getId()});
+            }
+            writeField(fields, TAG_IV, this.iv);
+            if (this.segmentSize > 0) {
+                writeField(fields, TAG_SEGMENT_SIZE, toBytes(this.segmentSize));
+            }
+            writeField(fields, TAG_COMPRESSION, new byte[] {(byte) this.compressionCodec.getId(), (byte) this.compressionLevel});
+        }
+        return fields.toByteArray();
+    }
+
+    private static KdfParameters readKdfParameters(DataInputStream input) throws IOException {
+        return new KdfParameters(input.readUnsignedByte(), input.readInt(), input.readInt(), input.readInt(), input.readAllBytes());
+    }
+
+    private static byte[] encodeKdfParameters(KdfParameters kdfParameters) throws IOException {
+        ByteArrayOutputStream kdfValue = new ByteArrayOutputStream();
+        DataOutputStream kdf = new DataOutputStream(kdfValue);
+        kdf.writeByte(kdfParameters.getAlgorithm());
+        kdf.writeInt(kdfParameters.getIterations());
+        kdf.writeInt(kdfParameters.getMemoryCost());
+        kdf.writeInt(kdfParameters.getParallelism());
+        kdf.write(kdfParameters.getSalt());
+        return kdfValue.toByteArray();
+    }
+
+    private static void writeField(ByteArrayOutputStream fields, int tag, byte[] value) throws IOException {
+        DataOutputStream output = new DataOutputStream(fields);
+        output.writeByte(tag);
+        output.writeShort(value.length);
+        output.write(value);
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+}
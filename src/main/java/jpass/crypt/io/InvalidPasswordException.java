@@ -0,0 +1,16 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * Exception if the password does not match the key check value of a file header.
+ */
+public class InvalidPasswordException extends IOException {
+    @Serial
+    private static final long serialVersionUID = 3126815489216580436L;
+
+    public InvalidPasswordException() {
+        super("Incorrect password.");
+    }
+}
@@ -0,0 +1,58 @@
+package jpass.crypt.io;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Calibrates the parameters of a key derivation function to reach a target unlock time on the
+ * current machine. Slow hosts get cheaper parameters, fast hosts get stronger ones.
+ */
+public final class KdfCalibration {
+    private static final Logger LOG = Logger.getLogger(KdfCalibration.class.getName());
+    private static final int MAX_ROUNDS = 4;
+    private static final double TOLERANCE = 0.2;
+
+    private KdfCalibration() {
+        throw new AssertionError("Class KdfCalibration can't be instantiated");
+    }
+
+    /**
+     * Finds parameters whose derivation takes approximately the target time. The parameters
+     * are scaled from the defaults of the algorithm by the measured time of the derivation.
+     *
+     * @param keyDerivation the key derivation function
+     * @param targetMillis the target time of a derivation in milliseconds
+     * @return the calibrated parameters with an empty salt
+     */
+    public static KdfParameters calibrate(KeyDerivation keyDerivation, long targetMillis) {
+        byte[] salt = new byte[CipherSpecifications.KDF_SALT_SIZE_BYTES];
+        char[] password = "calibration".toCharArray();
+        KdfParameters parameters = keyDerivation.getDefaultParameters(salt);
+        try {
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                long start = System.nanoTime();
+                Arrays.fill(keyDerivation.deriveKey(password, parameters, CipherSpecifications.KEY_SIZE_BITS / 8), (byte) 0);
+                double elapsedMillis = Math.max(1.0, (System.nanoTime() - start) / 1_000_000.0);
+                double factor = targetMillis / elapsedMillis;
+                LOG.log(Level.FINE, "KDF calibration round {0}: {1} took {2} ms",
+                        new Object[] {round, parameters, elapsedMillis});
+                if (Math.abs(factor - 1.0) <= TOLERANCE) {
+                    break;
+                }
+                KdfParameters scaled = keyDerivation.scale(parameters, factor);
+                if (scaled.getIterations() == parameters.getIterations()
+                        && scaled.getMemoryCost() == parameters.getMemoryCost()
+                        && scaled.getParallelism() == parameters.getParallelism()) {
+                    break;
+                }
+                parameters = scaled;
+            }
+        } catch (GeneralSecurityException e) {
+            LOG.log(Level.WARNING, "KDF calibration failed, using the default parameters", e);
+            parameters = keyDerivation.getDefaultParameters(salt);
+        }
+        return parameters.withSalt(new byte[0]);
+    }
+}
@@ -0,0 +1,70 @@
+package jpass.crypt.io;
+
+/**
+ * Parameters of a key derivation function as they are recorded in the file header.
+ * <p>
+ * The meaning of the cost values depends on the algorithm: PBKDF2 uses only the iteration count,
+ * scrypt uses the memory cost (in KiB) and the parallelism.
+ */
+public final class KdfParameters {
+    private final int algorithm;
+    private final int iterations;
+    private final int memoryCost;
+    private final int parallelism;
+    private final byte[] salt;
+
+    public KdfParameters(int algorithm, int iterations, int memoryCost, int parallelism, byte[] salt) {
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.memoryCost = memoryCost;
+        this.parallelism = parallelism;
+        this.salt = salt.clone();
+    }
+
+    /**
+     * Gets the identifier of the key derivation algorithm.
+     *
+     * @return the algorithm identifier
+     * @see KeyDerivation#getId()
+     */
+    public int getAlgorithm() {
+        return this.algorithm;
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    /**
+     * Gets the memory cost in KiB.
+     *
+     * @return the memory cost
+     */
+    public int getMemoryCost() {
+        return this.memoryCost;
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    public byte[] getSalt() {
+        return this.salt.clone();
+    }
+
+    /**
+     * Creates a copy of these parameters with another salt.
+     *
+     * @param newSalt the salt
+     * @return the new parameters
+     */
+    public KdfParameters withSalt(byte[] newSalt) {
+        return new KdfParameters(this.algorithm, this.iterations, this.memoryCost, this.parallelism, newSalt);
+    }
+
+    @Override
+    public String toString() {
+        return "KdfParameters{algorithm=" + this.algorithm + ", iterations=" + this.iterations
+                + ", memoryCost=" + this.memoryCost + ", parallelism=" + this.parallelism + "}";
+    }
+}
@@ -0,0 +1,55 @@
+package jpass.crypt.io;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Service provider interface of the password based key derivation functions.
+ * <p>
+ * Implementations are looked up by {@link KeyDerivations}. Besides the built-in ones, further
+ * implementations can be registered with {@link java.util.ServiceLoader}.
+ */
+public interface KeyDerivation {
+
+    /**
+     * Gets the identifier which is recorded in the file header.
+     *
+     * @return the identifier
+     */
+    int getId();
+
+    /**
+     * Gets the name of the algorithm used in the configuration.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Derives a key from the password.
+     *
+     * @param password the password
+     * @param parameters the parameters of the derivation
+     * @param keyLengthBytes the length of the key
+     * @return the key material
+     * @throws GeneralSecurityException if the key cannot be derived or the parameters are invalid
+     */
+    byte[] deriveKey(char[] password, KdfParameters parameters, int keyLengthBytes) throws GeneralSecurityException;
+
+    /**
+     * Gets the default parameters of the algorithm.
+     *
+     * @param salt the salt
+     * @return the parameters
+     */
+    KdfParameters getDefaultParameters(byte[] salt);
+
+    /**
+     * Gets parameters which make the derivation approximately {@code factor} times as expensive
+     * as the given ones.
+     *
+     * @param parameters the parameters to scale
+     * @param factor the cost factor
+     * @return the scaled parameters
+     */
+    KdfParameters scale(KdfParameters parameters, double factor);
+}
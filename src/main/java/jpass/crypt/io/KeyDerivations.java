@@ -0,0 +1,97 @@
+package jpass.crypt.io;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import jpass.util.Configuration;
+import jpass.util.RandomService;
+
+/**
+ * Registry of the available key derivation functions and source of the parameters for new files.
+ * <p>
+ * New files use the algorithm named by the {@code kdf.algorithm} property. If
+ * {@code kdf.target.millis} is set, the parameters are calibrated once per session to reach that
+ * unlock time on the current machine, otherwise {@code kdf.iterations}, {@code kdf.memory.cost}
+ * and {@code kdf.parallelism} are used, falling back to the defaults of the algorithm.
+ */
+public final class KeyDerivations {
+    private static final List<KeyDerivation> KEY_DERIVATIONS = loadKeyDerivations();
+    private static volatile KdfParameters calibratedParameters = null;
+
+    private KeyDerivations() {
+        throw new AssertionError("Class KeyDerivations can't be instantiated");
+    }
+
+    private static List<KeyDerivation> loadKeyDerivations() {
+        List<KeyDerivation> result = new ArrayList<>();
+        result.add(new Pbkdf2KeyDerivation());
+        result.add(new ScryptKeyDerivation());
+        ServiceLoader.load(KeyDerivation.class).forEach(result::add);
+        return List.copyOf(result);
+    }
+
+    /**
+     * Gets the key derivation function recorded in a file header.
+     *
+     * @param id identifier of the algorithm
+     * @return the key derivation function
+     * @throws NoSuchAlgorithmException if the algorithm is unknown
+     */
+    public static KeyDerivation forId(int id) throws NoSuchAlgorithmException {
+        for (KeyDerivation keyDerivation : KEY_DERIVATIONS) {
+            if (keyDerivation.getId() == id) {
+                return keyDerivation;
+            }
+        }
+        throw new NoSuchAlgorithmException("Unsupported key derivation algorithm: " + id);
+    }
+
+    /**
+     * Gets the key derivation function by its name.
+     *
+     * @param name name of the algorithm
+     * @return the key derivation function
+     * @throws NoSuchAlgorithmException if the algorithm is unknown
+     */
+    public static KeyDerivation forName(String name) throws NoSuchAlgorithmException {
+        for (KeyDerivation keyDerivation : KEY_DERIVATIONS) {
+            if (keyDerivation.getName().equalsIgnoreCase(name)) {
+                return keyDerivation;
+            }
+        }
+        throw new NoSuchAlgorithmException("Unsupported key derivation algorithm: " + name);
+    }
+
+    /**
+     * Gets the parameters for a new file with a fresh random salt.
+     *
+     * @return the parameters
+     * @throws NoSuchAlgorithmException if the configured algorithm is unknown
+     */
+    public static KdfParameters newParameters() throws NoSuchAlgorithmException {
+        byte[] salt = new byte[CipherSpecifications.KDF_SALT_SIZE_BYTES];
+        RandomService.nextBytes(salt);
+        return getConfiguredParameters().withSalt(salt);
+    }
+
+    private static KdfParameters getConfiguredParameters() throws NoSuchAlgorithmException {
+        KeyDerivation keyDerivation = forName(Configuration.getString("kdf.algorithm", CipherSpecifications.KEY_GENERATION_ALGORITHM));
+        long targetMillis = Configuration.getInteger("kdf.target.millis", 0);
+        if (targetMillis > 0) {
+            KdfParameters result = calibratedParameters;
+            if (result == null || result.getAlgorithm() != keyDerivation.getId()) {
+                result = KdfCalibration.calibrate(keyDerivation, targetMillis);
+                calibratedParameters = result;
+            }
+            return result;
+        }
+        KdfParameters defaults = keyDerivation.getDefaultParameters(new byte[0]);
+        return new KdfParameters(keyDerivation.getId(),
+                Configuration.getInteger("kdf.iterations", defaults.getIterations()),
+                Configuration.getInteger("kdf.memory.cost", defaults.getMemoryCost()),
+                Configuration.getInteger("kdf.parallelism", defaults.getParallelism()),
+                defaults.getSalt());
+    }
+}
@@ -0,0 +1,150 @@
+package jpass.crypt.io;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import jpass.util.RandomService;
+
+/**
+ * Key slot of a file header. A slot wraps the data key with a key derived from one password, so
+ * a file can have several passwords. A key file is used as a password, see
+ * {@link CryptFiles#readKeyFile(java.nio.file.Path)}.
+ * <p>
+ * The slot also has a key check value, which is an HMAC of the salt under a subkey, which is
+ * itself an HMAC of a fixed label under the derived key. It rejects a wrong password without
+ * trying to unwrap the data key and reveals nothing about the derived key.
+ */
+final class KeySlot {
+    private static final byte[] KEY_CHECK_LABEL = "JPass key check".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEY_WRAP_LABEL = "JPass data key".getBytes(StandardCharsets.US_ASCII);
+
+    private final KdfParameters kdfParameters;
+    private final byte[] keyCheck;
+    private final byte[] wrappedKey;
+
+    /**
+     * Creates a key slot as it is read from a header.
+     *
+     * @param kdfParameters the parameters of the key derivation function
+     * @param keyCheck the key check value, or {@code null} if the file has none
+     * @param wrappedKey the wrapped data key, or {@code null} if the derived key is the data key
+     */
+    KeySlot(KdfParameters kdfParameters, byte[] keyCheck, byte[] wrappedKey) {
+        this.kdfParameters = kdfParameters;
+        this.keyCheck = keyCheck;
+        this.wrappedKey = wrappedKey;
+    }
+
+    /**
+     * Creates a slot which wraps the data key with the password.
+     *
+     * @param pass the password
+     * @param kdfParameters the parameters of the key derivation function
+     * @param key the data key
+     * @return the key slot
+     * @throws GeneralSecurityException if the key cannot be derived or wrapped
+     */
+    static KeySlot wrap(char[] pass, KdfParameters kdfParameters, byte[] key) throws GeneralSecurityException {
+        byte[] keyEncryptionKey = deriveKeyEncryptionKey(pass, kdfParameters);
+        try {
+            byte[] nonce = new byte[CipherSpecifications.IV_LENGTH_BYTES];
+            RandomService.nextBytes(nonce);
+            byte[] sealed = wrapCipher(Cipher.ENCRYPT_MODE, keyEncryptionKey, nonce).doFinal(key);
+            byte[] wrappedKey = Arrays.copyOf(nonce, nonce.length + sealed.length);
+            System.arraycopy(sealed, 0, wrappedKey, nonce.length, sealed.length);
+            return new KeySlot(kdfParameters, computeKeyCheck(keyEncryptionKey, kdfParameters), wrappedKey);
+        } finally {
+            Arrays.fill(keyEncryptionKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Unwraps the data key with the password.
+     *
+     * @param pass the password
+     * @return the data key
+     * @throws InvalidPasswordException if the password does not belong to this slot
+     * @throws GeneralSecurityException if the key cannot be derived
+     */
+    byte[] unwrap(char[] pass) throws GeneralSecurityException, InvalidPasswordException {
+        byte[] keyEncryptionKey = deriveKeyEncryptionKey(pass, this.kdfParameters);
+        try {
+            if (this.keyCheck != null && !MessageDigest.isEqual(computeKeyCheck(keyEncryptionKey, this.kdfParameters), this.keyCheck)) {
+                throw new InvalidPasswordException();
+            }
+            if (this.wrappedKey == null) {
+                return keyEncryptionKey.clone();
+            }
+            Cipher cipher = wrapCipher(Cipher.DECRYPT_MODE, keyEncryptionKey, Arrays.copyOf(this.wrappedKey, CipherSpecifications.IV_LENGTH_BYTES));
+            return cipher.doFinal(this.wrappedKey, CipherSpecifications.IV_LENGTH_BYTES, this.wrappedKey.length - CipherSpecifications.IV_LENGTH_BYTES);
+        } catch (AEADBadTagException e) {
+            throw new InvalidPasswordException();
+        } finally {
+            Arrays.fill(keyEncryptionKey, (byte) 0);
+        }
+    }
+
+    KdfParameters getKdfParameters() {
+        return this.kdfParameters;
+    }
+
+    /**
+     * Gets the key check value.
+     *
+     * @return the key check value, or {@code null} if the file has none
+     */
+    byte[] getKeyCheck() {
+        return this.keyCheck == null ? null : this.keyCheck.clone();
+    }
+
+    /**
+     * Gets the data key encrypted by the key derived from the password, prefixed by the nonce.
+     *
+     * @return the wrapped key, or {@code null} if the derived key is the data key
+     */
+    byte[] getWrappedKey() {
+        return this.wrappedKey == null ? null : this.wrappedKey.clone();
+    }
+
+    boolean isWrapped() {
+        return this.wrappedKey != null;
+    }
+
+    /**
+     * Checks whether this is the same slot as another one. Wrapped keys have random nonces, so
+     * they identify the slot.
+     */
+    boolean isSame(KeySlot other) {
+        return Arrays.equals(this.wrappedKey, other.wrappedKey) && Arrays.equals(this.keyCheck, other.keyCheck);
+    }
+
+    private static byte[] deriveKeyEncryptionKey(char[] pass, KdfParameters kdfParameters) throws GeneralSecurityException {
+        KeyDerivation keyDerivation = KeyDerivations.forId(kdfParameters.getAlgorithm());
+        return keyDerivation.deriveKey(pass, kdfParameters, CipherSpecifications.KEY_SIZE_BITS / 8);
+    }
+
+    private static Cipher wrapCipher(int mode, byte[] keyEncryptionKey, byte[] nonce) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CipherSpecifications.CIPHER);
+        cipher.init(mode, new SecretKeySpec(keyEncryptionKey, CipherSpecifications.KEY_ALGORITHM),
+                new GCMParameterSpec(CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS, nonce));
+        cipher.updateAAD(KEY_WRAP_LABEL);
+        return cipher;
+    }
+
+    private static byte[] computeKeyCheck(byte[] keyEncryptionKey, KdfParameters kdfParameters) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(CipherSpecifications.KEY_CHECK_ALGORITHM);
+        mac.init(new SecretKeySpec(keyEncryptionKey, CipherSpecifications.KEY_CHECK_ALGORITHM));
+        byte[] subkey = mac.doFinal(KEY_CHECK_LABEL);
+        mac.init(new SecretKeySpec(subkey, CipherSpecifications.KEY_CHECK_ALGORITHM));
+        Arrays.fill(subkey, (byte) 0);
+        return mac.doFinal(kdfParameters.getSalt());
+    }
+}
@@ -0,0 +1,141 @@
+package jpass.crypt.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the segmented payload of a memory-mapped file. Every segment is decrypted from the mapped
+ * buffer into one reusable direct buffer, which the inflater reads directly, so the plain text is
+ * copied only once, into the array of the caller.
+ * <p>
+ * Only the raw Deflate codecs and uncompressed payloads are supported; see {@link #supports(FileHeader)}.
+ */
+class MappedPayloadInputStream extends InputStream {
+    private final ByteBuffer mapped;
+    private final SegmentCipher segmentCipher;
+    private final int sealedSegmentSize;
+    private final ByteBuffer plain;
+    private final Inflater inflater;
+    private long index = 0;
+    private boolean lastSegmentRead = false;
+    private boolean closed = false;
+
+    MappedPayloadInputStream(ByteBuffer mapped, FileHeader header, SessionKey sessionKey) throws GeneralSecurityException, IOException {
+        this.mapped = mapped;
+        this.segmentCipher = new SegmentCipher(header.getCipher(), sessionKey.getSecretKey(), header.getIv(), header.getAssociatedData());
+        this.sealedSegmentSize = header.getSegmentSize() + SegmentCipher.TAG_LENGTH_BYTES;
+        this.plain = ByteBuffer.allocateDirect(header.getSegmentSize());
+        this.plain.limit(0);
+        this.inflater = header.getCompressionCodec() == CompressionCodec.NONE ? null : header.getCompressionCodec().createInflater();
+    }
+
+    /**
+     * Checks whether the payload described by the header can be read from a mapped buffer.
+     *
+     * @param header the file header
+     * @return {@code true} if the payload is segmented and not GZIP compressed
+     */
+    static boolean supports(FileHeader header) {
+        return header.getSegmentSize() > 0 && header.getCompressionCodec() != CompressionCodec.GZIP;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        return this.inflater == null ? readPlain(b, off, len) : readInflated(b, off, len);
+    }
+
+    private int readPlain(byte[] b, int off, int len) throws IOException {
+        while (!this.plain.hasRemaining()) {
+            if (!nextSegment()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, this.plain.remaining());
+        this.plain.get(b, off, count);
+        return count;
+    }
+
+    private int readInflated(byte[] b, int off, int len) throws IOException {
+        try {
+            while (!this.inflater.finished()) {
+                if (this.inflater.needsInput()) {
+                    if (!nextSegment()) {
+                        throw new EOFException("Unexpected end of compressed payload");
+                    }
+                    this.inflater.setInput(this.plain);
+                }
+                int count = this.inflater.inflate(b, off, len);
+                if (count > 0) {
+                    return count;
+                }
+                if (this.inflater.needsDictionary()) {
+                    throw new IOException("Unexpected dictionary in compressed payload");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        while (!this.plain.hasRemaining() && nextSegment()) {
+            // the remaining segments are verified, but must not contain data
+        }
+        if (this.plain.hasRemaining()) {
+            throw new IOException("Unexpected data after compressed payload");
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() {
+        return this.inflater == null ? this.plain.remaining() : 0;
+    }
+
+    @Override
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            if (this.inflater != null) {
+                this.inflater.end();
+            }
+        }
+    }
+
+    private boolean nextSegment() throws IOException {
+        if (this.lastSegmentRead) {
+            return false;
+        }
+        int sealedLength = Math.min(this.sealedSegmentSize, this.mapped.remaining());
+        if (sealedLength < SegmentCipher.TAG_LENGTH_BYTES) {
+            throw new IOException("Truncated segment");
+        }
+        boolean last = sealedLength == this.mapped.remaining();
+        ByteBuffer sealed = this.mapped.slice(this.mapped.position(), sealedLength);
+        this.mapped.position(this.mapped.position() + sealedLength);
+        this.plain.clear();
+        try {
+            this.segmentCipher.decrypt(sealed, this.plain, this.index, last);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        this.plain.flip();
+        this.index++;
+        this.lastSegmentRead = last;
+        return true;
+    }
+}
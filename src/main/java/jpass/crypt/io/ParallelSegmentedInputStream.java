@@ -0,0 +1,111 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the same format as {@link SegmentedInputStream}, but verifies and decrypts the segments on
+ * the common fork-join pool. The sealed segments are read ahead on the calling thread, at most a
+ * fixed number of segments is in flight, and the plain text is released in order.
+ */
+class ParallelSegmentedInputStream extends InputStream {
+    private final SegmentReader reader;
+    private final SegmentCipher segmentCipher;
+    private final int maxInFlight;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final Queue<SegmentCipher> ciphers = new ConcurrentLinkedQueue<>();
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+    private long index = 0;
+
+    ParallelSegmentedInputStream(InputStream input, SegmentCipher segmentCipher, int segmentSize, int parallelism) {
+        this.reader = new SegmentReader(input, segmentSize);
+        this.segmentCipher = segmentCipher;
+        this.maxInFlight = 2 * parallelism;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (this.position == this.buffer.length) {
+            if (!nextSegment()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, this.buffer.length - this.position);
+        System.arraycopy(this.buffer, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.length - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : this.pending) {
+            future.cancel(false);
+        }
+        this.pending.clear();
+        this.reader.close();
+    }
+
+    private boolean nextSegment() throws IOException {
+        while (this.pending.size() < this.maxInFlight && !this.reader.isLast()) {
+            byte[] sealed = this.buffers.poll();
+            if (sealed == null) {
+                sealed = new byte[this.reader.getSealedSegmentSize()];
+            }
+            int sealedLength = this.reader.read(sealed);
+            byte[] segment = sealed;
+            long segmentIndex = this.index++;
+            boolean last = this.reader.isLast();
+            this.pending.add(ForkJoinPool.commonPool().submit(() -> open(segment, sealedLength, segmentIndex, last)));
+        }
+        if (this.pending.isEmpty()) {
+            return false;
+        }
+        try {
+            this.buffer = this.pending.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decryption interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        this.position = 0;
+        return true;
+    }
+
+    private byte[] open(byte[] sealed, int sealedLength, long segmentIndex, boolean last) throws GeneralSecurityException {
+        SegmentCipher cipher = this.ciphers.poll();
+        if (cipher == null) {
+            cipher = this.segmentCipher.copy();
+        }
+        byte[] plain = new byte[sealedLength - SegmentCipher.TAG_LENGTH_BYTES];
+        cipher.decrypt(sealed, 0, sealedLength, plain, 0, segmentIndex, last);
+        this.ciphers.add(cipher);
+        this.buffers.add(sealed);
+        return plain;
+    }
+}
@@ -0,0 +1,122 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the same format as {@link SegmentedOutputStream}, but seals the segments on the common
+ * fork-join pool. Sealed segments are written in order, and at most a fixed number of segments is
+ * in flight, so memory use stays bounded.
+ */
+class ParallelSegmentedOutputStream extends OutputStream {
+    private final OutputStream output;
+    private final SegmentCipher segmentCipher;
+    private final int segmentSize;
+    private final int maxInFlight;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final Queue<SegmentCipher> ciphers = new ConcurrentLinkedQueue<>();
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+    private byte[] buffer;
+    private int length = 0;
+    private long index = 0;
+    private boolean closed = false;
+
+    ParallelSegmentedOutputStream(OutputStream output, SegmentCipher segmentCipher, int segmentSize, int parallelism) {
+        this.output = output;
+        this.segmentCipher = segmentCipher;
+        this.segmentSize = segmentSize;
+        this.maxInFlight = 2 * parallelism;
+        this.buffer = new byte[segmentSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (this.length == this.segmentSize) {
+                submitSegment(false);
+            }
+            int count = Math.min(len, this.segmentSize - this.length);
+            System.arraycopy(b, off, this.buffer, this.length, count);
+            this.length += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            submitSegment(true);
+            while (!this.pending.isEmpty()) {
+                writeOldestSegment();
+            }
+            this.closed = true;
+        } finally {
+            for (Future<byte[]> future : this.pending) {
+                future.cancel(false);
+            }
+            this.output.close();
+        }
+    }
+
+    private void submitSegment(boolean last) throws IOException {
+        while (this.pending.size() >= this.maxInFlight) {
+            writeOldestSegment();
+        }
+        byte[] plain = this.buffer;
+        int plainLength = this.length;
+        long segmentIndex = this.index++;
+        this.pending.add(ForkJoinPool.commonPool().submit(() -> seal(plain, plainLength, segmentIndex, last)));
+        byte[] next = this.buffers.poll();
+        this.buffer = next == null ? new byte[this.segmentSize] : next;
+        this.length = 0;
+    }
+
+    private byte[] seal(byte[] plain, int plainLength, long segmentIndex, boolean last) throws GeneralSecurityException {
+        SegmentCipher cipher = this.ciphers.poll();
+        if (cipher == null) {
+            cipher = this.segmentCipher.copy();
+        }
+        byte[] sealed = new byte[plainLength + SegmentCipher.TAG_LENGTH_BYTES];
+        cipher.encrypt(plain, 0, plainLength, sealed, 0, segmentIndex, last);
+        this.ciphers.add(cipher);
+        this.buffers.add(plain);
+        return sealed;
+    }
+
+    private void writeOldestSegment() throws IOException {
+        try {
+            this.output.write(this.pending.remove().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Encryption interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
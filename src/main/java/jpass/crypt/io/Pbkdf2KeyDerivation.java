@@ -0,0 +1,54 @@
+package jpass.crypt.io;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * PBKDF2 with HMAC-SHA256, the key derivation function of the original file format.
+ * <p>
+ * The iteration count comes from the unauthenticated part of the file header, so it is limited to
+ * {@link #MAX_ITERATIONS}, several times what calibration picks for a one second unlock.
+ */
+final class Pbkdf2KeyDerivation implements KeyDerivation {
+    static final int ID = 1;
+    private static final int MIN_ITERATIONS = 10000;
+    private static final int MAX_ITERATIONS = 1 << 24;
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return CipherSpecifications.KEY_GENERATION_ALGORITHM;
+    }
+
+    @Override
+    public byte[] deriveKey(char[] password, KdfParameters parameters, int keyLengthBytes) throws GeneralSecurityException {
+        if (parameters.getIterations() <= 0 || parameters.getIterations() > MAX_ITERATIONS) {
+            throw new InvalidKeyException("Invalid iteration count: " + parameters.getIterations());
+        }
+        SecretKeyFactory secretKeyFactory = SecretKeyFactory.getInstance(CipherSpecifications.KEY_GENERATION_ALGORITHM);
+        PBEKeySpec pbeKeySpec = new PBEKeySpec(password, parameters.getSalt(), parameters.getIterations(), keyLengthBytes * 8);
+        try {
+            return secretKeyFactory.generateSecret(pbeKeySpec).getEncoded();
+        } finally {
+            pbeKeySpec.clearPassword();
+        }
+    }
+
+    @Override
+    public KdfParameters getDefaultParameters(byte[] salt) {
+        return new KdfParameters(ID, CipherSpecifications.KEY_GENERATION_ITERATION_COUNT, 0, 1, salt);
+    }
+
+    @Override
+    public KdfParameters scale(KdfParameters parameters, double factor) {
+        int iterations = (int) Math.min(MAX_ITERATIONS, Math.max(MIN_ITERATIONS, parameters.getIterations() * factor));
+        return new KdfParameters(ID, iterations, 0, 1, parameters.getSalt());
+    }
+}
@@ -0,0 +1,174 @@
+package jpass.crypt.io;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import jpass.util.RandomService;
+
+/**
+ * Encrypts small records, such as the secret fields of an entry, which are kept encrypted in
+ * memory and decrypted only when they are needed.
+ * <p>
+ * The record key is an HMAC of a fixed label under the data key of the file. Every record gets a
+ * random nonce and its own subkey, which is an HMAC of the nonce under the record key. A sealed
+ * record is the nonce followed by the AES-GCM ciphertext. Records of the change journal use a
+ * separate record key with another label.
+ */
+public final class RecordCipher implements AutoCloseable {
+    private static final byte[] RECORD_KEY_LABEL = "JPass entry record".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JOURNAL_KEY_LABEL = "JPass journal record".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] recordKey;
+    private volatile boolean closed = false;
+
+    private RecordCipher(byte[] recordKey) {
+        this.recordKey = recordKey;
+    }
+
+    /**
+     * Creates a record cipher for the data key of a session key. Session keys of the same file
+     * give record ciphers with the same key, even after its passwords have changed.
+     *
+     * @param sessionKey the session key
+     * @return the record cipher
+     * @throws GeneralSecurityException if the record key cannot be derived
+     */
+    public static RecordCipher forKey(SessionKey sessionKey) throws GeneralSecurityException {
+        return derive(sessionKey, RECORD_KEY_LABEL);
+    }
+
+    /**
+     * Creates a record cipher for the change journal of a file. Its key differs from the key of
+     * {@link #forKey(SessionKey)}, but it also depends only on the data key.
+     *
+     * @param sessionKey the session key
+     * @return the record cipher
+     * @throws GeneralSecurityException if the record key cannot be derived
+     */
+    public static RecordCipher forJournal(SessionKey sessionKey) throws GeneralSecurityException {
+        return derive(sessionKey, JOURNAL_KEY_LABEL);
+    }
+
+    private static RecordCipher derive(SessionKey sessionKey, byte[] label) throws GeneralSecurityException {
+        byte[] key = sessionKey.getSecretKey().getEncoded();
+        try {
+            return new RecordCipher(hmac(key, label));
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Encrypts a record.
+     *
+     * @param data the plain record
+     * @return the sealed record
+     * @throws GeneralSecurityException if the record cannot be encrypted
+     */
+    public byte[] seal(byte[] data) throws GeneralSecurityException {
+        return seal(data, null);
+    }
+
+    /**
+     * Encrypts a record, which is authenticated together with some associated data, such as its
+     * position. The associated data is not stored in the record.
+     *
+     * @param data the plain record
+     * @param associatedData the associated data, or {@code null}
+     * @return the sealed record
+     * @throws GeneralSecurityException if the record cannot be encrypted
+     */
+    public byte[] seal(byte[] data, byte[] associatedData) throws GeneralSecurityException {
+        byte[] nonce = new byte[CipherSpecifications.IV_LENGTH_BYTES];
+        RandomService.nextBytes(nonce);
+        byte[] ciphertext = newCipher(Cipher.ENCRYPT_MODE, nonce, associatedData).doFinal(data);
+        byte[] sealed = Arrays.copyOf(nonce, nonce.length + ciphertext.length);
+        System.arraycopy(ciphertext, 0, sealed, nonce.length, ciphertext.length);
+        return sealed;
+    }
+
+    /**
+     * Decrypts a record.
+     *
+     * @param sealed the sealed record
+     * @return the plain record
+     * @throws GeneralSecurityException if the record is corrupted or sealed under another key
+     */
+    public byte[] open(byte[] sealed) throws GeneralSecurityException {
+        return open(sealed, null);
+    }
+
+    /**
+     * Decrypts a record which has been sealed with associated data.
+     *
+     * @param sealed the sealed record
+     * @param associatedData the associated data the record has been sealed with, or {@code null}
+     * @return the plain record
+     * @throws GeneralSecurityException if the record is corrupted, sealed under another key or
+     * with other associated data
+     */
+    public byte[] open(byte[] sealed, byte[] associatedData) throws GeneralSecurityException {
+        if (sealed.length < CipherSpecifications.IV_LENGTH_BYTES) {
+            throw new GeneralSecurityException("Sealed record is too short");
+        }
+        Cipher cipher = newCipher(Cipher.DECRYPT_MODE, Arrays.copyOf(sealed, CipherSpecifications.IV_LENGTH_BYTES), associatedData);
+        return cipher.doFinal(sealed, CipherSpecifications.IV_LENGTH_BYTES, sealed.length - CipherSpecifications.IV_LENGTH_BYTES);
+    }
+
+    /**
+     * Checks whether another record cipher has the same key, so records sealed by one can be
+     * opened by the other.
+     *
+     * @param other the other record cipher
+     * @return {@code true} if the keys are the same
+     */
+    public boolean hasSameKey(RecordCipher other) {
+        return !this.closed && !other.closed && MessageDigest.isEqual(this.recordKey, other.recordKey);
+    }
+
+    /**
+     * Checks whether the key material has already been wiped.
+     *
+     * @return {@code true} if the record cipher is closed
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        Arrays.fill(this.recordKey, (byte) 0);
+    }
+
+    private Cipher newCipher(int mode, byte[] nonce, byte[] associatedData) throws GeneralSecurityException {
+        if (this.closed) {
+            throw new IllegalStateException("Record cipher is already closed");
+        }
+        byte[] subkey = hmac(this.recordKey, nonce);
+        try {
+            Cipher cipher = Cipher.getInstance(CipherSpecifications.CIPHER);
+            cipher.init(mode, new SecretKeySpec(subkey, CipherSpecifications.KEY_ALGORITHM),
+                    new GCMParameterSpec(CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS, nonce));
+            if (associatedData != null) {
+                cipher.updateAAD(associatedData);
+            }
+            return cipher;
+        } finally {
+            Arrays.fill(subkey, (byte) 0);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(CipherSpecifications.KEY_CHECK_ALGORITHM);
+        mac.init(new SecretKeySpec(key, CipherSpecifications.KEY_CHECK_ALGORITHM));
+        return mac.doFinal(data);
+    }
+}
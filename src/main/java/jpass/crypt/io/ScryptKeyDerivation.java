@@ -0,0 +1,209 @@
+package jpass.crypt.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Pure Java implementation of the memory-hard scrypt key derivation function (RFC 7914).
+ * <p>
+ * The block size is fixed to 8, so one block takes exactly 1 KiB and the cost parameter N equals
+ * the memory cost in KiB.
+ */
+final class ScryptKeyDerivation implements KeyDerivation {
+    static final int ID = 2;
+    private static final int BLOCK_SIZE = 8;
+    private static final int MIN_MEMORY_COST = 1024;
+    private static final int DEFAULT_MEMORY_COST = 32768;
+    private static final int MAX_MEMORY_COST = 1 << 20;
+    private static final int MAX_BLOCK_COUNT = 1 << 10;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "scrypt";
+    }
+
+    @Override
+    public byte[] deriveKey(char[] password, KdfParameters parameters, int keyLengthBytes) throws GeneralSecurityException {
+        int n = parameters.getMemoryCost();
+        int p = parameters.getParallelism();
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        try {
+            return scrypt(passwordBytes, parameters.getSalt(), n, BLOCK_SIZE, p, keyLengthBytes);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public KdfParameters getDefaultParameters(byte[] salt) {
+        return new KdfParameters(ID, 1, DEFAULT_MEMORY_COST, 1, salt);
+    }
+
+    @Override
+    public KdfParameters scale(KdfParameters parameters, double factor) {
+        long maxMemoryCost = Math.min(MAX_MEMORY_COST, Runtime.getRuntime().maxMemory() / 4 / 1024);
+        long target = (long) (parameters.getMemoryCost() * factor);
+        int memoryCost = Integer.highestOneBit((int) Math.max(MIN_MEMORY_COST, Math.min(maxMemoryCost, target)));
+        if (memoryCost * 2L <= maxMemoryCost && memoryCost * 2L - target < target - memoryCost) {
+            memoryCost *= 2;
+        }
+        return new KdfParameters(ID, 1, memoryCost, parameters.getParallelism(), parameters.getSalt());
+    }
+
+    /**
+     * Computes scrypt. The parameters come from the unauthenticated part of the file header, so
+     * they are checked before any memory is allocated: N is limited to {@link #MAX_MEMORY_COST}
+     * blocks and half of the heap, and r * p to {@link #MAX_BLOCK_COUNT}.
+     */
+    static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int keyLength) throws GeneralSecurityException {
+        if (n < 2 || Integer.bitCount(n) != 1 || n > MAX_MEMORY_COST || r < 1 || p < 1 || (long) r * p > MAX_BLOCK_COUNT
+                || 128L * r * n > Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 2)) {
+            throw new InvalidKeyException("Invalid scrypt parameters: N=" + n + ", r=" + r + ", p=" + p);
+        }
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(new SecretKeySpec(password, HMAC_ALGORITHM));
+        int blockInts = 32 * r;
+        byte[] b = pbkdf2(mac, salt, p * 128 * r);
+        int[] block = new int[blockInts];
+        int[] x = new int[blockInts];
+        int[] y = new int[blockInts];
+        int[] v = new int[blockInts * n];
+        int[] t = new int[16];
+        try {
+            for (int i = 0; i < p; i++) {
+                ByteBuffer chunk = ByteBuffer.wrap(b, i * 128 * r, 128 * r).order(ByteOrder.LITTLE_ENDIAN);
+                chunk.asIntBuffer().get(block);
+                smix(block, r, n, v, x, y, t);
+                chunk.asIntBuffer().put(block);
+            }
+            return pbkdf2(mac, b, keyLength);
+        } finally {
+            Arrays.fill(b, (byte) 0);
+            Arrays.fill(block, 0);
+            Arrays.fill(x, 0);
+            Arrays.fill(y, 0);
+            Arrays.fill(v, 0);
+        }
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 with a single iteration, as it is used inside scrypt.
+     */
+    private static byte[] pbkdf2(Mac mac, byte[] salt, int length) {
+        byte[] result = new byte[length];
+        int hashLength = mac.getMacLength();
+        for (int i = 1, offset = 0; offset < length; i++, offset += hashLength) {
+            mac.update(salt);
+            mac.update(new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+            byte[] u = mac.doFinal();
+            System.arraycopy(u, 0, result, offset, Math.min(hashLength, length - offset));
+        }
+        return result;
+    }
+
+    private static void smix(int[] b, int r, int n, int[] v, int[] x, int[] y, int[] t) {
+        int blockInts = 32 * r;
+        System.arraycopy(b, 0, x, 0, blockInts);
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * blockInts, blockInts);
+            blockMix(x, y, r, t);
+            System.arraycopy(y, 0, x, 0, blockInts);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            for (int k = 0; k < blockInts; k++) {
+                x[k] ^= v[j * blockInts + k];
+            }
+            blockMix(x, y, r, t);
+            System.arraycopy(y, 0, x, 0, blockInts);
+        }
+        System.arraycopy(x, 0, b, 0, blockInts);
+    }
+
+    private static void blockMix(int[] in, int[] out, int r, int[] t) {
+        System.arraycopy(in, (2 * r - 1) * 16, t, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= in[i * 16 + k];
+            }
+            salsa208(t);
+            System.arraycopy(t, 0, out, ((i >> 1) + (i & 1) * r) * 16, 16);
+        }
+    }
+
+    private static void salsa208(int[] b) {
+        int x00 = b[0], x01 = b[1], x02 = b[2], x03 = b[3];
+        int x04 = b[4], x05 = b[5], x06 = b[6], x07 = b[7];
+        int x08 = b[8], x09 = b[9], x10 = b[10], x11 = b[11];
+        int x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x04 ^= Integer.rotateLeft(x00 + x12, 7);
+            x08 ^= Integer.rotateLeft(x04 + x00, 9);
+            x12 ^= Integer.rotateLeft(x08 + x04, 13);
+            x00 ^= Integer.rotateLeft(x12 + x08, 18);
+            x09 ^= Integer.rotateLeft(x05 + x01, 7);
+            x13 ^= Integer.rotateLeft(x09 + x05, 9);
+            x01 ^= Integer.rotateLeft(x13 + x09, 13);
+            x05 ^= Integer.rotateLeft(x01 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x06, 7);
+            x02 ^= Integer.rotateLeft(x14 + x10, 9);
+            x06 ^= Integer.rotateLeft(x02 + x14, 13);
+            x10 ^= Integer.rotateLeft(x06 + x02, 18);
+            x03 ^= Integer.rotateLeft(x15 + x11, 7);
+            x07 ^= Integer.rotateLeft(x03 + x15, 9);
+            x11 ^= Integer.rotateLeft(x07 + x03, 13);
+            x15 ^= Integer.rotateLeft(x11 + x07, 18);
+            x01 ^= Integer.rotateLeft(x00 + x03, 7);
+            x02 ^= Integer.rotateLeft(x01 + x00, 9);
+            x03 ^= Integer.rotateLeft(x02 + x01, 13);
+            x00 ^= Integer.rotateLeft(x03 + x02, 18);
+            x06 ^= Integer.rotateLeft(x05 + x04, 7);
+            x07 ^= Integer.rotateLeft(x06 + x05, 9);
+            x04 ^= Integer.rotateLeft(x07 + x06, 13);
+            x05 ^= Integer.rotateLeft(x04 + x07, 18);
+            x11 ^= Integer.rotateLeft(x10 + x09, 7);
+            x08 ^= Integer.rotateLeft(x11 + x10, 9);
+            x09 ^= Integer.rotateLeft(x08 + x11, 13);
+            x10 ^= Integer.rotateLeft(x09 + x08, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x00;
+        b[1] += x01;
+        b[2] += x02;
+        b[3] += x03;
+        b[4] += x04;
+        b[5] += x05;
+        b[6] += x06;
+        b[7] += x07;
+        b[8] += x08;
+        b[9] += x09;
+        b[10] += x10;
+        b[11] += x11;
+        b[12] += x12;
+        b[13] += x13;
+        b[14] += x14;
+        b[15] += x15;
+    }
+}
@@ -0,0 +1,100 @@
+package jpass.crypt.io;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts and decrypts the segments of a segmented payload.
+ * <p>
+ * Every segment is sealed separately. Its nonce is the IV of the file with the last five bytes
+ * combined with the index of the segment and a flag marking the final segment, so segments
+ * cannot be reordered, and the payload cannot be truncated at a segment boundary. The associated
+ * data of the file header is authenticated with every segment.
+ * <p>
+ * Instances are not thread-safe.
+ */
+final class SegmentCipher {
+    static final int TAG_LENGTH_BYTES = CipherSpecifications.AUTHENTICATION_TAG_LENGTH_BITS / 8;
+
+    private final AeadAlgorithm algorithm;
+    private final SecretKeySpec key;
+    private final byte[] iv;
+    private final byte[] associatedData;
+    private final Cipher cipher;
+
+    SegmentCipher(SecretKeySpec key, byte[] iv, byte[] associatedData) throws GeneralSecurityException {
+        this(AeadAlgorithm.AES_GCM, key, iv, associatedData);
+    }
+
+    SegmentCipher(AeadAlgorithm algorithm, SecretKeySpec key, byte[] iv, byte[] associatedData) throws GeneralSecurityException {
+        this.algorithm = algorithm;
+        this.key = algorithm.toKey(key);
+        this.iv = iv.clone();
+        this.associatedData = associatedData.clone();
+        this.cipher = algorithm.newCipher();
+    }
+
+    /**
+     * Creates another instance for the same key and file, e.g. for another thread.
+     *
+     * @return the new instance
+     * @throws GeneralSecurityException if the cipher is not available
+     */
+    SegmentCipher copy() throws GeneralSecurityException {
+        return new SegmentCipher(this.algorithm, this.key, this.iv, this.associatedData);
+    }
+
+    /**
+     * Encrypts a segment.
+     *
+     * @return the length of the sealed segment, which is the length of the plain text plus
+     * {@link #TAG_LENGTH_BYTES}
+     */
+    int encrypt(byte[] input, int offset, int length, byte[] output, int outputOffset, long index, boolean last)
+            throws GeneralSecurityException {
+        this.cipher.init(Cipher.ENCRYPT_MODE, this.key, this.algorithm.parameterSpec(nonce(index, last)));
+        this.cipher.updateAAD(this.associatedData);
+        return this.cipher.doFinal(input, offset, length, output, outputOffset);
+    }
+
+    /**
+     * Decrypts and verifies a segment.
+     *
+     * @return the length of the plain text
+     */
+    int decrypt(byte[] input, int offset, int length, byte[] output, int outputOffset, long index, boolean last)
+            throws GeneralSecurityException {
+        this.cipher.init(Cipher.DECRYPT_MODE, this.key, this.algorithm.parameterSpec(nonce(index, last)));
+        this.cipher.updateAAD(this.associatedData);
+        return this.cipher.doFinal(input, offset, length, output, outputOffset);
+    }
+
+    /**
+     * Decrypts and verifies a segment from buffer to buffer, which avoids copies through heap
+     * arrays when direct or mapped buffers are used.
+     *
+     * @return the length of the plain text
+     */
+    int decrypt(ByteBuffer input, ByteBuffer output, long index, boolean last) throws GeneralSecurityException {
+        this.cipher.init(Cipher.DECRYPT_MODE, this.key, this.algorithm.parameterSpec(nonce(index, last)));
+        this.cipher.updateAAD(this.associatedData);
+        return this.cipher.doFinal(input, output);
+    }
+
+    private byte[] nonce(long index, boolean last) {
+        if (index < 0 || index > 0xFFFFFFFFL) {
+            throw new IllegalStateException("Too many segments");
+        }
+        byte[] nonce = this.iv.clone();
+        int position = nonce.length - 5;
+        nonce[position] ^= (byte) (index >>> 24);
+        nonce[position + 1] ^= (byte) (index >>> 16);
+        nonce[position + 2] ^= (byte) (index >>> 8);
+        nonce[position + 3] ^= (byte) index;
+        nonce[position + 4] ^= (byte) (last ? 1 : 0);
+        return nonce;
+    }
+}
@@ -0,0 +1,61 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a segmented payload into its sealed segments. One byte is read beyond each segment to
+ * find out whether it is the final one.
+ */
+final class SegmentReader {
+    private final InputStream input;
+    private final int sealedSegmentSize;
+    private int carry = -1;
+    private boolean last = false;
+
+    SegmentReader(InputStream input, int segmentSize) {
+        this.input = input;
+        this.sealedSegmentSize = segmentSize + SegmentCipher.TAG_LENGTH_BYTES;
+    }
+
+    int getSealedSegmentSize() {
+        return this.sealedSegmentSize;
+    }
+
+    /**
+     * Reads the next sealed segment.
+     *
+     * @param sealed buffer of at least {@link #getSealedSegmentSize()} bytes
+     * @return the length of the segment, or -1 if the final segment has already been read
+     * @throws IOException if the payload is truncated or cannot be read
+     */
+    int read(byte[] sealed) throws IOException {
+        if (this.last) {
+            return -1;
+        }
+        int count = 0;
+        if (this.carry >= 0) {
+            sealed[count++] = (byte) this.carry;
+        }
+        count += this.input.readNBytes(sealed, count, this.sealedSegmentSize - count);
+        this.carry = count == this.sealedSegmentSize ? this.input.read() : -1;
+        this.last = this.carry < 0;
+        if (count < SegmentCipher.TAG_LENGTH_BYTES) {
+            throw new IOException("Truncated segment");
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether the segment read last is the final one.
+     *
+     * @return {@code true} if there are no more segments
+     */
+    boolean isLast() {
+        return this.last;
+    }
+
+    void close() throws IOException {
+        this.input.close();
+    }
+}
@@ -0,0 +1,73 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Reads a payload written by {@link SegmentedOutputStream}. Every segment is verified before any
+ * of its plain text is released, and only one segment is buffered.
+ */
+class SegmentedInputStream extends InputStream {
+    private final SegmentReader reader;
+    private final SegmentCipher segmentCipher;
+    private final byte[] sealed;
+    private final byte[] buffer;
+    private int position = 0;
+    private int length = 0;
+    private long index = 0;
+
+    SegmentedInputStream(InputStream input, SegmentCipher segmentCipher, int segmentSize) {
+        this.reader = new SegmentReader(input, segmentSize);
+        this.segmentCipher = segmentCipher;
+        this.sealed = new byte[this.reader.getSealedSegmentSize()];
+        this.buffer = new byte[segmentSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (this.position == this.length) {
+            if (!readSegment()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, this.length - this.position);
+        System.arraycopy(this.buffer, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.length - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    private boolean readSegment() throws IOException {
+        int sealedLength = this.reader.read(this.sealed);
+        if (sealedLength < 0) {
+            return false;
+        }
+        try {
+            this.length = this.segmentCipher.decrypt(this.sealed, 0, sealedLength, this.buffer, 0, this.index, this.reader.isLast());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        this.position = 0;
+        this.index++;
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+/**
+ * Writes the payload as a sequence of separately authenticated segments of a fixed size. Only
+ * one segment is buffered, so memory use does not depend on the size of the payload.
+ * <p>
+ * A full segment is held back until more data arrives, because only then it is known that it
+ * is not the final one.
+ */
+class SegmentedOutputStream extends OutputStream {
+    private final OutputStream output;
+    private final SegmentCipher segmentCipher;
+    private final byte[] buffer;
+    private final byte[] sealed;
+    private int length = 0;
+    private long index = 0;
+    private boolean closed = false;
+
+    SegmentedOutputStream(OutputStream output, SegmentCipher segmentCipher, int segmentSize) {
+        this.output = output;
+        this.segmentCipher = segmentCipher;
+        this.buffer = new byte[segmentSize];
+        this.sealed = new byte[segmentSize + SegmentCipher.TAG_LENGTH_BYTES];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            if (this.length == this.buffer.length) {
+                writeSegment(false);
+            }
+            int count = Math.min(len, this.buffer.length - this.length);
+            System.arraycopy(b, off, this.buffer, this.length, count);
+            this.length += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            writeSegment(true);
+            this.closed = true;
+        } finally {
+            this.output.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        try {
+            int sealedLength = this.segmentCipher.encrypt(this.buffer, 0, this.length, this.sealed, 0, this.index, last);
+            this.output.write(this.sealed, 0, sealedLength);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        this.index++;
+        this.length = 0;
+    }
+}
@@ -0,0 +1,267 @@
+package jpass.crypt.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import jpass.util.RandomService;
+
+/**
+ * Key of the payload which is kept while a file is unlocked, so consecutive saves can reuse it
+ * instead of running the key derivation function again. Every save still gets a fresh IV. The
+ * key material is wiped when the session key is closed; the key is never copied while it is
+ * being wiped.
+ * <p>
+ * The payload is encrypted by a random data key. Each key slot of the file header wraps the data
+ * key with a key derived from one password, so passwords can be changed, added and revoked by
+ * rewriting the header. Files written before key wrapping use the derived key as the data key.
+ */
+public final class SessionKey implements AutoCloseable {
+    /**
+     * The maximum number of key slots, which keeps the fields of the file header well below their
+     * 64 KiB length limit.
+     */
+    public static final int MAX_SLOT_COUNT = 64;
+
+    private final List<KeySlot> keySlots;
+    private final int slot;
+    private final byte[] key;
+    private volatile boolean closed = false;
+
+    private SessionKey(List<KeySlot> keySlots, int slot, byte[] key) {
+        this.keySlots = Collections.unmodifiableList(keySlots);
+        this.slot = slot;
+        this.key = key;
+    }
+
+    /**
+     * Generates a new data key and wraps it with a key derived from the password using the
+     * configured key derivation function and a fresh random salt.
+     *
+     * @param pass the password
+     * @return the session key
+     * @throws GeneralSecurityException if the key cannot be derived
+     * @see KeyDerivations#newParameters()
+     */
+    public static SessionKey derive(char[] pass) throws GeneralSecurityException {
+        return derive(pass, KeyDerivations.newParameters());
+    }
+
+    /**
+     * Generates a new data key and wraps it with a key derived from the password with the given
+     * parameters.
+     *
+     * @param pass the password
+     * @param kdfParameters the parameters of the key derivation function
+     * @return the session key
+     * @throws GeneralSecurityException if the key cannot be derived
+     */
+    public static SessionKey derive(char[] pass, KdfParameters kdfParameters) throws GeneralSecurityException {
+        byte[] key = new byte[CipherSpecifications.KEY_SIZE_BITS / 8];
+        RandomService.nextBytes(key);
+        return new SessionKey(List.of(KeySlot.wrap(pass, kdfParameters, key)), 0, key);
+    }
+
+    /**
+     * Unlocks the data key of a file header with the password. If the header has several key
+     * slots, they are tried in parallel on the common fork-join pool.
+     *
+     * @param pass the password
+     * @param header the file header
+     * @return the session key
+     * @throws InvalidPasswordException if the password does not belong to any of the key slots
+     * @throws GeneralSecurityException if the key cannot be derived
+     * @throws IOException if the thread is interrupted
+     */
+    static SessionKey unlock(char[] pass, FileHeader header) throws GeneralSecurityException, IOException {
+        List<KeySlot> keySlots = header.getKeySlots();
+        Unlocked unlocked = unwrap(keySlots, pass);
+        if (unlocked == null) {
+            throw new InvalidPasswordException();
+        }
+        return new SessionKey(new ArrayList<>(keySlots), unlocked.slot(), unlocked.key());
+    }
+
+    /**
+     * Finds the key slot of a password.
+     *
+     * @param pass the password
+     * @return the index of the key slot, or -1 if the password does not belong to any of the slots
+     * @throws GeneralSecurityException if the key cannot be derived
+     * @throws IOException if the thread is interrupted
+     */
+    public int findSlot(char[] pass) throws GeneralSecurityException, IOException {
+        Unlocked unlocked = unwrap(this.keySlots, pass);
+        if (unlocked == null) {
+            return -1;
+        }
+        Arrays.fill(unlocked.key(), (byte) 0);
+        return unlocked.slot();
+    }
+
+    private static Unlocked unwrap(List<KeySlot> keySlots, char[] pass) throws GeneralSecurityException, IOException {
+        if (keySlots.size() == 1) {
+            try {
+                return new Unlocked(0, keySlots.get(0).unwrap(pass));
+            } catch (InvalidPasswordException e) {
+                return null;
+            }
+        }
+        List<Callable<Unlocked>> attempts = new ArrayList<>(keySlots.size());
+        for (int i = 0; i < keySlots.size(); i++) {
+            int index = i;
+            attempts.add(() -> new Unlocked(index, keySlots.get(index).unwrap(pass)));
+        }
+        try {
+            return ForkJoinPool.commonPool().invokeAny(attempts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Unlocking the key slots has been interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the key slot this key was unlocked with by a slot of a new password, derived with
+     * the configured key derivation function and a fresh random salt. Files encrypted by this key
+     * can be opened with the new password after their header is rewritten.
+     *
+     * @param pass the new password
+     * @return the session key for the new password
+     * @throws GeneralSecurityException if the key cannot be derived
+     * @see CryptFiles#copyWithKeys(java.nio.file.Path, java.nio.file.Path, SessionKey, SessionKey)
+     */
+    public synchronized SessionKey withPassword(char[] pass) throws GeneralSecurityException {
+        checkNotClosed();
+        List<KeySlot> replacement = new ArrayList<>(this.keySlots);
+        replacement.set(this.slot, KeySlot.wrap(pass, KeyDerivations.newParameters(), this.key));
+        return new SessionKey(replacement, this.slot, this.key.clone());
+    }
+
+    /**
+     * Adds a key slot for another password.
+     *
+     * @param pass the password of the new slot
+     * @return the session key with the new slot
+     * @throws GeneralSecurityException if the key cannot be derived
+     * @throws IllegalStateException if there are already {@link #MAX_SLOT_COUNT} slots
+     * @see CryptFiles#copyWithKeys(java.nio.file.Path, java.nio.file.Path, SessionKey, SessionKey)
+     */
+    public synchronized SessionKey withAddedSlot(char[] pass) throws GeneralSecurityException {
+        checkNotClosed();
+        checkWrapped();
+        if (this.keySlots.size() >= MAX_SLOT_COUNT) {
+            throw new IllegalStateException("The number of key slots is limited to " + MAX_SLOT_COUNT);
+        }
+        List<KeySlot> replacement = new ArrayList<>(this.keySlots);
+        replacement.add(KeySlot.wrap(pass, KeyDerivations.newParameters(), this.key));
+        return new SessionKey(replacement, this.slot, this.key.clone());
+    }
+
+    /**
+     * Removes a key slot. The slot this key was unlocked with cannot be removed.
+     *
+     * @param index the index of the slot
+     * @return the session key without the slot
+     * @throws IllegalArgumentException if the slot does not exist or this key was unlocked with it
+     * @see CryptFiles#copyWithKeys(java.nio.file.Path, java.nio.file.Path, SessionKey, SessionKey)
+     */
+    public synchronized SessionKey withoutSlot(int index) {
+        checkNotClosed();
+        if (index < 0 || index >= this.keySlots.size() || index == this.slot) {
+            throw new IllegalArgumentException("Key slot " + index + " cannot be removed");
+        }
+        List<KeySlot> replacement = new ArrayList<>(this.keySlots);
+        replacement.remove(index);
+        return new SessionKey(replacement, index < this.slot ? this.slot - 1 : this.slot, this.key.clone());
+    }
+
+    /**
+     * Gets the number of key slots.
+     *
+     * @return the number of key slots
+     */
+    public int getSlotCount() {
+        return this.keySlots.size();
+    }
+
+    /**
+     * Gets the index of the key slot this key was unlocked or created with.
+     *
+     * @return the index of the key slot
+     */
+    public int getSlot() {
+        return this.slot;
+    }
+
+    /**
+     * Gets the parameters the key of the own slot was derived with.
+     *
+     * @return the parameters of the key derivation function
+     */
+    public KdfParameters getKdfParameters() {
+        return this.keySlots.get(this.slot).getKdfParameters();
+    }
+
+    List<KeySlot> getKeySlots() {
+        return this.keySlots;
+    }
+
+    /**
+     * Checks whether the data key is wrapped, so passwords can be changed without encrypting
+     * the payload again.
+     *
+     * @return {@code true} if the data key is wrapped by the password
+     */
+    public boolean isWrapped() {
+        return this.keySlots.get(this.slot).isWrapped();
+    }
+
+    synchronized SecretKeySpec getSecretKey() {
+        checkNotClosed();
+        return new SecretKeySpec(this.key, CipherSpecifications.KEY_ALGORITHM);
+    }
+
+    /**
+     * Checks whether the key material has already been wiped.
+     *
+     * @return {@code true} if the session key is closed
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        Arrays.fill(this.key, (byte) 0);
+    }
+
+    private void checkNotClosed() {
+        if (this.closed) {
+            throw new IllegalStateException("Session key is already closed");
+        }
+    }
+
+    private record Unlocked(int slot, byte[] key) {
+    }
+
+    private void checkWrapped() {
+        if (!isWrapped()) {
+            throw new IllegalStateException("The data key is not wrapped");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package jpass.crypt.io;
+
+/**
+ * Time spent in the phases of opening an encrypted file. The key derivation runs in parallel with
+ * reading the payload, so the time to unlock is about the longer of the two rather than their sum.
+ */
+public final class UnlockTimings {
+    private final long start = System.nanoTime();
+    private long headerRead;
+    private long payloadRead;
+    private long keyAvailable;
+    private long decrypted;
+    private volatile long keyDerivationNanos;
+
+    UnlockTimings() {
+    }
+
+    void headerRead() {
+        this.headerRead = System.nanoTime();
+    }
+
+    void payloadRead() {
+        this.payloadRead = System.nanoTime();
+    }
+
+    void keyDerived(long nanos) {
+        this.keyDerivationNanos = nanos;
+    }
+
+    void keyAvailable() {
+        this.keyAvailable = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of decryption.
+     *
+     * @return {@code true} if this is the first time, i.e. the timings are complete now
+     */
+    boolean decrypted() {
+        if (this.decrypted != 0 || this.keyAvailable == 0) {
+            return false;
+        }
+        this.decrypted = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Gets the time of reading the header.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getHeaderNanos() {
+        return this.headerRead - this.start;
+    }
+
+    /**
+     * Gets the time of reading the payload, which ran in parallel with the key derivation.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getReadNanos() {
+        return this.payloadRead - this.headerRead;
+    }
+
+    /**
+     * Gets the time of the key derivation.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getKeyDerivationNanos() {
+        return this.keyDerivationNanos;
+    }
+
+    /**
+     * Gets the time spent waiting for the key after the payload had been read.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getWaitNanos() {
+        return this.keyAvailable - this.payloadRead;
+    }
+
+    /**
+     * Gets the time from opening the file until the key was available.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getUnlockNanos() {
+        return this.keyAvailable - this.start;
+    }
+
+    /**
+     * Gets the time of decrypting and decompressing the payload, until the stream was closed.
+     *
+     * @return the time in nanoseconds, or 0 if the stream is not closed yet
+     */
+    public long getDecryptNanos() {
+        return this.decrypted == 0 ? 0 : this.decrypted - this.keyAvailable;
+    }
+
+    @Override
+    public String toString() {
+        return "UnlockTimings{header=" + millis(getHeaderNanos()) + " ms, read=" + millis(getReadNanos())
+                + " ms, keyDerivation=" + millis(getKeyDerivationNanos()) + " ms, wait=" + millis(getWaitNanos())
+                + " ms, unlock=" + millis(getUnlockNanos()) + " ms, decrypt=" + millis(getDecryptNanos()) + " ms}";
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jpass.xml.bind.Entry;
+
+/**
+ * Content of the entries as they have been read from or written to a version of a file, which
+ * tells whether the entries have really changed since, even if they have been edited and changed
+ * back.
+ * <p>
+ * Entries are replaced rather than modified once they are in the data model, so an entry which
+ * is still the same object as the saved one is unchanged. Other entries are compared by the
+ * SHA-256 hash of their fields. Hashes are computed only for such entries, since the secrets of
+ * sealed entries have to be decrypted; once an entry has been replaced, only its hash is kept,
+ * not the entry with its secrets.
+ * <p>
+ * The content is updated in place after the entries have been saved. Its methods may be called
+ * from any thread.
+ */
+public final class ContentHashes {
+    private static final byte[] NULL_FIELD = {-1, -1, -1, -1};
+
+    private final Map<String, Saved> saved;
+    private byte[] snapshotId;
+
+    /**
+     * Saved version of an entry: the entry itself, its hash, or both.
+     */
+    private record Saved(Entry entry, byte[] hash) {
+    }
+
+    /**
+     * Takes the content of entries which have been read from or written to a file. The entries
+     * of a file which is loaded progressively may still be loading.
+     *
+     * @param entries the entries
+     * @param snapshotId the identifier of the version of the file, or {@code null} if the file
+     * is not encrypted
+     */
+    public ContentHashes(List<Entry> entries, byte[] snapshotId) {
+        this.snapshotId = snapshotId;
+        this.saved = new HashMap<>(entries.size() * 4 / 3 + 1);
+        for (Entry entry : entries) {
+            this.saved.put(entry.getTitle(), new Saved(entry, null));
+        }
+    }
+
+    /**
+     * Gets the identifier of the version of the file the content has been read from or written
+     * to, see {@link jpass.crypt.io.CryptOutputStream#getSnapshotId()}.
+     *
+     * @return the snapshot identifier, or {@code null} if the file is not encrypted
+     */
+    public synchronized byte[] getSnapshotId() {
+        return this.snapshotId;
+    }
+
+    /**
+     * Gets the titles whose entries differ from the saved content: entries which have been added,
+     * deleted or whose content has changed. All entries have to be loaded.
+     *
+     * @param entries all entries
+     * @return the changed titles, which are empty if the content is the same
+     */
+    public synchronized Set<String> getChangedTitles(List<Entry> entries) {
+        Set<String> changed = new HashSet<>();
+        int matched = 0;
+        for (Entry entry : entries) {
+            Saved version = this.saved.get(entry.getTitle());
+            if (version == null) {
+                changed.add(entry.getTitle());
+                continue;
+            }
+            matched++;
+            if (!isSame(version, entry)) {
+                changed.add(entry.getTitle());
+            }
+        }
+        if (matched < this.saved.size()) {
+            Set<String> titles = new HashSet<>(entries.size() * 4 / 3 + 1);
+            for (Entry entry : entries) {
+                titles.add(entry.getTitle());
+            }
+            for (String title : this.saved.keySet()) {
+                if (!titles.contains(title)) {
+                    changed.add(title);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Gets the titles which differ from the saved content after some changes, which are all
+     * changes made since the content has been saved. Only the titles of the changes are compared.
+     *
+     * @param changes the changes
+     * @return the changed titles, which are empty if the content is the same
+     */
+    public synchronized Set<String> getChangedTitlesAfter(List<Journal.Change> changes) {
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, Entry> result : getResults(changes).entrySet()) {
+            Saved version = this.saved.get(result.getKey());
+            Entry entry = result.getValue();
+            if (entry == null ? version != null : version == null || !isSame(version, entry)) {
+                changed.add(result.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Updates the content after some changes have been saved.
+     *
+     * @param changes the changes
+     */
+    public synchronized void update(List<Journal.Change> changes) {
+        for (Map.Entry<String, Entry> result : getResults(changes).entrySet()) {
+            if (result.getValue() == null) {
+                this.saved.remove(result.getKey());
+            } else {
+                this.saved.put(result.getKey(), new Saved(result.getValue(), null));
+            }
+        }
+    }
+
+    /**
+     * Updates the content after all entries have been saved to a new version of the file.
+     *
+     * @param entries all entries
+     * @param changedTitles the titles which have changed, see {@link #getChangedTitles(List)}
+     * @param snapshotId the identifier of the new version of the file
+     */
+    public synchronized void update(List<Entry> entries, Set<String> changedTitles, byte[] snapshotId) {
+        this.snapshotId = snapshotId;
+        Set<String> removed = new HashSet<>(changedTitles);
+        for (Entry entry : entries) {
+            if (changedTitles.contains(entry.getTitle())) {
+                this.saved.put(entry.getTitle(), new Saved(entry, null));
+                removed.remove(entry.getTitle());
+            }
+        }
+        this.saved.keySet().removeAll(removed);
+    }
+
+    /**
+     * Gets the changes which have to be written to the journal, so the changed titles end up with
+     * the right content. A change is dropped if none of its titles has changed and no other kept
+     * change touches them, since replaying a change replaces all entries of its titles.
+     *
+     * @param changes the changes since the content has been saved
+     * @param changedTitles the titles whose content has changed
+     * @return the changes to write
+     */
+    public static List<Journal.Change> retainChanged(List<Journal.Change> changes, Set<String> changedTitles) {
+        Set<String> kept = new HashSet<>(changedTitles);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (Journal.Change change : changes) {
+                if (touches(change, kept)) {
+                    grown |= change.title() != null && kept.add(change.title());
+                    grown |= change.entry() != null && kept.add(change.entry().getTitle());
+                }
+            }
+        }
+        List<Journal.Change> result = new ArrayList<>();
+        for (Journal.Change change : changes) {
+            if (touches(change, kept)) {
+                result.add(change);
+            }
+        }
+        return result;
+    }
+
+    private static boolean touches(Journal.Change change, Set<String> titles) {
+        return (change.title() != null && titles.contains(change.title()))
+                || (change.entry() != null && titles.contains(change.entry().getTitle()));
+    }
+
+    /**
+     * Gets the resulting entry of every title of some changes, or {@code null} if it is deleted.
+     */
+    private static Map<String, Entry> getResults(List<Journal.Change> changes) {
+        Map<String, Entry> results = new HashMap<>();
+        for (Journal.Change change : changes) {
+            if (change.title() != null) {
+                results.put(change.title(), null);
+            }
+            if (change.entry() != null) {
+                results.put(change.entry().getTitle(), change.entry());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compares an entry with the saved version of its title. The saved version keeps the entry if
+     * it has the same content, so it is compared by identity next time, otherwise only its hash.
+     */
+    private boolean isSame(Saved version, Entry entry) {
+        if (version.entry() == entry) {
+            return true;
+        }
+        byte[] savedHash = version.hash() != null ? version.hash() : hash(version.entry());
+        byte[] hash = hash(entry);
+        boolean same = MessageDigest.isEqual(savedHash, hash);
+        this.saved.put(entry.getTitle(), same ? new Saved(entry, hash) : new Saved(null, savedHash));
+        return same;
+    }
+
+    private static byte[] hash(Entry entry) {
+        MessageDigest messageDigest = newMessageDigest();
+        updateField(messageDigest, entry.getTitle());
+        updateField(messageDigest, entry.getUrl());
+        updateField(messageDigest, entry.getUser());
+        updateField(messageDigest, entry.getPassword());
+        updateField(messageDigest, entry.getNotes());
+        return messageDigest.digest();
+    }
+
+    /**
+     * Adds a field with its length, so the boundaries of the fields are part of the hash.
+     */
+    private static void updateField(MessageDigest messageDigest, String field) {
+        if (field == null) {
+            messageDigest.update(NULL_FIELD);
+            return;
+        }
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        messageDigest.update((byte) (bytes.length >>> 24));
+        messageDigest.update((byte) (bytes.length >>> 16));
+        messageDigest.update((byte) (bytes.length >>> 8));
+        messageDigest.update((byte) bytes.length);
+        messageDigest.update(bytes);
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -28,11 +28,14 @@
  */
 package jpass.data;
 
+import jpass.crypt.io.SessionKey;
 import jpass.xml.bind.Entries;
 import jpass.xml.bind.Entry;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Data model of the application data.
@@ -44,7 +47,16 @@ public class DataModel {
     private Entries entries = new Entries();
     private String fileName = null;
     private char[] password = null;
+    private SessionKey sessionKey = null;
+    private PayloadFormat payloadFormat = null;
+    private volatile DocumentLoader loader = null;
+    private Journal journal = null;
+    private List<Journal.Change> changes = null;
+    private ContentHashes savedContent = null;
     private boolean modified = false;
+    private volatile long revision = 0;
+    private Runnable modificationListener = null;
+    private Executor releaseExecutor = Runnable::run;
 
     private DataModel() {
         // not intended to be instantiated
@@ -69,12 +81,18 @@ public class DataModel {
     }
 
     /**
-     * Sets list of entries.
+     * Sets list of entries. The changes since the last save are not tracked any more, so the
+     * next save writes the whole file.
      *
      * @param entries entries
      */
     public final void setEntries(final Entries entries) {
+        if (this.loader != null && this.loader.getEntries() != entries) {
+            setLoader(null);
+        }
         this.entries = entries;
+        this.changes = null;
+        this.savedContent = null;
     }
 
     /**
@@ -105,29 +123,234 @@ public class DataModel {
     }
 
     /**
-     * Sets the modified state of the data model.
+     * Sets the modified state of the data model. Every modification increments the revision,
+     * and notifies the modification listener.
      *
      * @param modified modified state
      */
     public final void setModified(final boolean modified) {
         this.modified = modified;
+        if (modified) {
+            this.revision++;
+            if (this.modificationListener != null) {
+                this.modificationListener.run();
+            }
+        }
+    }
+
+    /**
+     * Gets the revision of the data model, which is incremented by every modification. A save
+     * compares it before and after writing to detect changes made meanwhile.
+     *
+     * @return the revision
+     */
+    public long getRevision() {
+        return this.revision;
+    }
+
+    /**
+     * Sets the listener which is notified when the data model is modified, e.g. to schedule a
+     * save. It may be called on any thread.
+     *
+     * @param modificationListener the listener, or {@code null}
+     */
+    public void setModificationListener(Runnable modificationListener) {
+        this.modificationListener = modificationListener;
     }
 
     public char[] getPassword() {
         return this.password;
     }
 
+    /**
+     * Sets the password of the data model. The session key derived from the previous password
+     * is wiped if the password changes.
+     *
+     * @param password password
+     */
     public void setPassword(char[] password) {
+        if (this.password != password) {
+            setSessionKey(null);
+        }
         this.password = password;
     }
 
+    /**
+     * Gets the key derived from the current password.
+     *
+     * @return session key, or {@code null} if it has not been derived yet
+     */
+    public SessionKey getSessionKey() {
+        return this.sessionKey;
+    }
+
+    /**
+     * Sets the key derived from the current password. The previous key is wiped, see
+     * {@link #setReleaseExecutor(Executor)}.
+     *
+     * @param sessionKey session key
+     */
+    public void setSessionKey(SessionKey sessionKey) {
+        if (this.sessionKey != null && this.sessionKey != sessionKey) {
+            this.releaseExecutor.execute(this.sessionKey::close);
+        }
+        this.sessionKey = sessionKey;
+    }
+
+    /**
+     * Gets the encoding of the entries in the file.
+     *
+     * @return payload format, or {@code null} if the model has not been read or saved yet
+     */
+    public PayloadFormat getPayloadFormat() {
+        return this.payloadFormat;
+    }
+
+    /**
+     * Sets the encoding of the entries in the file, which is kept on later saves.
+     *
+     * @param payloadFormat payload format
+     */
+    public void setPayloadFormat(PayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    /**
+     * Gets the loader of the entries, while the file is loaded progressively.
+     *
+     * @return the loader, or {@code null} if the entries are not loaded progressively
+     */
+    public DocumentLoader getLoader() {
+        return this.loader;
+    }
+
+    /**
+     * Sets the loader of the entries. The previous loader is closed, see
+     * {@link #setReleaseExecutor(Executor)}.
+     *
+     * @param loader the loader, or {@code null}
+     */
+    public void setLoader(DocumentLoader loader) {
+        if (this.loader != null && this.loader != loader) {
+            this.releaseExecutor.execute(this.loader::close);
+        }
+        this.loader = loader;
+    }
+
+    /**
+     * Waits until all entries are loaded, if the file is loaded progressively.
+     *
+     * @throws IOException if loading failed
+     */
+    public void awaitLoaded() throws IOException {
+        DocumentLoader current = this.loader;
+        if (current != null) {
+            current.awaitLoaded();
+        }
+    }
+
+    /**
+     * Gets the journal of the file.
+     *
+     * @return the journal, or {@code null} if the changes of the file are not journaled
+     */
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * Sets the journal of the file, and starts tracking the changes for it. The previous journal
+     * is closed.
+     *
+     * @param journal the journal, or {@code null}
+     */
+    public void setJournal(Journal journal) {
+        if (this.journal != null && this.journal != journal) {
+            this.releaseExecutor.execute(this.journal::close);
+        }
+        this.journal = journal;
+        this.changes = journal == null ? null : new ArrayList<>();
+    }
+
+    /**
+     * Records a change of an entry for the journal.
+     *
+     * @param change the change
+     */
+    public void addChange(Journal.Change change) {
+        if (this.changes != null) {
+            this.changes.add(change);
+        }
+    }
+
+    /**
+     * Gets the changes of the entries since the last save.
+     *
+     * @return the changes, or {@code null} if they are not tracked, e.g. because the entries
+     * have been replaced
+     */
+    public List<Journal.Change> getChanges() {
+        return this.changes;
+    }
+
+    /**
+     * Sets the changes of the entries which have not been saved yet.
+     *
+     * @param changes the changes, or {@code null} if they are not tracked
+     */
+    public void setChanges(List<Journal.Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * Gets the content of the entries as they have been read from or written to the file.
+     *
+     * @return the saved content, or {@code null} if it is unknown, e.g. because the entries have
+     * not been saved yet
+     */
+    public ContentHashes getSavedContent() {
+        return this.savedContent;
+    }
+
+    /**
+     * Sets the content of the entries as they have been read from or written to the file.
+     *
+     * @param savedContent the saved content, or {@code null} if it is unknown
+     */
+    public void setSavedContent(ContentHashes savedContent) {
+        this.savedContent = savedContent;
+    }
+
+    /**
+     * Sets the executor which closes the loader, journal, session key and entry codecs the data
+     * model drops. Saves which run in the background may still be using them, so they can be
+     * closed after those saves. By default they are closed at once.
+     *
+     * @param releaseExecutor the executor
+     */
+    public void setReleaseExecutor(Executor releaseExecutor) {
+        this.releaseExecutor = releaseExecutor;
+    }
+
     /**
      * Clears all fields of the data model.
      */
     public final void clear() {
-        this.entries.getEntry().clear();
+        setLoader(null);
+        setJournal(null);
+        List<Entry> cleared = this.entries.getEntry();
+        this.releaseExecutor.execute(() -> {
+            for (Entry entry : cleared) {
+                if (entry instanceof SealedEntry sealedEntry) {
+                    sealedEntry.getCodec().close();
+                }
+            }
+        });
+        this.entries = new Entries();
         this.fileName = null;
-        this.password = null;
+        this.payloadFormat = null;
+        this.savedContent = null;
+        setPassword(null);
         this.modified = false;
     }
 
@@ -155,7 +378,7 @@ public class DataModel {
     }
 
     /**
-     * Gets entry by title.
+     * Gets entry by title. While the file is loaded progressively, waits until the entry is loaded.
      *
      * @param title entry title
      * @return entry (can be null)
@@ -163,7 +386,12 @@ public class DataModel {
     public Entry getEntryByTitle(String title) {
         int entryIndex = getEntryIndexByTitle(title);
         if (entryIndex != -1) {
-            return this.entries.getEntry().get(entryIndex);
+            Entry entry = this.entries.getEntry().get(entryIndex);
+            DocumentLoader current = this.loader;
+            if (current != null) {
+                current.awaitEntry(entry);
+            }
+            return entry;
         }
         return null;
     }
@@ -0,0 +1,279 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import static jpass.util.StringUtils.stripString;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import jpass.util.Configuration;
+import jpass.xml.bind.Entry;
+import jpass.xml.converter.EntryStreamWriter;
+
+/**
+ * Exports entries to unencrypted, formatted XML one entry at a time, so only the current entry
+ * is decrypted and the document is never built in memory.
+ * <p>
+ * Files whose name ends with {@code .gz} are compressed. If the {@code export.chunk.size}
+ * property is greater than 0 (1 MiB by default), the output is split into independent GZIP
+ * members of that many uncompressed bytes, which any GZIP reader reads as one stream, but which
+ * can also be decompressed separately. If the {@code export.part.entries} property is greater
+ * than 0, the entries are split into part files of that many entries, each of them a complete
+ * document, e.g. {@code export.part1.xml.gz}.
+ * <p>
+ * The progress is reported after every entry. The export is cancelled by interrupting the
+ * exporting thread; the files written so far are deleted.
+ */
+public final class DocumentExporter {
+    private static final String XML_EXTENSION = ".xml";
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Receives the progress of an export.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * Called after an entry has been exported.
+         *
+         * @param entries number of entries exported so far
+         * @param totalEntries number of entries to export
+         */
+        void update(int entries, int totalEntries);
+    }
+
+    private final String fileName;
+    private final boolean compressed;
+    private final int chunkSize;
+    private final int partEntries;
+    private long bytesWritten = 0;
+
+    /**
+     * Creates an exporter.
+     *
+     * @param fileName the file to export to; part files are named after it
+     */
+    public DocumentExporter(String fileName) {
+        this.fileName = fileName;
+        this.compressed = fileName.toLowerCase().endsWith(GZIP_EXTENSION);
+        int configuredChunkSize = Configuration.getInteger("export.chunk.size", DEFAULT_CHUNK_SIZE);
+        this.chunkSize = configuredChunkSize > MAX_CHUNK_SIZE ? DEFAULT_CHUNK_SIZE : configuredChunkSize;
+        this.partEntries = Math.max(0, Configuration.getInteger("export.part.entries", 0));
+    }
+
+    /**
+     * Writes the entries.
+     *
+     * @param entries the entries
+     * @param progress receiver of the progress
+     * @return the written files
+     * @throws InterruptedIOException if the export has been cancelled
+     * @throws IOException when I/O error occurred
+     * @throws DocumentProcessException when the entries cannot be written
+     */
+    public List<Path> write(List<Entry> entries, Progress progress) throws IOException, DocumentProcessException {
+        int total = entries.size();
+        int perPart = this.partEntries > 0 && this.partEntries < total ? this.partEntries : Math.max(total, 1);
+        int parts = (total + perPart - 1) / perPart;
+        List<Path> files = new ArrayList<>();
+        this.bytesWritten = 0;
+        boolean written = false;
+        try {
+            for (int part = 0; part < Math.max(parts, 1); part++) {
+                Path file = getPartPath(part, parts);
+                files.add(file);
+                int from = part * perPart;
+                writePart(file, entries.subList(Math.min(from, total), Math.min(from + perPart, total)), from, total, progress);
+                this.bytesWritten += Files.size(file);
+            }
+            written = true;
+        } catch (XMLStreamException e) {
+            throw new DocumentProcessException(stripString(e.getMessage()));
+        } finally {
+            if (!written) {
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Gets the number of bytes written by the last export.
+     *
+     * @return the size of the written files
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    private void writePart(Path file, List<Entry> entries, int exported, int total, Progress progress)
+            throws IOException, XMLStreamException {
+        try (OutputStream outputStream = newOutputStream(file);
+             EntryStreamWriter writer = new EntryStreamWriter(outputStream, true)) {
+            int count = exported;
+            for (Entry entry : entries) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("The export has been cancelled.");
+                }
+                writer.write(entry);
+                progress.update(++count, total);
+            }
+        }
+    }
+
+    private OutputStream newOutputStream(Path file) throws IOException {
+        OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(file.toFile()),
+                DocumentHelper.getBufferSize("io.file.buffer.size"));
+        if (!this.compressed) {
+            return fileStream;
+        }
+        if (this.chunkSize > 0) {
+            return new ChunkedGzipOutputStream(fileStream, this.chunkSize);
+        }
+        return new GZIPOutputStream(fileStream, DocumentHelper.getBufferSize("io.buffer.size"));
+    }
+
+    /**
+     * Gets the name of a part file, which is the name of the file with the number of the part
+     * before its extension. A single part is the file itself.
+     */
+    private Path getPartPath(int part, int parts) {
+        if (parts <= 1) {
+            return Paths.get(this.fileName);
+        }
+        String extension = this.compressed ? XML_EXTENSION + GZIP_EXTENSION : XML_EXTENSION;
+        String base = this.fileName.toLowerCase().endsWith(extension)
+                ? this.fileName.substring(0, this.fileName.length() - extension.length())
+                : this.fileName;
+        String number = String.format("%0" + String.valueOf(parts).length() + "d", part + 1);
+        return Paths.get(base + ".part" + number + extension);
+    }
+
+    /**
+     * Compresses the data into a series of GZIP members of a fixed uncompressed size. Every
+     * member has its own header and trailer, so members can be decompressed independently.
+     */
+    private static final class ChunkedGzipOutputStream extends OutputStream {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final OutputStream out;
+        private final byte[] chunk;
+        private final byte[] compressed;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private int count = 0;
+        private boolean closed = false;
+
+        ChunkedGzipOutputStream(OutputStream out, int chunkSize) {
+            this.out = out;
+            this.chunk = new byte[chunkSize];
+            this.compressed = new byte[Math.min(chunkSize, 64 * 1024)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (this.count == this.chunk.length) {
+                writeMember();
+            }
+            this.chunk[this.count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (this.count == this.chunk.length) {
+                    writeMember();
+                }
+                int n = Math.min(len, this.chunk.length - this.count);
+                System.arraycopy(b, off, this.chunk, this.count, n);
+                this.count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                writeMember();
+            } finally {
+                this.deflater.end();
+                this.out.close();
+            }
+        }
+
+        private void writeMember() throws IOException {
+            if (this.count == 0) {
+                return;
+            }
+            this.out.write(HEADER);
+            this.deflater.reset();
+            this.deflater.setInput(this.chunk, 0, this.count);
+            this.deflater.finish();
+            while (!this.deflater.finished()) {
+                int n = this.deflater.deflate(this.compressed);
+                this.out.write(this.compressed, 0, n);
+            }
+            this.crc.reset();
+            this.crc.update(this.chunk, 0, this.count);
+            writeIntLE((int) this.crc.getValue());
+            writeIntLE(this.count);
+            this.count = 0;
+        }
+
+        private void writeIntLE(int value) throws IOException {
+            this.out.write(value & 0xff);
+            this.out.write((value >>> 8) & 0xff);
+            this.out.write((value >>> 16) & 0xff);
+            this.out.write((value >>> 24) & 0xff);
+        }
+    }
+}
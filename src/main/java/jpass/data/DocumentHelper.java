@@ -30,29 +30,71 @@ package jpass.data;
 
 import static jpass.util.StringUtils.stripString;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.security.GeneralSecurityException;
 
 import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 
+import jpass.crypt.io.CryptFiles;
 import jpass.crypt.io.CryptInputStream;
 import jpass.crypt.io.CryptOutputStream;
+import jpass.crypt.io.RecordCipher;
+import jpass.crypt.io.SessionKey;
 import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import jpass.util.Configuration;
+import jpass.xml.converter.BinaryConverter;
+import jpass.xml.converter.BinaryFormatException;
 import jpass.xml.converter.JAXBConverter;
+import jpass.xml.converter.ProgressiveReader;
+import jpass.xml.converter.StAXConverter;
 
 /**
  * Helper class for reading and writing (encrypted) XML documents.
+ * <p>
+ * Documents are streamed through a pipeline of buffered stages. The converters read and write
+ * through a buffer of {@code io.buffer.size} bytes; in encrypted files it is followed by the
+ * compression buffer of {@code compression.buffer.size} bytes and the segments of
+ * {@code crypt.segment.size} bytes, which are written to the file through a buffer of
+ * {@code io.file.buffer.size} bytes. Encrypted files are read into memory at once.
  *
  * @author Gabor_Bata
  */
-@SuppressWarnings("ClassCanBeRecord")
 public final class DocumentHelper {
 
+    /**
+     * Suffix of the previous version of a file.
+     */
+    private static final String BACKUP_SUFFIX = ".bak";
+
+    /**
+     * Default size of the buffers of the pipeline.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest size of the buffers of the pipeline.
+     */
+    private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+
     /**
      * File name to read/write.
      */
@@ -63,31 +105,63 @@ public final class DocumentHelper {
      */
     private final char[] key;
 
+    /**
+     * Key derived from the password, either given or derived during reading.
+     */
+    private SessionKey sessionKey;
+
+    /**
+     * Encoding of the entries, either given or detected during reading.
+     */
+    private PayloadFormat format;
+
+    /**
+     * Identifier of the version of the encrypted file which has been read or written.
+     */
+    private byte[] snapshotId;
+
+    /**
+     * Journal of the changes of the encrypted file, which has been opened.
+     */
+    private Journal journal;
+
     /**
      * Converter between JAXB objects and streams representing XMLs
      */
     private static final JAXBConverter<Entries> CONVERTER = new JAXBConverter<>(Entries.class
     );
 
+    /**
+     * Streaming converter, which is used unless the {@code xml.converter} property is {@code jaxb}.
+     */
+    private static final StAXConverter STAX_CONVERTER = new StAXConverter();
+
+    /**
+     * Converter of the binary payload format.
+     */
+    private static final BinaryConverter BINARY_CONVERTER = new BinaryConverter();
+
     /**
      * Creates a DocumentHelper instance.
      *
      * @param fileName file name
      * @param key key for encryption
      */
-    private DocumentHelper(String fileName, char[] key) {
+    private DocumentHelper(String fileName, char[] key, SessionKey sessionKey, PayloadFormat format) {
         this.fileName = fileName;
         this.key = key;
+        this.sessionKey = sessionKey;
+        this.format = format;
     }
 
     /**
-     * Creates a document helper with no encryption.
+     * Creates a document helper with no encryption. Documents are written as XML.
      *
      * @param fileName file name
      * @return a new DocumentHelper object
      */
     public static DocumentHelper newInstance(String fileName) {
-        return new DocumentHelper(fileName, null);
+        return new DocumentHelper(fileName, null, null, PayloadFormat.XML);
     }
 
     /**
@@ -98,11 +172,88 @@ public final class DocumentHelper {
      * @return a new DocumentHelper object
      */
     public static DocumentHelper newInstance(String fileName, char[] key) {
-        return new DocumentHelper(fileName, key);
+        return new DocumentHelper(fileName, key, null, PayloadFormat.forNewFiles());
+    }
+
+    /**
+     * Creates a document helper with encryption by an already derived key.
+     *
+     * @param fileName file name
+     * @param sessionKey key of the unlocked file
+     * @return a new DocumentHelper object
+     */
+    public static DocumentHelper newInstance(String fileName, SessionKey sessionKey) {
+        return new DocumentHelper(fileName, null, sessionKey, PayloadFormat.forNewFiles());
+    }
+
+    /**
+     * Gets the key used for encryption. After {@link #readDocument()} it is the key derived
+     * from the password and the salt of the file, after {@link #writeDocument(Entries)} the key
+     * the file has been written with.
+     *
+     * @return the session key, or {@code null} if the key has not been derived
+     */
+    public SessionKey getSessionKey() {
+        return this.sessionKey;
+    }
+
+    /**
+     * Gets the encoding of the entries. After {@link #readDocument()} it is the format of the
+     * file.
+     *
+     * @return the payload format
+     */
+    public PayloadFormat getFormat() {
+        return this.format;
     }
 
     /**
-     * Reads and XML file to an {@link Entries} object.
+     * Sets the encoding of the entries for {@link #writeDocument(Entries)}.
+     *
+     * @param format the payload format
+     * @return this document helper
+     */
+    public DocumentHelper withFormat(PayloadFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Gets the identifier of the version of the encrypted file, which has been read or written.
+     *
+     * @return the snapshot identifier, or {@code null} if no encrypted file has been read or written
+     * @see CryptOutputStream#getSnapshotId()
+     */
+    public byte[] getSnapshotId() {
+        return this.snapshotId;
+    }
+
+    /**
+     * Gets the journal of the file opened by {@link #openDocument()}, whose changes have been
+     * replayed over the entries. The journal has to be closed by the caller.
+     *
+     * @return the journal, or {@code null} if the file is not encrypted or journaling is disabled
+     */
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * Prepares the XML conversion on a background thread, so the first read or write does not
+     * have to wait for it.
+     */
+    public static void warmUp() {
+        if (!isStAXEnabled()) {
+            CONVERTER.warmUp();
+        }
+    }
+
+    private static boolean isStAXEnabled() {
+        return !"jaxb".equalsIgnoreCase(Configuration.getString("xml.converter", "stax"));
+    }
+
+    /**
+     * Reads an XML or binary file to an {@link Entries} object.
      *
      * @return the document
      * @throws FileNotFoundException if file is not exists
@@ -110,14 +261,106 @@ public final class DocumentHelper {
      * @throws DocumentProcessException when file format or password is incorrect
      */
     public Entries readDocument() throws IOException, DocumentProcessException {
-        Entries entries;
-        try (InputStream inputStream = makeInputStream()) {
-            entries = CONVERTER.unmarshal(inputStream);
+        try (DocumentLoader loader = openDocument()) {
+            loader.load();
+            return loader.getEntries();
+        } finally {
+            if (this.journal != null) {
+                this.journal.close();
+                this.journal = null;
+            }
+        }
+    }
+
+    /**
+     * Opens a file for progressive loading. Binary files are read up to their titles, the rest
+     * of the entries is read by {@link DocumentLoader#load()}. Other files are read completely.
+     * The changes of the journal of an encrypted file are replayed over the entries.
+     *
+     * @return the loader of the document
+     * @throws FileNotFoundException if file is not exists
+     * @throws IOException when I/O error occurred
+     * @throws DocumentProcessException when file format or password is incorrect
+     */
+    public DocumentLoader openDocument() throws IOException, DocumentProcessException {
+        InputStream inputStream = new BufferedInputStream(makeInputStream(), getBufferSize("io.buffer.size"));
+        boolean pending = false;
+        try {
+            this.format = detectFormat(inputStream);
+            DocumentLoader loader;
+            if (this.format == PayloadFormat.XML) {
+                loader = new DocumentLoader(isStAXEnabled() ? STAX_CONVERTER.unmarshal(inputStream) : CONVERTER.unmarshal(inputStream));
+            } else {
+                loader = new DocumentLoader(openBinary(inputStream), inputStream);
+            }
+            replayJournal(loader.getEntries());
+            pending = !loader.isLoaded();
+            return loader;
+        } catch (BinaryFormatException e) {
+            throw new DocumentProcessException(stripString(e.getMessage()));
+        } catch (XMLStreamException e) {
+            throw new DocumentProcessException(stripString(e.getMessage()));
         } catch (JAXBException e) {
             throw new DocumentProcessException(stripString(e.getLinkedException() == null ? e.getMessage() : e
                     .getLinkedException().getMessage()));
+        } finally {
+            if (!pending) {
+                inputStream.close();
+            }
+        }
+    }
+
+    /**
+     * Replays the journal of an encrypted file. While the entries are loaded progressively, only
+     * their titles are needed.
+     */
+    private void replayJournal(Entries entries) throws IOException, DocumentProcessException {
+        if (this.snapshotId == null || !Journal.isEnabled()) {
+            return;
+        }
+        Journal opened = Journal.open(this.fileName, this.sessionKey, this.snapshotId);
+        try {
+            Journal.replay(opened.read(), entries.getEntry());
+        } catch (IOException | DocumentProcessException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+        this.journal = opened;
+    }
+
+    private static PayloadFormat detectFormat(InputStream inputStream) throws IOException {
+        byte[] header = new byte[BinaryConverter.getHeaderLength()];
+        inputStream.mark(header.length);
+        int length = inputStream.readNBytes(header, 0, header.length);
+        inputStream.reset();
+        if (BinaryConverter.isSealed(header, length)) {
+            return PayloadFormat.SEALED;
+        }
+        return BinaryConverter.isBinary(header, length) ? PayloadFormat.BINARY : PayloadFormat.XML;
+    }
+
+    /**
+     * Reads the titles of a binary payload. Sealed entries keep a codec with a key derived from
+     * the session key, which is wiped when the data model is cleared.
+     */
+    private ProgressiveReader openBinary(InputStream inputStream) throws IOException {
+        EntrySecretCodec codec = this.format == PayloadFormat.SEALED && this.sessionKey != null ? newSecretCodec() : null;
+        try {
+            return BINARY_CONVERTER.openProgressive(inputStream, codec);
+        } catch (IOException | RuntimeException e) {
+            if (codec != null) {
+                codec.close();
+            }
+            throw e;
+        }
+    }
+
+    private EntrySecretCodec newSecretCodec() throws IOException {
+        try {
+            return new EntrySecretCodec(RecordCipher.forKey(this.sessionKey));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
         }
-        return entries;
     }
 
     private InputStream makeInputStream() throws IOException {
@@ -126,7 +369,10 @@ public final class DocumentHelper {
             inputStream = new FileInputStream(this.fileName);
         } else {
             try {
-                inputStream = new CryptInputStream(new FileInputStream(this.fileName), this.key);
+                CryptInputStream cryptInputStream = CryptInputStream.open(Paths.get(this.fileName), this.key);
+                this.sessionKey = cryptInputStream.getSessionKey();
+                this.snapshotId = cryptInputStream.getSnapshotId();
+                inputStream = cryptInputStream;
             } catch (GeneralSecurityException e) {
                 throw new IOException(e);
             }
@@ -135,34 +381,291 @@ public final class DocumentHelper {
     }
 
     /**
-     * Writes a document into an XML file.
+     * Writes a document into a file. The document is written to a temporary file in the same
+     * directory, which is forced to the storage device and then moved over the file atomically,
+     * so the file is never left partially written. Unless the {@code save.backup.enabled}
+     * property is {@code false}, the previous version of an encrypted file is kept with the
+     * {@code .bak} suffix.
      *
      * @param document the document
      * @throws DocumentProcessException when document format is incorrect
      * @throws IOException when I/O error occurred
      */
     public void writeDocument(final Entries document) throws DocumentProcessException, IOException {
-        try (OutputStream outputStream = makeOutputStream()) {
-            CONVERTER.marshal(document, outputStream, this.key == null);
+        Path temp = writeTempFile(document);
+        try {
+            replaceFile(temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes a document into a temporary file next to the file, which is forced to the storage
+     * device. The caller has to move it over the file or delete it.
+     *
+     * @param document the document
+     * @return the temporary file
+     * @throws DocumentProcessException when document format is incorrect
+     * @throws IOException when I/O error occurred
+     * @see #replaceFile(Path)
+     */
+    Path writeTempFile(final Entries document) throws DocumentProcessException, IOException {
+        if (this.format == PayloadFormat.SEALED && this.sessionKey == null && this.key == null) {
+            throw new DocumentProcessException("Sealed entries can only be written to an encrypted file");
+        }
+        if (this.key != null && this.sessionKey == null) {
+            try {
+                this.sessionKey = SessionKey.derive(this.key);
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        Path temp = createTempFile(Paths.get(this.fileName));
+        boolean written = false;
+        try (OutputStream outputStream = makeOutputStream(temp)) {
+            boolean formattedOutput = this.key == null && this.sessionKey == null;
+            if (this.format == PayloadFormat.SEALED) {
+                try (EntrySecretCodec codec = newSecretCodec()) {
+                    BINARY_CONVERTER.marshal(document, outputStream, codec);
+                }
+            } else if (this.format == PayloadFormat.BINARY) {
+                BINARY_CONVERTER.marshal(document, outputStream);
+            } else if (isStAXEnabled()) {
+                STAX_CONVERTER.marshal(document, outputStream, formattedOutput);
+            } else {
+                CONVERTER.marshal(toPlainEntries(document), outputStream, formattedOutput);
+            }
+            written = true;
+        } catch (XMLStreamException e) {
+            throw new DocumentProcessException(stripString(e.getMessage()));
         } catch (JAXBException e) {
             throw new DocumentProcessException(stripString(e.getLinkedException() == null ? e.getMessage() : e
                     .getLinkedException().getMessage()));
         } catch (RuntimeException e) {
             throw new DocumentProcessException(e.getMessage());
+        } finally {
+            if (!written) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return temp;
+    }
+
+    /**
+     * Moves a temporary file written by {@link #writeTempFile(Entries)} over the file, keeping
+     * the previous version of an encrypted file as a backup.
+     *
+     * @param temp the temporary file
+     * @throws IOException when I/O error occurred
+     */
+    void replaceFile(Path temp) throws IOException {
+        Path target = Paths.get(this.fileName);
+        if (this.sessionKey != null && Configuration.is("save.backup.enabled", true) && Files.exists(target)) {
+            Path backup = getBackupPath(target);
+            Files.deleteIfExists(backup);
+            try {
+                Files.createLink(backup, target);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(target, backup, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        moveAtomically(temp, target);
+    }
+
+    /**
+     * Changes the password of the encrypted file by wrapping its data key with the new password
+     * in the key slot the file was unlocked with, see {@link #rewriteKeys(SessionKey)}.
+     *
+     * @param pass the new password
+     * @return the session key for the new password
+     * @throws GeneralSecurityException if the new key cannot be derived
+     * @throws IOException if the file cannot be rewritten, or it is not encrypted by the session key
+     */
+    public SessionKey changePassword(char[] pass) throws GeneralSecurityException, IOException {
+        if (!this.sessionKey.isWrapped()) {
+            throw new IOException("The data key of the file is not wrapped, the file has to be saved again");
+        }
+        SessionKey replacement = this.sessionKey.withPassword(pass);
+        try {
+            rewriteKeys(replacement);
+        } catch (IOException | RuntimeException e) {
+            replacement.close();
+            throw e;
+        }
+        return replacement;
+    }
+
+    /**
+     * Replaces the key slots of the encrypted file by the key slots of another session key with
+     * the same data key. Only the header is written, and the file is replaced atomically. The
+     * backup of the previous version gets the same key slots, or it is deleted if they cannot be
+     * replaced, so a changed or revoked password does not open the backup either.
+     *
+     * @param replacement the key with the new key slots
+     * @throws IOException if the file cannot be rewritten, or its key slots are not the ones of
+     * the session key
+     */
+    public void rewriteKeys(SessionKey replacement) throws IOException {
+        Path target = Paths.get(this.fileName);
+        rewriteKeys(target, replacement);
+        Path backup = getBackupPath(target);
+        if (Files.exists(backup)) {
+            try {
+                rewriteKeys(backup, replacement);
+            } catch (IOException e) {
+                Files.delete(backup);
+            }
+        }
+    }
+
+    private void rewriteKeys(Path path, SessionKey replacement) throws IOException {
+        Path temp = createTempFile(path);
+        try {
+            CryptFiles.copyWithKeys(path, temp, this.sessionKey, replacement);
+            moveAtomically(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Path getBackupPath(Path target) {
+        return target.resolveSibling(target.getFileName() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * Creates an empty temporary file in the directory of a file, so it can be moved over the
+     * file atomically. If the file exists, the temporary file gets its owner, group and
+     * permissions, or its access control list, so replacing the file keeps them.
+     *
+     * @param target the file
+     * @return the temporary file
+     * @throws IOException when I/O error occurred
+     */
+    static Path createTempFile(Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            if (Files.exists(absolute)) {
+                copyAttributes(absolute, temp);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    private static void copyAttributes(Path source, Path target) throws IOException {
+        PosixFileAttributeView posix = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        if (posix != null) {
+            PosixFileAttributes attributes = posix.readAttributes();
+            PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+            try {
+                targetView.setOwner(attributes.owner());
+            } catch (IOException e) {
+                // only privileged users can give a file away, it is owned by the user who saves
+            }
+            try {
+                targetView.setGroup(attributes.group());
+            } catch (IOException e) {
+                // the group can only be set by its members
+            }
+            targetView.setPermissions(attributes.permissions());
+            return;
+        }
+        AclFileAttributeView acl = Files.getFileAttributeView(source, AclFileAttributeView.class);
+        if (acl != null) {
+            Files.getFileAttributeView(target, AclFileAttributeView.class).setAcl(acl.getAcl());
+        }
+    }
+
+    /**
+     * Moves a file over another one atomically where the file system supports it, and forces
+     * the change of the directory to the storage device where the platform allows it.
+     *
+     * @param source the file to move
+     * @param target the file to replace
+     * @throws IOException when I/O error occurred
+     */
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (FileChannel directory = FileChannel.open(target.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on every platform
         }
     }
 
-    private OutputStream makeOutputStream() throws IOException {
+    /**
+     * Replaces sealed entries by plain copies, as JAXB reads the fields of the entries directly.
+     */
+    private static Entries toPlainEntries(Entries document) {
+        Entries plain = new Entries();
+        for (Entry entry : document.getEntry()) {
+            plain.getEntry().add(entry instanceof SealedEntry sealedEntry ? sealedEntry.toPlainEntry() : entry);
+        }
+        return plain;
+    }
+
+    private OutputStream makeOutputStream(Path path) throws IOException {
         OutputStream outputStream;
-        if (this.key == null) {
-            outputStream = new FileOutputStream(this.fileName);
+        if (this.sessionKey == null) {
+            outputStream = new ForcedFileOutputStream(path);
         } else {
+            OutputStream fileStream = new BufferedOutputStream(new ForcedFileOutputStream(path), getBufferSize("io.file.buffer.size"));
             try {
-                outputStream = new CryptOutputStream(new FileOutputStream(this.fileName), this.key);
+                CryptOutputStream cryptOutputStream = new CryptOutputStream(fileStream, this.sessionKey);
+                this.snapshotId = cryptOutputStream.getSnapshotId();
+                outputStream = cryptOutputStream;
             } catch (GeneralSecurityException e) {
+                fileStream.close();
                 throw new IOException(e);
             }
         }
-        return outputStream;
+        return new BufferedOutputStream(outputStream, getBufferSize("io.buffer.size"));
+    }
+
+    /**
+     * Gets the size of a buffer of the pipeline from the configuration. Invalid sizes fall back
+     * to the default.
+     *
+     * @param property the name of the property
+     * @return the buffer size in bytes
+     */
+    static int getBufferSize(String property) {
+        int bufferSize = Configuration.getInteger(property, DEFAULT_BUFFER_SIZE);
+        if (bufferSize <= 0 || bufferSize > MAX_BUFFER_SIZE) {
+            return DEFAULT_BUFFER_SIZE;
+        }
+        return bufferSize;
+    }
+
+    /**
+     * File stream which forces the written data to the storage device when it is closed.
+     */
+    private static final class ForcedFileOutputStream extends FileOutputStream {
+        private boolean closed = false;
+
+        ForcedFileOutputStream(Path path) throws FileNotFoundException {
+            super(path.toFile());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                getChannel().force(true);
+            } finally {
+                super.close();
+            }
+        }
     }
 }
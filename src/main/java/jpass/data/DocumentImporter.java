@@ -0,0 +1,195 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import static jpass.util.StringUtils.stripString;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import jpass.xml.converter.EntryStreamReader;
+
+/**
+ * Imports an unencrypted XML document entry by entry, so only the imported entries are kept in
+ * memory, never the document itself. GZIP compressed documents, such as the ones written by
+ * {@link DocumentExporter}, are detected and decompressed on the fly. Titles must be unique, so an entry whose title is already
+ * used by an earlier entry gets a numbered title, such as {@code "Title (2)"}.
+ * <p>
+ * The progress is reported after every entry. The import is cancelled by interrupting the
+ * importing thread; the entries read so far are dropped.
+ */
+public final class DocumentImporter {
+    private static final String UNTITLED = "Untitled";
+
+    /**
+     * Receives the progress of an import.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * Called after an entry has been imported.
+         *
+         * @param bytesRead number of bytes read from the file
+         * @param totalBytes size of the file
+         * @param entries number of entries imported so far
+         */
+        void update(long bytesRead, long totalBytes, int entries);
+    }
+
+    private final String fileName;
+    private int renamed = 0;
+
+    /**
+     * Creates an importer.
+     *
+     * @param fileName the file to import
+     */
+    public DocumentImporter(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Reads the entries of the file.
+     *
+     * @param progress receiver of the progress
+     * @return the entries
+     * @throws java.io.FileNotFoundException if the file does not exist
+     * @throws InterruptedIOException if the import has been cancelled
+     * @throws IOException when I/O error occurred
+     * @throws DocumentProcessException when the file is not an entries document
+     */
+    public Entries read(Progress progress) throws IOException, DocumentProcessException {
+        long totalBytes = Files.size(Paths.get(this.fileName));
+        Entries entries = new Entries();
+        Set<String> titles = new HashSet<>();
+        this.renamed = 0;
+        try (CountingInputStream counter = new CountingInputStream(new FileInputStream(this.fileName));
+             InputStream inputStream = decompress(new BufferedInputStream(counter, DocumentHelper.getBufferSize("io.buffer.size")));
+             EntryStreamReader reader = new EntryStreamReader(inputStream)) {
+            for (Entry entry = reader.next(); entry != null; entry = reader.next()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("The import has been cancelled.");
+                }
+                entry.setTitle(getUniqueTitle(entry.getTitle(), titles));
+                entries.getEntry().add(entry);
+                progress.update(counter.count, totalBytes, entries.getEntry().size());
+            }
+        } catch (XMLStreamException e) {
+            throw new DocumentProcessException(stripString(e.getMessage()));
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the number of entries which got a new title during the last import.
+     *
+     * @return the number of renamed entries
+     */
+    public int getRenamedCount() {
+        return this.renamed;
+    }
+
+    /**
+     * Decompresses the stream if it starts with the GZIP magic number.
+     */
+    private static InputStream decompress(BufferedInputStream inputStream) throws IOException {
+        inputStream.mark(2);
+        int first = inputStream.read();
+        int second = inputStream.read();
+        inputStream.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(inputStream, DocumentHelper.getBufferSize("io.buffer.size"));
+        }
+        return inputStream;
+    }
+
+    /**
+     * Gets a title which is not used yet, and adds it to the used titles.
+     */
+    private String getUniqueTitle(String title, Set<String> titles) {
+        String base = title == null || title.isBlank() ? UNTITLED : title;
+        String unique = base;
+        for (int i = 2; !titles.add(unique); i++) {
+            unique = base + " (" + i + ")";
+        }
+        if (!unique.equals(title)) {
+            this.renamed++;
+        }
+        return unique;
+    }
+
+    /**
+     * Counts the bytes read from the file.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import static jpass.util.StringUtils.stripString;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import jpass.xml.converter.BinaryFormatException;
+import jpass.xml.converter.ProgressiveReader;
+
+/**
+ * Loads the entries of a file progressively, see {@link DocumentHelper#openDocument()}. The
+ * entries are available with their titles right away; the rest of their fields are loaded by
+ * {@link #load()}, while other threads can wait for the entries they need.
+ */
+public final class DocumentLoader implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(DocumentLoader.class.getName());
+
+    private final Entries entries;
+    private final ProgressiveReader reader;
+    private final InputStream inputStream;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a loader of entries which have already been loaded completely.
+     */
+    DocumentLoader(Entries entries) {
+        this(entries, null, null);
+    }
+
+    DocumentLoader(ProgressiveReader reader, InputStream inputStream) {
+        this(reader.getEntries(), reader, inputStream);
+    }
+
+    private DocumentLoader(Entries entries, ProgressiveReader reader, InputStream inputStream) {
+        this.entries = entries;
+        this.reader = reader;
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Gets the entries. Until they are loaded, only their titles are set.
+     *
+     * @return the entries
+     */
+    public Entries getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Checks whether all entries are loaded.
+     *
+     * @return {@code true} if all entries are loaded
+     */
+    public boolean isLoaded() {
+        return this.reader == null || this.reader.isLoaded();
+    }
+
+    /**
+     * Loads the remaining fields of the entries and closes the file.
+     *
+     * @throws IOException when I/O error occurred
+     * @throws DocumentProcessException when file format is incorrect
+     */
+    public void load() throws IOException, DocumentProcessException {
+        if (this.reader == null) {
+            return;
+        }
+        try {
+            this.reader.readRemaining();
+        } catch (BinaryFormatException e) {
+            throw new DocumentProcessException(stripString(e.getMessage()));
+        } finally {
+            this.inputStream.close();
+        }
+    }
+
+    /**
+     * Waits until an entry is loaded. Entries which have been added after opening the file are
+     * not waited for.
+     *
+     * @param entry the entry
+     * @return {@code true} if the entry is loaded, {@code false} if loading failed or the thread
+     * has been interrupted
+     */
+    public boolean awaitEntry(Entry entry) {
+        if (this.reader == null) {
+            return true;
+        }
+        try {
+            return this.reader.awaitEntry(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits until all entries are loaded.
+     *
+     * @throws IOException if loading failed or the thread has been interrupted
+     */
+    public void awaitLoaded() throws IOException {
+        if (this.reader == null) {
+            return;
+        }
+        try {
+            this.reader.awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loading the entries has been interrupted");
+        } catch (IOException e) {
+            throw new IOException("The file could not be loaded completely:\n" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Checks whether the loader has been closed, e.g. because another file has been opened.
+     *
+     * @return {@code true} if the loader is closed
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Stops loading by closing the file.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.inputStream != null) {
+            try {
+                this.inputStream.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not close the file", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import jpass.crypt.io.RecordCipher;
+import jpass.xml.bind.Entry;
+import jpass.xml.converter.SecretCodec;
+
+/**
+ * Seals the password and the notes of an entry together with a {@link RecordCipher}, so every
+ * entry is encrypted under its own subkey. A sealed record is a flags byte followed by the
+ * present fields as 4 byte lengths and UTF-8 bytes.
+ */
+final class EntrySecretCodec implements SecretCodec, AutoCloseable {
+    private static final int PASSWORD_FLAG = 1;
+    private static final int NOTES_FLAG = 2;
+
+    private final RecordCipher cipher;
+
+    EntrySecretCodec(RecordCipher cipher) {
+        this.cipher = cipher;
+    }
+
+    @Override
+    public byte[] getSealedSecrets(Entry entry) {
+        if (entry instanceof SealedEntry sealedEntry && sealedEntry.getSealedSecrets() != null
+                && sealedEntry.getCodec().cipher.hasSameKey(this.cipher)) {
+            return sealedEntry.getSealedSecrets();
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] seal(String password, String notes) throws IOException {
+        byte[] passwordBytes = password == null ? new byte[0] : password.getBytes(StandardCharsets.UTF_8);
+        byte[] notesBytes = notes == null ? new byte[0] : notes.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 2 * Integer.BYTES + passwordBytes.length + notesBytes.length);
+        record.put((byte) ((password == null ? 0 : PASSWORD_FLAG) | (notes == null ? 0 : NOTES_FLAG)));
+        record.putInt(passwordBytes.length).put(passwordBytes);
+        record.putInt(notesBytes.length).put(notesBytes);
+        try {
+            return this.cipher.seal(record.array());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            Arrays.fill(notesBytes, (byte) 0);
+            Arrays.fill(record.array(), (byte) 0);
+        }
+    }
+
+    @Override
+    public Entry newEntry() {
+        return new SealedEntry(this);
+    }
+
+    @Override
+    public void setSealedSecrets(Entry entry, byte[] sealedSecrets) {
+        ((SealedEntry) entry).setSealedSecrets(sealedSecrets);
+    }
+
+    /**
+     * Decrypts sealed secrets.
+     *
+     * @param sealedSecrets the sealed secrets
+     * @return the secrets
+     * @throws IllegalStateException if the secrets cannot be decrypted
+     */
+    Secrets open(byte[] sealedSecrets) {
+        byte[] record;
+        try {
+            record = this.cipher.open(sealedSecrets);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("The secrets of the entry cannot be decrypted", e);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            int flags = buffer.get();
+            String password = readString(buffer);
+            String notes = readString(buffer);
+            return new Secrets((flags & PASSWORD_FLAG) == 0 ? null : password, (flags & NOTES_FLAG) == 0 ? null : notes);
+        } finally {
+            Arrays.fill(record, (byte) 0);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.cipher.close();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    record Secrets(String password, String notes) {
+    }
+}
@@ -0,0 +1,656 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jpass.crypt.io.RecordCipher;
+import jpass.crypt.io.SessionKey;
+import jpass.util.Configuration;
+import jpass.util.RandomService;
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+
+/**
+ * Append-only journal of the changes of an encrypted file, which is kept next to the file with
+ * the {@code .journal} suffix. Saving appends the changes since the last save to the journal
+ * instead of writing the whole file, and opening the file replays the journal over the entries
+ * of the file. When the journal grows beyond the {@code journal.compaction.threshold} property
+ * (in bytes), it is folded into a new version of the file by a {@link Compaction}.
+ * <p>
+ * Every record is sealed by a {@link RecordCipher} of the data key, with its position and the
+ * random identifier of the journal as associated data, so records cannot be reordered or moved
+ * between journals. The first record lists the versions of the file the journal applies to, see
+ * {@link jpass.crypt.io.CryptOutputStream#getSnapshotId()}; a journal left behind by an older
+ * version is ignored. A truncated last record, e.g. of an interrupted save, is dropped.
+ * <p>
+ * A change replaces or removes the entry of a title, so replaying changes which are already in
+ * the file gives the same entries. This keeps the journal valid while a compaction replaces the
+ * file.
+ */
+public final class Journal implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(Journal.class.getName());
+
+    private static final String SUFFIX = ".journal";
+    private static final byte[] MAGIC = {'J', 'P', 'J'};
+    private static final int VERSION = 1;
+    private static final int ID_LENGTH = 16;
+    private static final int BASES_RECORD = 0;
+    private static final int PUT_RECORD = 1;
+    private static final int DELETE_RECORD = 2;
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 64 * 1024;
+
+    private final Path file;
+    private final Path path;
+    private final RecordCipher cipher;
+
+    /**
+     * Versions of the file the journal applies to, the current one is the last.
+     */
+    private List<byte[]> bases;
+    private byte[] id;
+    private int records = 0;
+
+    /**
+     * Length of the valid part of the journal, or 0 if the journal has to be created.
+     */
+    private long length = 0;
+    private long generation = 0;
+    private boolean closed = false;
+
+    private Journal(Path file, RecordCipher cipher, byte[] snapshotId) {
+        this.file = file;
+        this.path = getPath(file.toString());
+        this.cipher = cipher;
+        this.bases = List.of(snapshotId);
+    }
+
+    /**
+     * Checks whether saves are journaled, according to the {@code journal.enabled} property.
+     *
+     * @return {@code true} if saves are journaled
+     */
+    public static boolean isEnabled() {
+        return Configuration.is("journal.enabled", true);
+    }
+
+    /**
+     * Gets the path of the journal of a file.
+     *
+     * @param fileName the file name
+     * @return the path of the journal
+     */
+    public static Path getPath(String fileName) {
+        return Paths.get(fileName + SUFFIX);
+    }
+
+    /**
+     * Creates an empty journal for a file which has just been written. The journal of a previous
+     * version of the file is deleted.
+     *
+     * @param fileName the file name
+     * @param sessionKey the key the file has been written with
+     * @param snapshotId the identifier of the written version of the file
+     * @return the journal
+     * @throws IOException if the previous journal cannot be deleted
+     */
+    public static Journal create(String fileName, SessionKey sessionKey, byte[] snapshotId) throws IOException {
+        Journal journal = new Journal(Paths.get(fileName), newCipher(sessionKey), snapshotId);
+        try {
+            Files.deleteIfExists(journal.path);
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Opens the journal of a file which is being read. The changes are read by {@link #read()}.
+     */
+    static Journal open(String fileName, SessionKey sessionKey, byte[] snapshotId) throws IOException {
+        return new Journal(Paths.get(fileName), newCipher(sessionKey), snapshotId);
+    }
+
+    private static RecordCipher newCipher(SessionKey sessionKey) throws IOException {
+        try {
+            return RecordCipher.forJournal(sessionKey);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads the changes of the journal. A journal of another version of the file is ignored and
+     * replaced on the next append.
+     *
+     * @return the changes in the order they were made
+     * @throws IOException if the journal cannot be read
+     * @throws DocumentProcessException if the journal is corrupted
+     */
+    synchronized List<Change> read() throws IOException, DocumentProcessException {
+        byte[] snapshotId = this.bases.get(this.bases.size() - 1);
+        Content content = readContent();
+        if (content == null) {
+            return List.of();
+        }
+        if (content.bases().stream().noneMatch(base -> Arrays.equals(base, snapshotId))) {
+            LOG.log(Level.FINE, "Ignoring the journal of another version of {0}", this.file);
+            return List.of();
+        }
+        List<Change> changes = new ArrayList<>(content.records().size());
+        try {
+            for (byte[] record : content.records()) {
+                changes.add(decodeChange(record));
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new DocumentProcessException("The journal of the file is corrupted.");
+        }
+        this.bases = content.bases();
+        this.id = content.id();
+        this.records = changes.size();
+        this.length = content.length();
+        return changes;
+    }
+
+    /**
+     * Reads and authenticates the records of the journal.
+     *
+     * @return the content, or {@code null} if there is no journal
+     */
+    private Content readContent() throws IOException, DocumentProcessException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(this.path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < MAGIC.length + 1) {
+            return null;
+        }
+        if (!Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                || bytes[MAGIC.length] != VERSION) {
+            throw new DocumentProcessException("The journal of the file is corrupted.");
+        }
+        buffer.position(MAGIC.length + 1);
+        byte[] journalId = null;
+        List<byte[]> journalBases = null;
+        List<byte[]> plainRecords = new ArrayList<>();
+        long validLength = 0;
+        int position = 0;
+        try {
+            while (buffer.remaining() >= Integer.BYTES) {
+                int recordLength = buffer.getInt();
+                if (recordLength < 0 || recordLength > buffer.remaining()) {
+                    break;
+                }
+                byte[] sealed = new byte[recordLength];
+                buffer.get(sealed);
+                byte[] record;
+                try {
+                    record = this.cipher.open(sealed, associatedData(journalId, position));
+                } catch (GeneralSecurityException e) {
+                    if (buffer.hasRemaining()) {
+                        throw new DocumentProcessException("The journal of the file is corrupted.");
+                    }
+                    break;
+                }
+                if (journalId == null) {
+                    ByteBuffer header = ByteBuffer.wrap(record);
+                    if (header.get() != BASES_RECORD) {
+                        throw new DocumentProcessException("The journal of the file is corrupted.");
+                    }
+                    journalId = new byte[ID_LENGTH];
+                    header.get(journalId);
+                    int count = header.get() & 0xFF;
+                    journalBases = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        byte[] base = new byte[header.getInt()];
+                        header.get(base);
+                        journalBases.add(base);
+                    }
+                } else {
+                    plainRecords.add(record);
+                }
+                position++;
+                validLength = buffer.position();
+            }
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new DocumentProcessException("The journal of the file is corrupted.");
+        }
+        if (journalId == null) {
+            return null;
+        }
+        return new Content(journalId, journalBases, plainRecords, validLength);
+    }
+
+    /**
+     * Appends changes to the journal, and forces them to the storage device.
+     *
+     * @param changes the changes
+     * @throws IOException if the changes cannot be written
+     */
+    public synchronized void append(List<Change> changes) throws IOException {
+        checkNotClosed();
+        if (changes.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean create = this.length == 0;
+        byte[] journalId = create ? newId() : this.id;
+        int position = create ? 0 : this.records + 1;
+        try {
+            if (create) {
+                output.write(MAGIC);
+                output.write(VERSION);
+                writeRecord(output, encodeBases(journalId, this.bases), null, position++);
+            }
+            for (Change change : changes) {
+                writeRecord(output, change.encode(), journalId, position++);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(this.length);
+            ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+            long offset = this.length;
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer, offset);
+            }
+            channel.force(false);
+        }
+        this.id = journalId;
+        this.records = create ? changes.size() : this.records + changes.size();
+        this.length += output.size();
+    }
+
+    /**
+     * Gets the size of the journal.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        return this.length;
+    }
+
+    /**
+     * Checks whether the journal applies to a version of the file, and the changes which have
+     * been appended are still in the journal file, i.e. neither the file nor the journal has
+     * been replaced or deleted by another program.
+     *
+     * @param snapshotId the identifier of the version of the file
+     * @return {@code true} if the file and the journal have the saved changes
+     */
+    public synchronized boolean isIntact(byte[] snapshotId) {
+        if (this.bases.stream().noneMatch(base -> Arrays.equals(base, snapshotId))) {
+            return false;
+        }
+        try {
+            return this.length == 0 || Files.size(this.path) >= this.length;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the journal has grown beyond the {@code journal.compaction.threshold}
+     * property.
+     *
+     * @return {@code true} if the journal should be compacted
+     */
+    public synchronized boolean needsCompaction() {
+        return !this.closed && this.records > 0
+                && this.length > Configuration.getInteger("journal.compaction.threshold", DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Prepares the compaction of the journal. It has to be called while the entries are the
+     * entries of the file with the changes of the journal, i.e. right after a save. The list of
+     * entries is copied, so they can be changed while the compaction runs.
+     *
+     * @param entries the entries
+     * @param sessionKey the key of the file
+     * @param format the payload format of the file
+     * @return the compaction
+     */
+    public synchronized Compaction prepareCompaction(Entries entries, SessionKey sessionKey, PayloadFormat format) {
+        Entries copy = new Entries();
+        copy.getEntry().addAll(entries.getEntry());
+        return new Compaction(copy, sessionKey, format, this.records, this.generation);
+    }
+
+    /**
+     * Cancels a running compaction, because the file is going to be written otherwise. A
+     * compaction which is already replacing the file is waited for.
+     */
+    public synchronized void cancelCompaction() {
+        this.generation++;
+    }
+
+    /**
+     * Replaces the file by a compacted version, which contains the first changes of the journal.
+     * The journal is first rewritten to apply to both versions of the file, so it is valid
+     * whenever the process stops, and then rewritten with the remaining changes only.
+     *
+     * @return {@code false} if the compaction has been cancelled
+     */
+    private synchronized boolean finishCompaction(DocumentHelper documentHelper, Path snapshot, int compacted,
+            long startGeneration) throws IOException, DocumentProcessException {
+        if (this.closed || this.generation != startGeneration) {
+            return false;
+        }
+        Content content = readContent();
+        if (content == null || content.records().size() < compacted) {
+            throw new IOException("The journal has been changed during the compaction");
+        }
+        byte[] snapshotId = documentHelper.getSnapshotId();
+        List<byte[]> bothBases = new ArrayList<>(this.bases);
+        bothBases.add(snapshotId);
+        rewrite(bothBases, content.records());
+        documentHelper.replaceFile(snapshot);
+        rewrite(List.of(snapshotId), content.records().subList(compacted, content.records().size()));
+        return true;
+    }
+
+    /**
+     * Replaces the journal atomically.
+     */
+    private void rewrite(List<byte[]> journalBases, List<byte[]> plainRecords) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] journalId = newId();
+        try {
+            output.write(MAGIC);
+            output.write(VERSION);
+            writeRecord(output, encodeBases(journalId, journalBases), null, 0);
+            int position = 1;
+            for (byte[] record : plainRecords) {
+                writeRecord(output, record, journalId, position++);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        Path temp = DocumentHelper.createTempFile(this.path);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            DocumentHelper.moveAtomically(temp, this.path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        this.bases = List.copyOf(journalBases);
+        this.id = journalId;
+        this.records = plainRecords.size();
+        this.length = output.size();
+    }
+
+    private void writeRecord(ByteArrayOutputStream output, byte[] record, byte[] journalId, int position)
+            throws GeneralSecurityException {
+        byte[] sealed = this.cipher.seal(record, associatedData(journalId, position));
+        output.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(sealed.length).array());
+        output.writeBytes(sealed);
+    }
+
+    private static byte[] associatedData(byte[] journalId, int position) {
+        ByteBuffer buffer = ByteBuffer.allocate((journalId == null ? 0 : journalId.length) + Integer.BYTES);
+        if (journalId != null) {
+            buffer.put(journalId);
+        }
+        return buffer.putInt(position).array();
+    }
+
+    private static byte[] encodeBases(byte[] journalId, List<byte[]> journalBases) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(BASES_RECORD);
+        output.writeBytes(journalId);
+        output.write(journalBases.size());
+        for (byte[] base : journalBases) {
+            output.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(base.length).array());
+            output.writeBytes(base);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] newId() {
+        byte[] journalId = new byte[ID_LENGTH];
+        RandomService.nextBytes(journalId);
+        return journalId;
+    }
+
+    private static Change decodeChange(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        int type = buffer.get();
+        String title = readString(buffer);
+        if (type == DELETE_RECORD) {
+            return Change.deleted(title);
+        } else if (type != PUT_RECORD) {
+            throw new IllegalArgumentException("Unknown journal record: " + type);
+        }
+        Entry entry = new Entry();
+        entry.setTitle(readString(buffer));
+        entry.setUrl(readString(buffer));
+        entry.setUser(readString(buffer));
+        entry.setPassword(readString(buffer));
+        entry.setNotes(readString(buffer));
+        return new Change(title, entry);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void checkNotClosed() {
+        if (this.closed) {
+            throw new IllegalStateException("Journal is already closed");
+        }
+    }
+
+    /**
+     * Closes the journal, cancels a running compaction and wipes the record key.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        this.generation++;
+        this.cipher.close();
+    }
+
+    /**
+     * Replays changes over a list of entries. Entries of the changed titles are removed, and the
+     * last version of every changed entry is added at the end.
+     *
+     * @param changes the changes
+     * @param entries the entries
+     */
+    public static void replay(List<Change> changes, List<Entry> entries) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Map<String, Entry> changed = new LinkedHashMap<>();
+        for (Change change : changes) {
+            if (change.title() != null) {
+                changed.remove(change.title());
+                changed.put(change.title(), null);
+            }
+            if (change.entry() != null) {
+                changed.remove(change.entry().getTitle());
+                changed.put(change.entry().getTitle(), change.entry());
+            }
+        }
+        Set<String> titles = new HashSet<>(changed.keySet());
+        entries.removeIf(entry -> titles.contains(entry.getTitle()));
+        for (Entry entry : changed.values()) {
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+    }
+
+    private record Content(byte[] id, List<byte[]> bases, List<byte[]> records, long length) {
+    }
+
+    /**
+     * Change of one entry.
+     *
+     * @param title the title of the replaced or deleted entry, or {@code null} if an entry is added
+     * @param entry the added or edited entry, or {@code null} if the entry is deleted
+     */
+    public record Change(String title, Entry entry) {
+
+        /**
+         * Creates the change of adding an entry.
+         *
+         * @param entry the new entry
+         * @return the change
+         */
+        public static Change added(Entry entry) {
+            return new Change(null, entry);
+        }
+
+        /**
+         * Creates the change of editing an entry, which may also change its title.
+         *
+         * @param title the title of the entry before the change
+         * @param entry the changed entry
+         * @return the change
+         */
+        public static Change edited(String title, Entry entry) {
+            return new Change(title, entry);
+        }
+
+        /**
+         * Creates the change of deleting an entry.
+         *
+         * @param title the title of the entry
+         * @return the change
+         */
+        public static Change deleted(String title) {
+            return new Change(title, null);
+        }
+
+        private byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(bytes)) {
+                output.write(this.entry == null ? DELETE_RECORD : PUT_RECORD);
+                writeString(output, this.title);
+                if (this.entry != null) {
+                    writeString(output, this.entry.getTitle());
+                    writeString(output, this.entry.getUrl());
+                    writeString(output, this.entry.getUser());
+                    writeString(output, this.entry.getPassword());
+                    writeString(output, this.entry.getNotes());
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeString(DataOutputStream output, String value) throws IOException {
+            if (value == null) {
+                output.writeInt(-1);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Folds the changes of a journal into a new version of the file. The new version is written
+     * to a temporary file next to the file, which then replaces the file like a save, unless the
+     * compaction has been cancelled meanwhile by another write of the file.
+     */
+    public final class Compaction {
+        private final Entries entries;
+        private final SessionKey sessionKey;
+        private final PayloadFormat format;
+        private final int compacted;
+        private final long startGeneration;
+
+        private Compaction(Entries entries, SessionKey sessionKey, PayloadFormat format, int compacted, long startGeneration) {
+            this.entries = entries;
+            this.sessionKey = sessionKey;
+            this.format = format;
+            this.compacted = compacted;
+            this.startGeneration = startGeneration;
+        }
+
+        /**
+         * Runs the compaction, usually on a background thread.
+         *
+         * @return {@code false} if the compaction has been cancelled
+         * @throws IOException when I/O error occurred
+         * @throws DocumentProcessException when the entries cannot be written
+         */
+        public boolean run() throws IOException, DocumentProcessException {
+            DocumentHelper documentHelper = DocumentHelper.newInstance(file.toString(), this.sessionKey).withFormat(this.format);
+            Path temp = documentHelper.writeTempFile(this.entries);
+            try {
+                return finishCompaction(documentHelper, temp, this.compacted, this.startGeneration);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import jpass.util.Configuration;
+
+/**
+ * Encoding of the entries inside a file. The format of a file is detected when it is read and
+ * kept when it is saved again; new files use the format set by the {@code payload.format}
+ * property.
+ */
+public enum PayloadFormat {
+    /**
+     * XML document of the entries schema.
+     */
+    XML,
+    /**
+     * Compact binary encoding, see {@link jpass.xml.converter.BinaryConverter}.
+     */
+    BINARY,
+    /**
+     * Binary encoding where the password and the notes of every entry are sealed under their
+     * own subkey. They stay sealed in memory until they are read. Only for encrypted files.
+     */
+    SEALED;
+
+    /**
+     * Gets the format for new files according to the {@code payload.format} property.
+     *
+     * @return the format, XML by default
+     */
+    public static PayloadFormat forNewFiles() {
+        String name = Configuration.getString("payload.format", "xml");
+        if ("binary".equalsIgnoreCase(name)) {
+            return BINARY;
+        }
+        return "sealed".equalsIgnoreCase(name) ? SEALED : XML;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.data;
+
+import jpass.xml.bind.Entry;
+
+/**
+ * Entry whose password and notes are kept sealed in memory. They are decrypted every time they
+ * are read, and the decrypted values are not retained. Setting either of them unseals the entry.
+ */
+final class SealedEntry extends Entry {
+    private final EntrySecretCodec codec;
+    private byte[] sealedSecrets;
+
+    SealedEntry(EntrySecretCodec codec) {
+        this.codec = codec;
+    }
+
+    EntrySecretCodec getCodec() {
+        return this.codec;
+    }
+
+    /**
+     * Gets the sealed secrets.
+     *
+     * @return the sealed secrets, or {@code null} if the entry has been unsealed
+     */
+    byte[] getSealedSecrets() {
+        return this.sealedSecrets;
+    }
+
+    void setSealedSecrets(byte[] sealedSecrets) {
+        this.sealedSecrets = sealedSecrets;
+    }
+
+    @Override
+    public String getPassword() {
+        return this.sealedSecrets == null ? super.getPassword() : this.codec.open(this.sealedSecrets).password();
+    }
+
+    @Override
+    public void setPassword(String value) {
+        unseal();
+        super.setPassword(value);
+    }
+
+    @Override
+    public String getNotes() {
+        return this.sealedSecrets == null ? super.getNotes() : this.codec.open(this.sealedSecrets).notes();
+    }
+
+    @Override
+    public void setNotes(String value) {
+        unseal();
+        super.setNotes(value);
+    }
+
+    /**
+     * Creates a plain copy of the entry, for converters which access the fields directly.
+     *
+     * @return the plain entry
+     */
+    Entry toPlainEntry() {
+        Entry entry = new Entry();
+        entry.setTitle(getTitle());
+        entry.setUrl(getUrl());
+        entry.setUser(getUser());
+        entry.setPassword(getPassword());
+        entry.setNotes(getNotes());
+        return entry;
+    }
+
+    private void unseal() {
+        if (this.sealedSecrets != null) {
+            EntrySecretCodec.Secrets secrets = this.codec.open(this.sealedSecrets);
+            this.sealedSecrets = null;
+            super.setPassword(secrets.password());
+            super.setNotes(secrets.notes());
+        }
+    }
+}
@@ -4,6 +4,7 @@ import jpass.data.DataModel;
 import jpass.ui.action.CloseListener;
 import jpass.ui.action.ListListener;
 import jpass.ui.action.MenuActionType;
+import jpass.ui.helper.AutoSaver;
 import jpass.ui.helper.EntryHelper;
 import jpass.ui.helper.FileHelper;
 import jpass.util.Configuration;
@@ -87,6 +88,8 @@ public final class JPassFrame extends JFrame {
         fileMenu.add(MenuActionType.IMPORT_XML.getAction());
         fileMenu.addSeparator();
         fileMenu.add(MenuActionType.CHANGE_PASSWORD.getAction());
+        fileMenu.add(MenuActionType.ADD_KEY_SLOT.getAction());
+        fileMenu.add(MenuActionType.REVOKE_KEY_SLOT.getAction());
         fileMenu.addSeparator();
         fileMenu.add(MenuActionType.EXIT.getAction());
         menuBar.add(fileMenu);
@@ -140,6 +143,8 @@ public final class JPassFrame extends JFrame {
         MenuActionType.bindAllActions(this.entryTitleList);
 
         this.statusPanel = new StatusPanel();
+        AutoSaver.install(this);
+        FileHelper.releaseAfterSaves(this.model);
 
         refreshAll();
 
@@ -309,6 +314,15 @@ public final class JPassFrame extends JFrame {
         return this.processing;
     }
 
+    /**
+     * Gets the status panel.
+     *
+     * @return the status panel
+     */
+    public StatusPanel getStatusPanel() {
+        return this.statusPanel;
+    }
+
     /**
      * Get search panel.
      *
@@ -1,9 +1,12 @@
 package jpass.ui;
 
+import jpass.crypt.io.CryptFiles;
 import jpass.util.SpringUtilities;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -211,8 +214,31 @@ public final class MessageDialog extends JDialog implements ActionListener {
             panel.add(new JLabel("Repeat:"));
             panel.add(repeat);
         }
+        final JPasswordField repeatField = repeat;
+        JButton keyFileButton = new JButton("Key File...");
+        keyFileButton.addActionListener(e -> {
+            JFileChooser fc = new JFileChooser("./");
+            if (fc.showDialog(panel, "Use Key File") == JFileChooser.APPROVE_OPTION) {
+                char[] pass = null;
+                try {
+                    pass = CryptFiles.readKeyFile(fc.getSelectedFile().toPath());
+                    setPassword(password, pass);
+                    if (repeatField != null) {
+                        setPassword(repeatField, pass);
+                    }
+                } catch (IOException ex) {
+                    showErrorMessage(panel, "Cannot read key file:\n" + ex.getMessage());
+                } finally {
+                    if (pass != null) {
+                        Arrays.fill(pass, '\0');
+                    }
+                }
+            }
+        });
+        panel.add(new JLabel());
+        panel.add(keyFileButton);
         panel.setLayout(new SpringLayout());
-        SpringUtilities.makeCompactGrid(panel, confirm ? 2 : 1, 2, 5, 5, 5, 5);
+        SpringUtilities.makeCompactGrid(panel, confirm ? 3 : 2, 2, 5, 5, 5, 5);
         boolean notCorrect = true;
 
         while (notCorrect) {
@@ -232,6 +258,25 @@ public final class MessageDialog extends JDialog implements ActionListener {
         return password.getPassword();
     }
 
+    /**
+     * Replaces the content of a password field without creating a {@code String} of the whole
+     * password, the characters are inserted one by one the same way as typing does.
+     *
+     * @param field the password field
+     * @param pass the password
+     */
+    private static void setPassword(JPasswordField field, char[] pass) {
+        Document document = field.getDocument();
+        try {
+            document.remove(0, document.getLength());
+            for (int i = 0; i < pass.length; i++) {
+                document.insertString(i, String.valueOf(pass[i]), null);
+            }
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Returns an image resource.
      *
@@ -29,8 +29,10 @@
 package jpass.ui;
 
 import java.awt.BorderLayout;
+import java.awt.event.ActionListener;
 import java.io.Serial;
 
+import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
@@ -46,15 +48,28 @@ public class StatusPanel extends JPanel {
     private static final long serialVersionUID = 5455248210301851210L;
 
     private final JLabel label;
+    private final JLabel saveLabel;
     private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private ActionListener cancelAction;
 
     public StatusPanel() {
         super(new BorderLayout());
         setBorder(new EmptyBorder(2, 2, 2, 2));
         this.label = new JLabel();
-        this.progressBar = new JProgressBar();
+        this.saveLabel = new JLabel();
+        this.saveLabel.setBorder(new EmptyBorder(0, 4, 0, 4));
+        this.progressBar = new JProgressBar(0, 100);
+        this.cancelButton = new JButton("Cancel");
+        this.cancelButton.setVisible(false);
+        JPanel progressPanel = new JPanel(new BorderLayout());
+        progressPanel.add(this.progressBar, BorderLayout.CENTER);
+        progressPanel.add(this.cancelButton, BorderLayout.EAST);
+        JPanel eastPanel = new JPanel(new BorderLayout());
+        eastPanel.add(this.saveLabel, BorderLayout.CENTER);
+        eastPanel.add(progressPanel, BorderLayout.EAST);
         add(this.label, BorderLayout.CENTER);
-        add(this.progressBar, BorderLayout.EAST);
+        add(eastPanel, BorderLayout.EAST);
         setProcessing(false);
     }
 
@@ -66,9 +81,50 @@ public class StatusPanel extends JPanel {
         return this.label.getText();
     }
 
+    /**
+     * Sets the status of the last save, which is kept when the text is changed.
+     *
+     * @param text the status of the last save
+     */
+    public void setSaveStatus(final String text) {
+        this.saveLabel.setText(text);
+    }
+
     public void setProcessing(boolean processing) {
         this.progressBar.setVisible(processing);
         this.progressBar.setIndeterminate(processing);
+        this.progressBar.setStringPainted(false);
         setText(processing ? "Processing..." : " ");
+        if (!processing) {
+            setCancelAction(null);
+        }
+    }
+
+    /**
+     * Shows the progress of the running task, which makes the progress bar determinate.
+     *
+     * @param percent the progress, 0-100
+     */
+    public void setProgress(int percent) {
+        this.progressBar.setIndeterminate(false);
+        this.progressBar.setStringPainted(true);
+        this.progressBar.setValue(percent);
+    }
+
+    /**
+     * Shows a cancel button for the running task until the processing stops.
+     *
+     * @param action the action of the cancel button, or {@code null} to hide the button
+     */
+    public void setCancelAction(ActionListener action) {
+        if (this.cancelAction != null) {
+            this.cancelButton.removeActionListener(this.cancelAction);
+        }
+        this.cancelAction = action;
+        if (action != null) {
+            this.cancelButton.addActionListener(action);
+        }
+        this.cancelButton.setEnabled(true);
+        this.cancelButton.setVisible(action != null);
     }
 }
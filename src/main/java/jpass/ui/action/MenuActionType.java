@@ -42,10 +42,14 @@ import java.io.Serial;
 
 import static javax.swing.KeyStroke.getKeyStroke;
 import static jpass.ui.MessageDialog.getIcon;
+import static jpass.ui.helper.FileHelper.addKeySlot;
+import static jpass.ui.helper.FileHelper.changePassword;
+import static jpass.ui.helper.FileHelper.checkKeySlotsEditable;
 import static jpass.ui.helper.FileHelper.createNew;
 import static jpass.ui.helper.FileHelper.exportFile;
 import static jpass.ui.helper.FileHelper.importFile;
 import static jpass.ui.helper.FileHelper.openFile;
+import static jpass.ui.helper.FileHelper.revokeKeySlot;
 import static jpass.ui.helper.FileHelper.saveFile;
 
 /**
@@ -119,11 +123,38 @@ public enum MenuActionType {
             if (password.length == 0) {
                 MessageDialog.showInformationMessage(parent, "Password has not been modified.");
             } else {
-                parent.getModel().setPassword(password);
-                parent.getModel().setModified(true);
-                parent.refreshFrameTitle();
-                MessageDialog.showInformationMessage(parent,
-                        "Password has been successfully modified.\n\nSave the file now in order to\nget the new password applied.");
+                changePassword(parent, password);
+            }
+        }
+    }),
+    ADD_KEY_SLOT(new AbstractMenuAction("Add Key Slot...", getIcon("keyring"), null) {
+        @Serial
+        private static final long serialVersionUID = -4377019836201544210L;
+
+        @Override
+        public void actionPerformed(ActionEvent ev) {
+            JPassFrame parent = JPassFrame.getInstance();
+            if (checkKeySlotsEditable(parent)) {
+                char[] password = MessageDialog.showPasswordDialog(parent, true);
+                if (password.length != 0) {
+                    addKeySlot(parent, password);
+                }
+            }
+        }
+    }),
+    REVOKE_KEY_SLOT(new AbstractMenuAction("Revoke Key Slot...", getIcon("cancel"), null) {
+        @Serial
+        private static final long serialVersionUID = 1690272409538150647L;
+
+        @Override
+        public void actionPerformed(ActionEvent ev) {
+            JPassFrame parent = JPassFrame.getInstance();
+            if (checkKeySlotsEditable(parent)) {
+                MessageDialog.showInformationMessage(parent, "Enter the password or key file of the key slot to revoke.");
+                char[] password = MessageDialog.showPasswordDialog(parent, false);
+                if (password.length != 0) {
+                    revokeKeySlot(parent, password);
+                }
             }
         }
     }),
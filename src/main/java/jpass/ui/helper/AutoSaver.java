@@ -0,0 +1,126 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.ui.helper;
+
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import jpass.data.DataModel;
+import jpass.data.DocumentLoader;
+import jpass.ui.JPassFrame;
+import jpass.util.Configuration;
+
+/**
+ * Saves the data model in the background after it has not been modified for a quiet period,
+ * which is read from the {@code autosave.quiet.period} property in milliseconds. A burst of
+ * modifications is saved once, after the last of them. A value of 0 disables autosave.
+ * <p>
+ * Only files which have a file name and a password are saved, so no dialog is needed. While a
+ * save is running, the autosave is postponed; modifications made during the save are saved by
+ * the next autosave. A failed autosave is retried after the next modification.
+ */
+public final class AutoSaver {
+    private static final Logger LOG = Logger.getLogger(AutoSaver.class.getName());
+    private static final int DEFAULT_QUIET_PERIOD = 2000;
+
+    private final JPassFrame parent;
+    private final Timer timer;
+    private boolean saving = false;
+
+    private AutoSaver(JPassFrame parent, int quietPeriod) {
+        this.parent = parent;
+        this.timer = new Timer(quietPeriod, e -> save());
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Installs the autosave for the data model of the frame, unless it is disabled.
+     *
+     * @param parent the main application frame
+     */
+    public static void install(JPassFrame parent) {
+        int quietPeriod = Configuration.getInteger("autosave.quiet.period", DEFAULT_QUIET_PERIOD);
+        if (quietPeriod <= 0) {
+            return;
+        }
+        AutoSaver autoSaver = new AutoSaver(parent, quietPeriod);
+        parent.getModel().setModificationListener(() -> SwingUtilities.invokeLater(autoSaver.timer::restart));
+    }
+
+    /**
+     * Starts a background save when the quiet period is over.
+     */
+    private void save() {
+        DataModel model = this.parent.getModel();
+        if (!model.isModified() || model.getFileName() == null || model.getPassword() == null) {
+            return;
+        }
+        DocumentLoader loader = model.getLoader();
+        if (this.saving || this.parent.isProcessing() || (loader != null && !loader.isLoaded())) {
+            this.timer.restart();
+            return;
+        }
+        this.saving = true;
+        final SaveJob job = new SaveJob(model, model.getFileName(), model.getPassword());
+        SaveJob.execute(new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws Exception {
+                job.run();
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                saving = false;
+                try {
+                    get();
+                    if (job.apply()) {
+                        parent.refreshFrameTitle();
+                        parent.getStatusPanel().setSaveStatus(job.getStatus("Autosaved"));
+                        FileHelper.compactJournal(model);
+                        if (model.isModified()) {
+                            timer.restart();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // retried on the next modification
+                    LOG.log(Level.WARNING, "Autosave failed", e.getCause());
+                    parent.getStatusPanel().setSaveStatus("Autosave failed");
+                }
+            }
+        });
+    }
+}
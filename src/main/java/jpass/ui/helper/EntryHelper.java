@@ -28,6 +28,7 @@
  */
 package jpass.ui.helper;
 
+import jpass.data.Journal;
 import jpass.ui.EntryDialog;
 import jpass.ui.JPassFrame;
 import jpass.ui.MessageDialog;
@@ -60,6 +61,7 @@ public final class EntryHelper {
         if (option == MessageDialog.YES_OPTION) {
             String title = parent.getEntryTitleList().getSelectedValue();
             parent.getModel().getEntries().getEntry().remove(parent.getModel().getEntryByTitle(title));
+            parent.getModel().addChange(Journal.Change.deleted(title));
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(null);
@@ -81,6 +83,7 @@ public final class EntryHelper {
         EntryDialog ed = new EntryDialog(parent, "Duplicate Entry", oldEntry, true);
         if (ed.getFormData() != null) {
             parent.getModel().getEntries().getEntry().add(ed.getFormData());
+            parent.getModel().addChange(Journal.Change.added(ed.getFormData()));
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(ed.getFormData().getTitle());
@@ -103,6 +106,7 @@ public final class EntryHelper {
         if (ed.getFormData() != null) {
             parent.getModel().getEntries().getEntry().remove(oldEntry);
             parent.getModel().getEntries().getEntry().add(ed.getFormData());
+            parent.getModel().addChange(Journal.Change.edited(title, ed.getFormData()));
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(ed.getFormData().getTitle());
@@ -118,6 +122,7 @@ public final class EntryHelper {
         EntryDialog ed = new EntryDialog(parent, "Add New Entry", null, true);
         if (ed.getFormData() != null) {
             parent.getModel().getEntries().getEntry().add(ed.getFormData());
+            parent.getModel().addChange(Journal.Change.added(ed.getFormData()));
             parent.getModel().setModified(true);
             parent.refreshFrameTitle();
             parent.refreshEntryTitleList(ed.getFormData().getTitle());
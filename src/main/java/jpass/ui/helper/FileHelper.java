@@ -31,18 +31,34 @@ package jpass.ui.helper;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.JFileChooser;
+import javax.swing.SwingWorker;
 import javax.swing.filechooser.FileFilter;
 
+import jpass.crypt.io.InvalidPasswordException;
+import jpass.crypt.io.SessionKey;
+import jpass.data.ContentHashes;
+import jpass.data.DataModel;
+import jpass.data.DocumentExporter;
 import jpass.data.DocumentHelper;
+import jpass.data.DocumentImporter;
+import jpass.data.DocumentLoader;
 import jpass.data.DocumentProcessException;
+import jpass.data.Journal;
 import jpass.ui.JPassFrame;
 import jpass.ui.MessageDialog;
+import jpass.ui.StatusPanel;
 import jpass.ui.action.Callback;
 import jpass.ui.action.Worker;
 import jpass.util.StringUtils;
+import jpass.xml.bind.Entries;
 
 /**
  * Helper utils for file operations.
@@ -50,6 +66,7 @@ import jpass.util.StringUtils;
  * @author Gabor_Bata
  */
 public final class FileHelper {
+    private static final Logger LOG = Logger.getLogger(FileHelper.class.getName());
 
     private FileHelper() {
         // not intended to be instantiated
@@ -86,32 +103,57 @@ public final class FileHelper {
     }
 
     /**
-     * Shows a file chooser dialog and exports the file.
+     * Shows a file chooser dialog and exports the file. Files with the {@code .xml.gz} extension
+     * are compressed. The progress is shown in the status bar, and the export can be cancelled.
      *
      * @param parent parent component
+     * @see DocumentExporter
      */
     public static void exportFile(final JPassFrame parent) {
         MessageDialog.showWarningMessage(parent,
                 "Please note that all data will be stored unencrypted.\nMake sure you keep the exported file in a secure location.");
-        File file = showFileChooser(parent, "Export", "xml", "XML Files (*.xml)");
+        File file = showFileChooser(parent, "Export", "XML Files (*.xml, *.xml.gz)", "xml", "xml.gz");
         if (file == null) {
             return;
         }
-        final String fileName = checkExtension(file.getPath(), "xml");
+        final String fileName = file.getPath().toLowerCase().endsWith(".xml.gz") ? file.getPath() : checkExtension(file.getPath(), "xml");
         if (!checkFileOverwrite(fileName, parent)) {
             return;
         }
-        Worker worker = new Worker(parent) {
+        final DocumentExporter exporter = new DocumentExporter(fileName);
+        final StatusPanel statusPanel = parent.getStatusPanel();
+        final Worker worker = new Worker(parent) {
             @Override
             protected Void doInBackground() throws IOException {
                 try {
-                    DocumentHelper.newInstance(fileName).writeDocument(parent.getModel().getEntries());
+                    parent.getModel().awaitLoaded();
+                    long start = System.nanoTime();
+                    exporter.write(parent.getModel().getEntries().getEntry(),
+                            (count, total) -> setProgress((int) ((long) count * 100 / total)));
+                    LOG.log(Level.FINE, "Exported {0} bytes in {1} ms", new Object[] {exporter.getBytesWritten(),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
                 } catch (DocumentProcessException e) {
                     throw new IOException("An error occurred during the export operation:\n" + e.getMessage());
                 }
                 return null;
             }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    stopProcessing();
+                } else {
+                    super.done();
+                }
+            }
         };
+        worker.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                statusPanel.setProgress((Integer) event.getNewValue());
+            }
+        });
+        statusPanel.setText("Exporting...");
+        statusPanel.setCancelAction(e -> worker.cancel(true));
         worker.execute();
     }
 
@@ -121,7 +163,7 @@ public final class FileHelper {
      * @param parent parent component
      */
     public static void importFile(final JPassFrame parent) {
-        File file = showFileChooser(parent, "Import", "xml", "XML Files (*.xml)");
+        File file = showFileChooser(parent, "Import", "XML Files (*.xml, *.xml.gz)", "xml", "xml.gz");
         if (file == null) {
             return;
         }
@@ -147,42 +189,92 @@ public final class FileHelper {
     }
 
     /**
-     * Imports the given file.
+     * Imports the given file. The entries are read in the background, while the progress is
+     * shown in the status bar, and they replace the data model only when the whole file has been
+     * read; the import can be cancelled meanwhile.
      *
      * @param fileName file name
      * @param parent parent component
      */
     static void doImportFile(final String fileName, final JPassFrame parent) {
-        Worker worker = new Worker(parent) {
+        final DocumentImporter importer = new DocumentImporter(fileName);
+        final StatusPanel statusPanel = parent.getStatusPanel();
+        final Worker worker = new Worker(parent) {
+            private Entries entries;
+
             @Override
             protected Void doInBackground() throws IOException {
                 try {
-                    parent.getModel().setEntries(DocumentHelper.newInstance(fileName).readDocument());
-                    parent.getModel().setModified(true);
-                    parent.getModel().setFileName(null);
-                    parent.getModel().setPassword(null);
-                    parent.getSearchPanel().setVisible(false);
+                    this.entries = importer.read((bytesRead, totalBytes, count) ->
+                            setProgress(totalBytes == 0 ? 100 : (int) Math.min(100, bytesRead * 100 / totalBytes)));
                 } catch (DocumentProcessException e) {
                     throw new IOException("An error occurred during the import operation:\n" + e.getMessage());
                 }
                 return null;
             }
+
+            @Override
+            protected void done() {
+                ExecutionException failure = null;
+                boolean imported = false;
+                try {
+                    get();
+                    imported = true;
+                } catch (CancellationException e) {
+                    // the data model is kept
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    failure = e;
+                }
+                if (imported) {
+                    parent.clearModel();
+                    parent.getModel().setEntries(this.entries);
+                    parent.getModel().setModified(true);
+                    parent.getSearchPanel().setVisible(false);
+                }
+                stopProcessing();
+                if (failure != null) {
+                    showErrorMessage(failure);
+                } else if (imported && importer.getRenamedCount() > 0) {
+                    MessageDialog.showInformationMessage(parent, importer.getRenamedCount()
+                            + " imported entries have been renamed, since their titles were empty or already used.");
+                }
+            }
         };
+        worker.addPropertyChangeListener(event -> {
+            if ("progress".equals(event.getPropertyName())) {
+                statusPanel.setProgress((Integer) event.getNewValue());
+            }
+        });
+        statusPanel.setText("Importing...");
+        statusPanel.setCancelAction(e -> worker.cancel(true));
         worker.execute();
     }
 
     /**
-     * Shows a file chooser dialog and saves a file.
+     * Shows a file chooser dialog and saves a file. The file is written in the background, while
+     * the application stays usable; entries modified meanwhile are saved by the next save.
      *
      * @param parent parent component
      * @param saveAs normal 'Save' dialog or 'Save as'
      */
     public static void saveFile(final JPassFrame parent, final boolean saveAs) {
-        saveFile(parent, saveAs, result -> {});
+        String fileName = getSaveFileName(parent, saveAs);
+        if (fileName == null) {
+            return;
+        }
+        char[] password = getSavePassword(parent);
+        if (password == null) {
+            return;
+        }
+        parent.getStatusPanel().setSaveStatus("Saving...");
+        SaveJob.execute(new BackgroundSaveWorker(parent, fileName, password));
     }
 
     /**
-     * Shows a file chooser dialog and saves a file.
+     * Shows a file chooser dialog and saves a file. The application is disabled until the file
+     * is written, since the callback usually closes it.
      *
      * @param parent parent component
      * @param saveAs normal 'Save' dialog or 'Save as'
@@ -190,33 +282,47 @@ public final class FileHelper {
      * successfully saved; otherwise {@code false}
      */
     public static void saveFile(JPassFrame parent, boolean saveAs, Callback callback) {
-        String fileName;
-        if (saveAs || parent.getModel().getFileName() == null) {
-            File file = showFileChooser(parent, "Save", "jpass", "JPass Data Files (*.jpass)");
-            if (file == null) {
-                callback.call(false);
-                return;
-            }
-            fileName = checkExtension(file.getPath(), "jpass");
-            if (!checkFileOverwrite(fileName, parent)) {
-                callback.call(false);
-                return;
-            }
-        } else {
-            fileName = parent.getModel().getFileName();
+        String fileName = getSaveFileName(parent, saveAs);
+        if (fileName == null) {
+            callback.call(false);
+            return;
         }
-        char[] password;
-        if (parent.getModel().getPassword() == null) {
-            password = MessageDialog.showPasswordDialog(parent, true);
-            if (password.length == 0) {
-                callback.call(false);
-                return;
-            }
-        } else {
-            password = parent.getModel().getPassword();
+        char[] password = getSavePassword(parent);
+        if (password == null) {
+            callback.call(false);
+            return;
         }
-        Worker worker = new SaveFileWorker(parent, fileName, password, callback);
-        worker.execute();
+        SaveJob.execute(new SaveFileWorker(parent, fileName, password, callback));
+    }
+
+    /**
+     * Gets the file name to save to, and asks for it if needed.
+     *
+     * @return the file name, or {@code null} if the user cancelled the dialog
+     */
+    private static String getSaveFileName(JPassFrame parent, boolean saveAs) {
+        if (!saveAs && parent.getModel().getFileName() != null) {
+            return parent.getModel().getFileName();
+        }
+        File file = showFileChooser(parent, "Save", "JPass Data Files (*.jpass)", "jpass");
+        if (file == null) {
+            return null;
+        }
+        String fileName = checkExtension(file.getPath(), "jpass");
+        return checkFileOverwrite(fileName, parent) ? fileName : null;
+    }
+
+    /**
+     * Gets the password to save with, and asks for it if needed.
+     *
+     * @return the password, or {@code null} if the user cancelled the dialog
+     */
+    private static char[] getSavePassword(JPassFrame parent) {
+        if (parent.getModel().getPassword() != null) {
+            return parent.getModel().getPassword();
+        }
+        char[] password = MessageDialog.showPasswordDialog(parent, true);
+        return password.length == 0 ? null : password;
     }
 
     /**
@@ -225,7 +331,7 @@ public final class FileHelper {
      * @param parent parent component
      */
     public static void openFile(final JPassFrame parent) {
-        final File file = showFileChooser(parent, "Open", "jpass", "JPass Data Files (*.jpass)");
+        final File file = showFileChooser(parent, "Open", "JPass Data Files (*.jpass)", "jpass");
         if (file == null) {
             return;
         }
@@ -250,7 +356,8 @@ public final class FileHelper {
     }
 
     /**
-     * Loads a file and fills the data model.
+     * Loads a file and fills the data model. If the password is rejected by the key check value
+     * of the file, the password is asked again.
      *
      * @param fileName file name
      * @param parent parent component
@@ -268,9 +375,16 @@ public final class FileHelper {
             @Override
             protected Void doInBackground() throws IOException {
                 try {
-                    parent.getModel().setEntries(DocumentHelper.newInstance(fileName, password).readDocument());
+                    DocumentHelper documentHelper = DocumentHelper.newInstance(fileName, password);
+                    DocumentLoader loader = documentHelper.openDocument();
+                    parent.getModel().setEntries(loader.getEntries());
+                    parent.getModel().setSavedContent(new ContentHashes(loader.getEntries().getEntry(), documentHelper.getSnapshotId()));
+                    parent.getModel().setLoader(loader.isLoaded() ? null : loader);
                     parent.getModel().setFileName(fileName);
                     parent.getModel().setPassword(password);
+                    parent.getModel().setSessionKey(documentHelper.getSessionKey());
+                    parent.getModel().setPayloadFormat(documentHelper.getFormat());
+                    parent.getModel().setJournal(documentHelper.getJournal());
                     parent.getSearchPanel().setVisible(false);
                 } catch (DocumentProcessException e) {
                     throw new IOException(e.getMessage());
@@ -283,11 +397,18 @@ public final class FileHelper {
                 stopProcessing();
                 try {
                     get();
+                    DocumentLoader loader = parent.getModel().getLoader();
+                    if (loader != null) {
+                        loadRemainingEntries(parent, loader);
+                    }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 } catch (ExecutionException e) {
                     if (e.getCause() instanceof FileNotFoundException) {
                         handleFileNotFound(parent, fileName, password);
+                    } else if (e.getCause() instanceof InvalidPasswordException) {
+                        showErrorMessage(e);
+                        doOpenFile(fileName, parent);
                     } else {
                         showErrorMessage(e);
                     }
@@ -297,6 +418,209 @@ public final class FileHelper {
         worker.execute();
     }
 
+    /**
+     * Loads the remaining fields of the entries in the background, after their titles have been
+     * shown. The application is not disabled meanwhile; actions which need an entry wait until
+     * it is loaded. If loading fails, the data model is cleared, so a partially loaded file
+     * cannot be saved.
+     *
+     * @param parent parent component
+     * @param loader the loader of the entries
+     */
+    private static void loadRemainingEntries(final JPassFrame parent, final DocumentLoader loader) {
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                try {
+                    loader.load();
+                } catch (DocumentProcessException e) {
+                    throw new IOException(e.getMessage());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    if (!loader.isClosed()) {
+                        MessageDialog.showErrorMessage(parent, "An error occurred during the open operation:\n"
+                                + e.getCause().getMessage());
+                        parent.clearModel();
+                        parent.refreshAll();
+                    }
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Makes the data model close the keys, codecs, journal and loader it drops only after the
+     * saves which have been started, since they may still be using them.
+     *
+     * @param model the data model
+     */
+    public static void releaseAfterSaves(DataModel model) {
+        model.setReleaseExecutor(SaveJob::afterSaves);
+    }
+
+    /**
+     * Changes the password of the data model. If the file is saved and its data key is wrapped,
+     * only the header of the file is rewritten with the new password, otherwise the new password
+     * is applied on the next save. The header is rewritten after the saves which have already
+     * been started, so none of them writes the file with the old password afterwards.
+     *
+     * @param parent parent component
+     * @param password the new password
+     */
+    public static void changePassword(final JPassFrame parent, final char[] password) {
+        DataModel model = parent.getModel();
+        SessionKey sessionKey = model.getSessionKey();
+        if (model.isModified() || model.getFileName() == null || sessionKey == null || !sessionKey.isWrapped()) {
+            model.setPassword(password);
+            model.setModified(true);
+            parent.refreshFrameTitle();
+            MessageDialog.showInformationMessage(parent,
+                    "Password has been successfully modified.\n\nSave the file now in order to\nget the new password applied.");
+            return;
+        }
+        Worker worker = new Worker(parent) {
+            @Override
+            protected Void doInBackground() throws IOException {
+                try {
+                    cancelCompaction(model);
+                    SessionKey replacement = DocumentHelper.newInstance(model.getFileName(), sessionKey).changePassword(password);
+                    model.setPassword(password);
+                    model.setSessionKey(replacement);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("An error occurred during the change password operation:\n" + e.getMessage());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                stopProcessing();
+                try {
+                    get();
+                    MessageDialog.showInformationMessage(parent, "Password has been successfully modified.");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    showErrorMessage(e);
+                }
+            }
+        };
+        SaveJob.execute(worker);
+    }
+
+    /**
+     * Checks whether the key slots of the current file can be changed, which needs a saved file
+     * with a wrapped data key. Shows a message if they cannot be changed.
+     *
+     * @param parent parent component
+     * @return {@code true} if the key slots can be changed
+     */
+    public static boolean checkKeySlotsEditable(final JPassFrame parent) {
+        DataModel model = parent.getModel();
+        SessionKey sessionKey = model.getSessionKey();
+        if (model.isModified() || model.getFileName() == null || sessionKey == null || !sessionKey.isWrapped()) {
+            MessageDialog.showInformationMessage(parent, "Please save the file before changing its key slots.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds a key slot with the given password to the current file. Only the header of the file
+     * is rewritten.
+     *
+     * @param parent parent component
+     * @param password password of the new key slot
+     */
+    public static void addKeySlot(final JPassFrame parent, final char[] password) {
+        rewriteKeys(parent, "Key slot has been successfully added.", sessionKey -> {
+            if (sessionKey.getSlotCount() >= SessionKey.MAX_SLOT_COUNT) {
+                throw new IOException("The file already has the maximum of " + SessionKey.MAX_SLOT_COUNT
+                        + " key slots.\nRevoke a key slot first.");
+            }
+            return sessionKey.withAddedSlot(password);
+        });
+    }
+
+    /**
+     * Revokes the key slot of the given password from the current file. Only the header of the
+     * file is rewritten. The key slot the file has been opened with cannot be revoked.
+     *
+     * @param parent parent component
+     * @param password password of the key slot to revoke
+     */
+    public static void revokeKeySlot(final JPassFrame parent, final char[] password) {
+        rewriteKeys(parent, "Key slot has been successfully revoked.", sessionKey -> {
+            int slot = sessionKey.findSlot(password);
+            if (slot < 0) {
+                throw new IOException("The password does not belong to any key slot.");
+            }
+            if (slot == sessionKey.getSlot()) {
+                throw new IOException("The file has been opened with this key slot.\nUse Change Password instead.");
+            }
+            return sessionKey.withoutSlot(slot);
+        });
+    }
+
+    /**
+     * Rewrites the key slots of the current file after the saves which have already been started,
+     * see {@link SaveJob#execute(SwingWorker)}.
+     */
+    private static void rewriteKeys(final JPassFrame parent, final String message, final KeyChange change) {
+        DataModel model = parent.getModel();
+        SessionKey sessionKey = model.getSessionKey();
+        Worker worker = new Worker(parent) {
+            @Override
+            protected Void doInBackground() throws IOException {
+                try {
+                    cancelCompaction(model);
+                    SessionKey replacement = change.apply(sessionKey);
+                    try {
+                        DocumentHelper.newInstance(model.getFileName(), sessionKey).rewriteKeys(replacement);
+                    } catch (IOException | RuntimeException e) {
+                        replacement.close();
+                        throw e;
+                    }
+                    model.setSessionKey(replacement);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("An error occurred during the key slot operation:\n" + e.getMessage());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                stopProcessing();
+                try {
+                    get();
+                    MessageDialog.showInformationMessage(parent, message);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    showErrorMessage(e);
+                }
+            }
+        };
+        SaveJob.execute(worker);
+    }
+
+    /**
+     * Change of the key slots of a session key.
+     */
+    @FunctionalInterface
+    private interface KeyChange {
+        SessionKey apply(SessionKey sessionKey) throws GeneralSecurityException, IOException;
+    }
+
     /**
      * Handles file not found exception.
      *
@@ -308,41 +632,104 @@ public final class FileHelper {
         int option = MessageDialog.showQuestionMessage(parent, "File not found:\n" + StringUtils.stripString(fileName)
                 + "\n\nDo you want to create the file?", MessageDialog.YES_NO_OPTION);
         if (option == MessageDialog.YES_OPTION) {
+            final SaveJob job = new SaveJob(parent.getModel(), fileName, password);
             Worker fileNotFoundWorker = new Worker(parent) {
                 @Override
                 protected Void doInBackground() throws IOException {
                     try {
-                        DocumentHelper.newInstance(fileName, password).writeDocument(parent.getModel().getEntries());
-                        parent.getModel().setFileName(fileName);
-                        parent.getModel().setPassword(password);
+                        job.run();
                     } catch (DocumentProcessException e) {
                         throw new IOException("An error occurred during the open operation:\n" + e.getMessage());
                     }
                     return null;
                 }
 
+                @Override
+                protected void done() {
+                    ExecutionException failure = null;
+                    try {
+                        get();
+                        job.apply();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        failure = e;
+                    }
+                    stopProcessing();
+                    if (failure != null) {
+                        showErrorMessage(failure);
+                    }
+                }
             };
-            fileNotFoundWorker.execute();
+            SaveJob.execute(fileNotFoundWorker);
+        }
+    }
+
+    private static void cancelCompaction(DataModel model) {
+        if (model.getJournal() != null) {
+            model.getJournal().cancelCompaction();
         }
     }
 
+    /**
+     * Folds the journal into a new version of the file in the background, if it has grown too
+     * large. It is called right after a save, when the entries match the file and its journal.
+     * A failed compaction leaves the file and the journal valid, so it is only logged.
+     *
+     * @param model data model
+     */
+    static void compactJournal(final DataModel model) {
+        Journal journal = model.getJournal();
+        DocumentLoader loader = model.getLoader();
+        if (journal == null || !journal.needsCompaction() || (loader != null && !loader.isLoaded())) {
+            return;
+        }
+        final Journal.Compaction compaction = journal.prepareCompaction(model.getEntries(), model.getSessionKey(),
+                model.getPayloadFormat());
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() throws IOException, DocumentProcessException {
+                return compaction.run();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    LOG.log(Level.FINE, "Journal compaction {0}", get() ? "finished" : "cancelled");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    LOG.log(Level.WARNING, "Journal compaction failed", e.getCause());
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Shows a file chooser dialog.
      *
      * @param parent parent component
      * @param taskName name of the task
-     * @param extension accepted file extension
      * @param description file extension description
+     * @param extensions accepted file extensions
      * @return a file object
      */
     private static File showFileChooser(final JPassFrame parent, final String taskName,
-            final String extension, final String description) {
+            final String description, final String... extensions) {
         File ret = null;
         JFileChooser fc = new JFileChooser("./");
         fc.setFileFilter(new FileFilter() {
             @Override
             public boolean accept(File f) {
-                return f.isDirectory() || f.getName().toLowerCase().endsWith("." + extension);
+                if (f.isDirectory()) {
+                    return true;
+                }
+                for (String extension : extensions) {
+                    if (f.getName().toLowerCase().endsWith("." + extension)) {
+                        return true;
+                    }
+                }
+                return false;
             }
             @Override
             public String getDescription() {
@@ -394,25 +781,20 @@ public final class FileHelper {
 
     private static class SaveFileWorker extends Worker {
         private final JPassFrame parent;
-        private final String fileName;
-        private final char[] password;
+        private final SaveJob job;
         private final Callback callback;
 
         public SaveFileWorker(JPassFrame parent, String fileName, char[] password, Callback callback) {
             super(parent);
             this.parent = parent;
-            this.fileName = fileName;
-            this.password = password;
+            this.job = new SaveJob(parent.getModel(), fileName, password);
             this.callback = callback;
         }
 
         @Override
         protected Void doInBackground() throws IOException {
             try {
-                DocumentHelper.newInstance(fileName, password).writeDocument(parent.getModel().getEntries());
-                parent.getModel().setFileName(fileName);
-                parent.getModel().setPassword(password);
-                parent.getModel().setModified(false);
+                job.run();
             } catch (DocumentProcessException e) {
                 throw new IOException("An error occurred during the save operation:\n" + e.getMessage());
             }
@@ -421,17 +803,62 @@ public final class FileHelper {
 
         @Override
         protected void done() {
+            ExecutionException failure = null;
+            try {
+                get();
+                job.apply();
+                parent.getStatusPanel().setSaveStatus(job.getStatus("Saved"));
+                compactJournal(parent.getModel());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                failure = e;
+            }
             stopProcessing();
-            boolean result = true;
+            if (failure != null) {
+                showErrorMessage(failure);
+            }
+            callback.call(failure == null);
+        }
+    }
+
+    /**
+     * Worker which saves the file without disabling the application.
+     */
+    private static class BackgroundSaveWorker extends SwingWorker<Void, Void> {
+        private final JPassFrame parent;
+        private final SaveJob job;
+
+        BackgroundSaveWorker(JPassFrame parent, String fileName, char[] password) {
+            this.parent = parent;
+            this.job = new SaveJob(parent.getModel(), fileName, password);
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException {
+            try {
+                job.run();
+            } catch (DocumentProcessException e) {
+                throw new IOException("An error occurred during the save operation:\n" + e.getMessage());
+            }
+            return null;
+        }
+
+        @Override
+        protected void done() {
             try {
                 get();
+                if (job.apply()) {
+                    parent.refreshFrameTitle();
+                    compactJournal(parent.getModel());
+                }
+                parent.getStatusPanel().setSaveStatus(job.getStatus("Saved"));
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             } catch (ExecutionException e) {
-                result = false;
-                showErrorMessage(e);
+                parent.getStatusPanel().setSaveStatus("Save failed");
+                MessageDialog.showErrorMessage(parent, e.getCause().getMessage());
             }
-            callback.call(result);
         }
     }
 }
@@ -0,0 +1,361 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.ui.helper;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.swing.SwingWorker;
+
+import jpass.crypt.io.CryptFiles;
+import jpass.crypt.io.SessionKey;
+import jpass.data.ContentHashes;
+import jpass.data.DataModel;
+import jpass.data.DocumentHelper;
+import jpass.data.DocumentLoader;
+import jpass.data.DocumentProcessException;
+import jpass.data.Journal;
+import jpass.data.PayloadFormat;
+import jpass.xml.bind.Entries;
+
+/**
+ * Save of a snapshot of the data model. The snapshot is taken on the event dispatch thread when
+ * the job is created, it is written by {@link #run()} on a background thread, and the result is
+ * applied to the data model by {@link #apply()} on the event dispatch thread again. The entries
+ * can be changed meanwhile, since they are replaced rather than modified; the data model stays
+ * modified if they have been.
+ * <p>
+ * Only one save runs at a time. If the changes since the last save can be appended to the
+ * journal of the file, only they are written, otherwise the whole file. Nothing is written if
+ * the content of the entries is the same as in the file and the file has not been replaced by
+ * another program, and changes which have been reverted are not appended to the journal.
+ * Workers which save are started by {@link #execute(SwingWorker)}, so their snapshots are
+ * written and applied in the order they have been taken.
+ */
+final class SaveJob {
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JPass-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DataModel model;
+    private final String fileName;
+    private final char[] password;
+    private final Entries source;
+    private final Entries entries;
+    private final List<Journal.Change> changesSource;
+    private final List<Journal.Change> changes;
+    private final long revision;
+    private final String currentFileName;
+    private final SessionKey currentKey;
+    private final Journal journal;
+    private final PayloadFormat format;
+    private final ContentHashes savedContent;
+
+    private SessionKey sessionKey;
+    private DocumentHelper documentHelper;
+    private Journal newJournal;
+    private ContentHashes newContent;
+    private boolean skipped;
+    private long nanos;
+
+    /**
+     * Takes a snapshot of the data model for saving.
+     *
+     * @param model data model
+     * @param fileName file name to save to
+     * @param password password to save with
+     */
+    SaveJob(DataModel model, String fileName, char[] password) {
+        this.model = model;
+        this.fileName = fileName;
+        this.password = password;
+        this.source = model.getEntries();
+        this.entries = new Entries();
+        this.entries.getEntry().addAll(this.source.getEntry());
+        this.changesSource = model.getChanges();
+        this.changes = this.changesSource == null ? null : new ArrayList<>(this.changesSource);
+        this.revision = model.getRevision();
+        this.currentFileName = model.getFileName();
+        this.currentKey = password == model.getPassword() ? model.getSessionKey() : null;
+        this.journal = model.getJournal();
+        this.format = model.getPayloadFormat();
+        this.savedContent = model.getSavedContent();
+    }
+
+    /**
+     * Starts a worker which runs save jobs. Workers started by this method run one after the
+     * other, so an older snapshot never overwrites a newer one.
+     *
+     * @param worker the worker
+     */
+    static void execute(SwingWorker<?, ?> worker) {
+        EXECUTOR.execute(worker);
+    }
+
+    /**
+     * Runs a task after the saves which have already been started, e.g. to wipe a key which
+     * they may still be using.
+     *
+     * @param task the task
+     */
+    static void afterSaves(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Writes the snapshot, after the previous save has finished.
+     *
+     * @throws IOException when I/O error occurred
+     * @throws DocumentProcessException when the entries cannot be written
+     */
+    void run() throws IOException, DocumentProcessException {
+        LOCK.lock();
+        try {
+            long start = System.nanoTime();
+            this.sessionKey = getSessionKey();
+            try {
+                boolean fileUnchanged = isFileUnchanged();
+                if (canAppendChanges() && fileUnchanged) {
+                    appendChanges();
+                } else {
+                    writeChangedSnapshot(fileUnchanged);
+                }
+            } catch (IOException | DocumentProcessException | RuntimeException e) {
+                if (this.sessionKey != this.currentKey) {
+                    this.sessionKey.close();
+                }
+                if (this.newJournal != null) {
+                    this.newJournal.close();
+                }
+                throw e;
+            }
+            this.nanos = System.nanoTime() - start;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Gets the key for saving. The session key of the data model is reused if it belongs to the
+     * same password, otherwise a new key is derived.
+     */
+    private SessionKey getSessionKey() throws IOException {
+        if (this.currentKey != null && !this.currentKey.isClosed()) {
+            return this.currentKey;
+        }
+        try {
+            return SessionKey.derive(this.password);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Tells whether the saved content of the file can be compared with the snapshot, since it is
+     * saved to the same file with the same key, and all entries have been loaded.
+     */
+    private boolean canCompareContent() {
+        DocumentLoader loader = this.model.getLoader();
+        return this.savedContent != null && this.fileName.equals(this.currentFileName) && this.sessionKey == this.currentKey
+                && (loader == null || loader.isLoaded());
+    }
+
+    /**
+     * Appends the changes to the journal, except those which have been reverted. Only the titles
+     * of the changes are compared with the saved content.
+     */
+    private void appendChanges() throws IOException {
+        if (!canCompareContent()) {
+            this.journal.append(this.changes);
+            return;
+        }
+        Set<String> changedTitles = this.savedContent.getChangedTitlesAfter(this.changes);
+        if (changedTitles.isEmpty()) {
+            this.skipped = true;
+            return;
+        }
+        this.journal.append(ContentHashes.retainChanged(this.changes, changedTitles));
+        this.savedContent.update(this.changes);
+    }
+
+    /**
+     * Writes the whole snapshot, unless its content is the same as the saved content and the
+     * file has not been changed by another program.
+     */
+    private void writeChangedSnapshot(boolean fileUnchanged) throws IOException, DocumentProcessException {
+        this.model.awaitLoaded();
+        if (!canCompareContent()) {
+            writeSnapshot();
+            this.newContent = new ContentHashes(this.entries.getEntry(), this.documentHelper.getSnapshotId());
+            return;
+        }
+        Set<String> changedTitles = this.savedContent.getChangedTitles(this.entries.getEntry());
+        if (changedTitles.isEmpty() && fileUnchanged) {
+            this.skipped = true;
+            return;
+        }
+        writeSnapshot();
+        this.savedContent.update(this.entries.getEntry(), changedTitles, this.documentHelper.getSnapshotId());
+    }
+
+    /**
+     * Checks whether the file is still the version the saved content and the journal belong to.
+     * Another program may have replaced or deleted it meanwhile, e.g. a file synchronization
+     * client, and then it has to be written again.
+     */
+    private boolean isFileUnchanged() {
+        if (!this.fileName.equals(this.currentFileName) || (this.journal == null && this.savedContent == null)) {
+            return false;
+        }
+        byte[] snapshotId;
+        try {
+            snapshotId = CryptFiles.readSnapshotId(Paths.get(this.fileName));
+        } catch (IOException e) {
+            return false;
+        }
+        if (this.journal != null) {
+            return this.journal.isIntact(snapshotId);
+        }
+        return Arrays.equals(snapshotId, this.savedContent.getSnapshotId());
+    }
+
+    private boolean canAppendChanges() {
+        return this.journal != null && this.changes != null && this.fileName.equals(this.currentFileName)
+                && this.sessionKey == this.currentKey;
+    }
+
+    /**
+     * Writes all entries to a new version of the file, and starts an empty journal for it. The
+     * payload format of the file is kept, new files get the configured format. A running
+     * compaction of the previous journal is cancelled.
+     */
+    private void writeSnapshot() throws IOException, DocumentProcessException {
+        if (this.journal != null) {
+            this.journal.cancelCompaction();
+        }
+        this.model.awaitLoaded();
+        this.documentHelper = DocumentHelper.newInstance(this.fileName, this.sessionKey);
+        if (this.format != null) {
+            this.documentHelper.withFormat(this.format);
+        }
+        this.documentHelper.writeDocument(this.entries);
+        if (Journal.isEnabled()) {
+            this.newJournal = Journal.create(this.fileName, this.sessionKey, this.documentHelper.getSnapshotId());
+        }
+    }
+
+    /**
+     * Applies the result of a successful save to the data model. Nothing is applied if the
+     * entries of the data model have been replaced meanwhile, e.g. by opening another file, or
+     * if a later save has moved the data model to another file.
+     *
+     * @return {@code true} if the result has been applied
+     */
+    boolean apply() {
+        if (this.model.getEntries() != this.source || !Objects.equals(this.model.getFileName(), this.currentFileName)) {
+            if (this.newJournal != null) {
+                this.newJournal.close();
+            }
+            if (this.sessionKey != this.currentKey) {
+                this.sessionKey.close();
+            }
+            return false;
+        }
+        boolean unchanged = this.model.getRevision() == this.revision;
+        List<Journal.Change> pending = unchanged ? new ArrayList<>() : getPendingChanges();
+        if (this.newContent != null) {
+            this.model.setSavedContent(this.newContent);
+        }
+        if (this.documentHelper != null) {
+            this.model.setFileName(this.fileName);
+            this.model.setPassword(this.password);
+            this.model.setSessionKey(this.sessionKey);
+            this.model.setPayloadFormat(this.documentHelper.getFormat());
+            this.model.setJournal(this.newJournal);
+            if (this.newJournal != null) {
+                this.model.setChanges(pending);
+            }
+        } else if (pending != null) {
+            this.model.setChanges(pending);
+        }
+        if (unchanged) {
+            this.model.setModified(false);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the changes which have been made since the snapshot was taken.
+     *
+     * @return the changes, or {@code null} if they are not tracked
+     */
+    private List<Journal.Change> getPendingChanges() {
+        List<Journal.Change> current = this.model.getChanges();
+        if (current == null || current != this.changesSource) {
+            return null;
+        }
+        List<Journal.Change> pending = new ArrayList<>(current);
+        for (Journal.Change saved : this.changes) {
+            pending.removeIf(change -> change == saved);
+        }
+        return pending;
+    }
+
+    /**
+     * Gets the status of the finished save for the status bar.
+     *
+     * @param action the name of the save, e.g. "Saved"
+     * @return the status
+     */
+    String getStatus(String action) {
+        return this.skipped ? "No changes to save" : action + " in " + getMillis() + " ms";
+    }
+
+    /**
+     * Gets the time spent writing the snapshot.
+     *
+     * @return the time in milliseconds
+     */
+    long getMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.nanos);
+    }
+}
@@ -49,6 +49,10 @@ public final class Configuration {
         return Boolean.parseBoolean(val);
     }
 
+    public static String getString(String key, String defaultValue) {
+        return System.getProperty(key, defaultValue);
+    }
+
     public static int getInteger(String key, int defaultValue) {
         String val = System.getProperty(key);
         if (val == null) {
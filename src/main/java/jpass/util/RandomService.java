@@ -0,0 +1,173 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.util;
+
+import java.io.Serial;
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Source of the random numbers for salts, IVs and password generation.
+ * <p>
+ * It is a single DRBG instance, seeded once, instead of a {@code SecureRandom.getInstanceStrong()}
+ * per save, which can block on hosts with little entropy. The duration of every draw is recorded,
+ * so it can be verified that drawing never waits for entropy.
+ */
+public final class RandomService {
+    private static final Logger LOG = Logger.getLogger(RandomService.class.getName());
+    private static final long SLOW_DRAW_NANOS = 100_000_000L;
+    private static final AtomicLong drawCount = new AtomicLong();
+    private static final AtomicLong totalDrawNanos = new AtomicLong();
+    private static final AtomicLong maxDrawNanos = new AtomicLong();
+    private static volatile long lastDrawNanos = 0;
+    private static final SecureRandom random = new SecureRandom(new TimedRandomSpi(createGenerator()), null) {
+        @Serial
+        private static final long serialVersionUID = 5310432170941447417L;
+    };
+
+    private RandomService() {
+        // utility class
+    }
+
+    private static SecureRandom createGenerator() {
+        try {
+            return SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(256,
+                    DrbgParameters.Capability.RESEED_ONLY, "JPass".getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            LOG.log(Level.WARNING, "DRBG is not available, using the default SecureRandom", e);
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * Gets the shared random number generator.
+     *
+     * @return the random number generator
+     */
+    public static SecureRandom getSecureRandom() {
+        return random;
+    }
+
+    /**
+     * Fills the array with random bytes.
+     *
+     * @param bytes the array to fill
+     */
+    public static void nextBytes(byte[] bytes) {
+        random.nextBytes(bytes);
+    }
+
+    /**
+     * Seeds the generator on a background thread, so the first save doesn't have to wait for it.
+     */
+    public static void warmUp() {
+        Thread thread = new Thread(() -> nextBytes(new byte[1]), "random-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the number of draws since the start of the application.
+     *
+     * @return number of draws
+     */
+    public static long getDrawCount() {
+        return drawCount.get();
+    }
+
+    /**
+     * Gets the duration of the last draw.
+     *
+     * @return duration in nanoseconds
+     */
+    public static long getLastDrawNanos() {
+        return lastDrawNanos;
+    }
+
+    /**
+     * Gets the duration of the slowest draw, which includes the seeding of the generator.
+     *
+     * @return duration in nanoseconds
+     */
+    public static long getMaxDrawNanos() {
+        return maxDrawNanos.get();
+    }
+
+    /**
+     * Gets the total duration of all draws.
+     *
+     * @return duration in nanoseconds
+     */
+    public static long getTotalDrawNanos() {
+        return totalDrawNanos.get();
+    }
+
+    private static void recordDraw(long nanos, int length) {
+        drawCount.incrementAndGet();
+        totalDrawNanos.addAndGet(nanos);
+        maxDrawNanos.accumulateAndGet(nanos, Math::max);
+        lastDrawNanos = nanos;
+        if (nanos > SLOW_DRAW_NANOS) {
+            LOG.log(Level.WARNING, "Drawing {0} random bytes took {1} ms", new Object[] {length, nanos / 1_000_000});
+        }
+    }
+
+    private static final class TimedRandomSpi extends SecureRandomSpi {
+        @Serial
+        private static final long serialVersionUID = -3346391553006244640L;
+        private final SecureRandom generator;
+
+        TimedRandomSpi(SecureRandom generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            this.generator.setSeed(seed);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes) {
+            long start = System.nanoTime();
+            this.generator.nextBytes(bytes);
+            recordDraw(System.nanoTime() - start, bytes.length);
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return this.generator.generateSeed(numBytes);
+        }
+    }
+}
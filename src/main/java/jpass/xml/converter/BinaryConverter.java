@@ -0,0 +1,582 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.xml.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+
+/**
+ * Compact binary encoding of {@link Entries}, an alternative to the XML document. It needs no
+ * escaping and no parsing, strings are stored as they are.
+ * <p>
+ * Layout of version 3, where varints are unsigned LEB128 numbers:
+ * <pre>
+ * magic "JPB" | version u8 | flags u8 | entry count varint | title block length varint | title block | entries
+ * title block: for each entry: byte length + 1 varint (0 for no title) | UTF-8 bytes
+ * entry: field mask u8 | for each bit set: byte length varint | UTF-8 bytes
+ * </pre>
+ * The titles come first, so they can be shown before the rest of the payload is read, see
+ * {@link #openProgressive(InputStream, SecretCodec)}. The bits of the mask are url, user,
+ * password and notes from bit 1; absent ({@code null}) fields have no bit set. Readers skip the
+ * fields of unknown bits, so fields can be added without a new version.
+ * <p>
+ * If flag 0 is set, the payload was written with a {@link SecretCodec}. The password and the
+ * notes of an entry are not stored as fields, but sealed together in the field of bit 5, and
+ * they stay sealed in memory after reading.
+ * <p>
+ * Versions 1 and 2 are read as well. They have no flags and no title block, the title is the
+ * field of bit 0, and version 2 has sealed secrets.
+ */
+public class BinaryConverter {
+    private static final byte[] MAGIC = {'J', 'P', 'B'};
+    private static final int PLAIN_VERSION = 1;
+    private static final int SEALED_VERSION = 2;
+    private static final int VERSION = 3;
+    private static final int SEALED_FLAG = 1;
+    private static final int FIELD_COUNT = 5;
+    private static final int SEALED_SECRETS_BIT = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_VARINT_LENGTH = 5;
+    private static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+
+    /**
+     * Gets the length of the header which identifies a binary payload and its kind.
+     *
+     * @return the length in bytes
+     */
+    public static int getHeaderLength() {
+        return MAGIC.length + 2;
+    }
+
+    /**
+     * Checks whether the data starts with the header of a binary payload.
+     *
+     * @param header the first bytes of the data
+     * @param length the number of bytes read
+     * @return {@code true} if it is a binary payload of any version
+     */
+    public static boolean isBinary(byte[] header, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the header is the one of a payload with sealed secrets.
+     *
+     * @param header the first bytes of the data
+     * @param length the number of bytes read
+     * @return {@code true} if it is a binary payload with sealed secrets
+     */
+    public static boolean isSealed(byte[] header, int length) {
+        if (!isBinary(header, length) || length <= MAGIC.length) {
+            return false;
+        }
+        int version = header[MAGIC.length];
+        return version == SEALED_VERSION || (version == VERSION && length > MAGIC.length + 1
+                && (header[MAGIC.length + 1] & SEALED_FLAG) != 0);
+    }
+
+    /**
+     * Marshals the given entries to the given output stream. Fields are encoded into a single
+     * buffer, without allocation per entry.
+     *
+     * @param document the entries
+     * @param outputStream the output stream
+     * @throws IOException if the stream cannot be written
+     */
+    public void marshal(Entries document, OutputStream outputStream) throws IOException {
+        marshal(document, outputStream, null);
+    }
+
+    /**
+     * Marshals the given entries to the given output stream, with sealed secrets if a codec is
+     * given. Entries which are already sealed by the key of the codec are written without
+     * decrypting them.
+     *
+     * @param document the entries
+     * @param outputStream the output stream
+     * @param codec the codec of the secret fields, or {@code null} to write them as they are
+     * @throws IOException if the stream cannot be written or the secrets cannot be sealed
+     */
+    public void marshal(Entries document, OutputStream outputStream, SecretCodec codec) throws IOException {
+        Encoder encoder = new Encoder(outputStream);
+        List<Entry> entries = document.getEntry();
+        encoder.writeBytes(MAGIC);
+        encoder.writeByte(VERSION);
+        encoder.writeByte(codec == null ? 0 : SEALED_FLAG);
+        encoder.writeVarint(entries.size());
+        long titleBlockLength = 0;
+        for (Entry entry : entries) {
+            titleBlockLength += Encoder.titleLength(entry.getTitle());
+        }
+        if (titleBlockLength > Integer.MAX_VALUE) {
+            throw new IOException("Too many entries");
+        }
+        encoder.writeVarint((int) titleBlockLength);
+        for (Entry entry : entries) {
+            encoder.writeTitle(entry.getTitle());
+        }
+        for (Entry entry : entries) {
+            int mask = mask(entry.getUrl(), 1) | mask(entry.getUser(), 2);
+            byte[] sealedSecrets = null;
+            if (codec == null) {
+                mask |= mask(entry.getPassword(), 3) | mask(entry.getNotes(), 4);
+            } else {
+                sealedSecrets = codec.getSealedSecrets(entry);
+                if (sealedSecrets == null && (entry.getPassword() != null || entry.getNotes() != null)) {
+                    sealedSecrets = codec.seal(entry.getPassword(), entry.getNotes());
+                }
+                mask |= sealedSecrets == null ? 0 : 1 << SEALED_SECRETS_BIT;
+            }
+            encoder.writeByte(mask);
+            encoder.writeString(entry.getUrl());
+            encoder.writeString(entry.getUser());
+            if (codec == null) {
+                encoder.writeString(entry.getPassword());
+                encoder.writeString(entry.getNotes());
+            } else if (sealedSecrets != null) {
+                encoder.writeVarint(sealedSecrets.length);
+                encoder.writeBytes(sealedSecrets);
+            }
+        }
+        encoder.flush();
+    }
+
+    /**
+     * Unmarshals the given input stream to entries.
+     *
+     * @param inputStream the input stream
+     * @return the entries
+     * @throws BinaryFormatException if the data is not a valid binary payload
+     * @throws IOException if the stream cannot be read
+     */
+    public Entries unmarshal(InputStream inputStream) throws IOException {
+        return unmarshal(ByteBuffer.wrap(inputStream.readAllBytes()), null);
+    }
+
+    /**
+     * Unmarshals the given input stream to entries, which may have sealed secrets.
+     *
+     * @param inputStream the input stream
+     * @param codec the codec of the secret fields, or {@code null} if the payload has no sealed secrets
+     * @return the entries
+     * @throws BinaryFormatException if the data is not a valid binary payload
+     * @throws IOException if the stream cannot be read
+     */
+    public Entries unmarshal(InputStream inputStream, SecretCodec codec) throws IOException {
+        return unmarshal(ByteBuffer.wrap(inputStream.readAllBytes()), codec);
+    }
+
+    /**
+     * Unmarshals a buffer to entries. Strings are decoded directly from the buffer.
+     *
+     * @param buffer the buffer from its position to its limit
+     * @return the entries
+     * @throws BinaryFormatException if the data is not a valid binary payload
+     */
+    public Entries unmarshal(ByteBuffer buffer) throws BinaryFormatException {
+        return unmarshal(buffer, null);
+    }
+
+    /**
+     * Unmarshals a buffer to entries. Strings are decoded directly from the buffer, sealed
+     * secrets are kept sealed.
+     *
+     * @param buffer the buffer from its position to its limit
+     * @param codec the codec of the secret fields, or {@code null} if the payload has no sealed secrets
+     * @return the entries
+     * @throws BinaryFormatException if the data is not a valid binary payload
+     */
+    public Entries unmarshal(ByteBuffer buffer, SecretCodec codec) throws BinaryFormatException {
+        try {
+            Header header = readHeader(buffer, codec);
+            int count = readVarint(buffer);
+            if (count > buffer.remaining()) {
+                throw new BinaryFormatException("Invalid entry count: " + count);
+            }
+            Entries document = new Entries();
+            List<Entry> entries = document.getEntry();
+            if (header.version() == VERSION) {
+                int titleBlockLength = readLength(buffer);
+                ByteBuffer titles = buffer.slice().limit(titleBlockLength);
+                buffer.position(buffer.position() + titleBlockLength);
+                readTitles(titles, count, header, codec, entries);
+                for (Entry entry : entries) {
+                    readFields(buffer, header, codec, entry);
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    Entry entry = newEntry(header, codec);
+                    readFields(buffer, header, codec, entry);
+                    entries.add(entry);
+                }
+            }
+            checkFinished(buffer);
+            return document;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new BinaryFormatException("Unexpected end of the payload");
+        }
+    }
+
+    /**
+     * Reads the titles of a payload, so they can be shown before the rest of the payload is
+     * read by {@link ProgressiveReader#readRemaining()}. Payloads without a title block are
+     * read at once.
+     *
+     * @param inputStream the input stream, which is read until its end
+     * @param codec the codec of the secret fields, or {@code null} if the payload has no sealed secrets
+     * @return the reader, whose entries have their titles
+     * @throws BinaryFormatException if the data is not a valid binary payload
+     * @throws IOException if the stream cannot be read
+     */
+    public ProgressiveReader openProgressive(InputStream inputStream, SecretCodec codec) throws IOException {
+        byte[] start = inputStream.readNBytes(MAGIC.length + 2);
+        if (start.length <= MAGIC.length || start[MAGIC.length] != VERSION) {
+            byte[] rest = inputStream.readAllBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(start.length + rest.length).put(start).put(rest).flip();
+            return new ProgressiveReader(unmarshal(buffer, codec));
+        }
+        try {
+            Header header = readHeader(ByteBuffer.wrap(start), codec);
+            int count = readVarint(inputStream);
+            int titleBlockLength = readVarint(inputStream);
+            byte[] titleBlock = inputStream.readNBytes(titleBlockLength);
+            if (titleBlock.length < titleBlockLength) {
+                throw new BinaryFormatException("Unexpected end of the payload");
+            }
+            Entries document = new Entries();
+            ByteBuffer titles = ByteBuffer.wrap(titleBlock);
+            readTitles(titles, count, header, codec, document.getEntry());
+            return new ProgressiveReader(document, header, codec, inputStream);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new BinaryFormatException("Unexpected end of the payload");
+        }
+    }
+
+    /**
+     * Reads the magic, the version and the flags of a payload.
+     */
+    private static Header readHeader(ByteBuffer buffer, SecretCodec codec) throws BinaryFormatException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!isBinary(magic, magic.length)) {
+            throw new BinaryFormatException("Not a binary payload");
+        }
+        int version = buffer.get();
+        boolean sealed;
+        if (version == VERSION) {
+            sealed = (buffer.get() & SEALED_FLAG) != 0;
+        } else if (version == PLAIN_VERSION || version == SEALED_VERSION) {
+            sealed = version == SEALED_VERSION;
+        } else {
+            throw new BinaryFormatException("Unsupported payload version: " + (version & 0xFF));
+        }
+        if (sealed && codec == null) {
+            throw new BinaryFormatException("The payload has sealed secrets, it can only be read from an encrypted file");
+        }
+        return new Header(version, sealed);
+    }
+
+    private static void readTitles(ByteBuffer buffer, int count, Header header, SecretCodec codec, List<Entry> entries)
+            throws BinaryFormatException {
+        if (count > buffer.remaining()) {
+            throw new BinaryFormatException("Invalid entry count: " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            Entry entry = newEntry(header, codec);
+            int length = readVarint(buffer);
+            if (length > 0) {
+                if (length - 1 > buffer.remaining()) {
+                    throw new BinaryFormatException("Unexpected end of the payload");
+                }
+                entry.setTitle(readString(buffer, length - 1));
+            }
+            entries.add(entry);
+        }
+        checkFinished(buffer);
+    }
+
+    private static Entry newEntry(Header header, SecretCodec codec) {
+        return header.sealed() ? codec.newEntry() : new Entry();
+    }
+
+    /**
+     * Reads the fields of an entry, except the title for version 3.
+     */
+    static void readFields(ByteBuffer buffer, Header header, SecretCodec codec, Entry entry) throws BinaryFormatException {
+        int mask = buffer.get() & 0xFF;
+        if (header.version() != VERSION && isSet(mask, 0)) {
+            entry.setTitle(readString(buffer, readLength(buffer)));
+        }
+        if (isSet(mask, 1)) {
+            entry.setUrl(readString(buffer, readLength(buffer)));
+        }
+        if (isSet(mask, 2)) {
+            entry.setUser(readString(buffer, readLength(buffer)));
+        }
+        if (isSet(mask, 3)) {
+            entry.setPassword(readString(buffer, readLength(buffer)));
+        }
+        if (isSet(mask, 4)) {
+            entry.setNotes(readString(buffer, readLength(buffer)));
+        }
+        for (int bit = header.version() == VERSION ? 0 : FIELD_COUNT; bit < Byte.SIZE; bit++) {
+            if (bit > 0 && bit < FIELD_COUNT || !isSet(mask, bit)) {
+                continue;
+            }
+            int length = readLength(buffer);
+            if (bit == SEALED_SECRETS_BIT && header.sealed()) {
+                byte[] sealedSecrets = new byte[length];
+                buffer.get(sealedSecrets);
+                codec.setSealedSecrets(entry, sealedSecrets);
+            } else {
+                buffer.position(buffer.position() + length);
+            }
+        }
+    }
+
+    static void checkFinished(ByteBuffer buffer) throws BinaryFormatException {
+        if (buffer.hasRemaining()) {
+            throw new BinaryFormatException("Unexpected data after the last entry");
+        }
+    }
+
+    private static boolean isSet(int mask, int bit) {
+        return (mask & (1 << bit)) != 0;
+    }
+
+    private static int mask(String value, int bit) {
+        return value == null ? 0 : 1 << bit;
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int readLength(ByteBuffer buffer) throws BinaryFormatException {
+        int length = readVarint(buffer);
+        if (length > buffer.remaining()) {
+            throw new BinaryFormatException("Unexpected end of the payload");
+        }
+        return length;
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws BinaryFormatException {
+        int value = 0;
+        for (int shift = 0; shift < MAX_VARINT_LENGTH * 7; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new BinaryFormatException("Invalid length in the payload");
+    }
+
+    private static int readVarint(InputStream inputStream) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < MAX_VARINT_LENGTH * 7; shift += 7) {
+            int b = inputStream.read();
+            if (b < 0) {
+                throw new BinaryFormatException("Unexpected end of the payload");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new BinaryFormatException("Invalid length in the payload");
+    }
+
+    /**
+     * Version of a payload and whether its secrets are sealed.
+     */
+    record Header(int version, boolean sealed) {
+    }
+
+    /**
+     * Encodes into a fixed buffer, which is written to the stream when it is full.
+     */
+    private static final class Encoder {
+        private final OutputStream outputStream;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+
+        Encoder(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        void writeByte(int value) throws IOException {
+            ensureCapacity(1);
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            ensureCapacity(bytes.length);
+            if (bytes.length > this.buffer.length) {
+                this.outputStream.write(bytes);
+                return;
+            }
+            System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+            this.position += bytes.length;
+        }
+
+        void writeVarint(int value) throws IOException {
+            ensureCapacity(MAX_VARINT_LENGTH);
+            while ((value & ~0x7F) != 0) {
+                this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.position++] = (byte) value;
+        }
+
+        /**
+         * Writes a string as length prefixed UTF-8. Unpaired surrogates are replaced by
+         * {@code '?'}, as {@link String#getBytes(java.nio.charset.Charset)} does.
+         */
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            writeVarint(utf8Length(value));
+            writeUtf8(value);
+        }
+
+        private void writeUtf8(String value) throws IOException {
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                ensureCapacity(MAX_UTF8_BYTES_PER_CHAR + 1);
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    this.buffer[this.position++] = (byte) c;
+                } else if (c < 0x800) {
+                    this.buffer[this.position++] = (byte) (0xC0 | (c >> 6));
+                    this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                        this.buffer[this.position++] = (byte) (0xF0 | (codePoint >> 18));
+                        this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        this.buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else {
+                        this.buffer[this.position++] = '?';
+                    }
+                } else {
+                    this.buffer[this.position++] = (byte) (0xE0 | (c >> 12));
+                    this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    this.buffer[this.position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        void writeTitle(String title) throws IOException {
+            if (title == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(utf8Length(title) + 1);
+            writeUtf8(title);
+        }
+
+        static int titleLength(String title) {
+            if (title == null) {
+                return 1;
+            }
+            int length = utf8Length(title) + 1;
+            int varintLength = 1;
+            for (int rest = length >>> 7; rest != 0; rest >>>= 7) {
+                varintLength++;
+            }
+            return varintLength + length - 1;
+        }
+
+        void flush() throws IOException {
+            this.outputStream.write(this.buffer, 0, this.position);
+            this.position = 0;
+            this.outputStream.flush();
+        }
+
+        private void ensureCapacity(int length) throws IOException {
+            if (this.position + length > this.buffer.length) {
+                this.outputStream.write(this.buffer, 0, this.position);
+                this.position = 0;
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = value.length();
+            int result = length;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x800) {
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        result += 2;
+                        i++;
+                    } else if (!Character.isSurrogate(c)) {
+                        result += 2;
+                    }
+                } else if (c >= 0x80) {
+                    result++;
+                }
+            }
+            return result;
+        }
+    }
+}
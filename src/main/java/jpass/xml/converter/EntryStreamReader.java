@@ -0,0 +1,126 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.xml.converter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+import jpass.xml.bind.Entry;
+
+/**
+ * Reads an entries document one {@link Entry} at a time with StAX, so entries can be processed
+ * while the document is being read. Unknown elements are skipped; DTDs and external entities
+ * are not supported.
+ */
+public final class EntryStreamReader implements AutoCloseable {
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+
+    private final XMLStreamReader reader;
+    private boolean finished = false;
+
+    /**
+     * Creates a reader and reads the root element.
+     *
+     * @param inputStream the input stream, which is not closed by this reader
+     * @throws XMLStreamException if the document is not an entries document
+     */
+    public EntryStreamReader(InputStream inputStream) throws XMLStreamException {
+        this.reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+        this.reader.nextTag();
+        if (!"entries".equals(this.reader.getLocalName())) {
+            throw new XMLStreamException("Unexpected element: " + this.reader.getLocalName(), this.reader.getLocation());
+        }
+    }
+
+    /**
+     * Reads the next entry.
+     *
+     * @return the entry, or {@code null} if there are no more entries
+     * @throws XMLStreamException if the document is malformed
+     */
+    public Entry next() throws XMLStreamException {
+        while (!this.finished) {
+            int event = this.reader.nextTag();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                this.finished = true;
+            } else if ("entry".equals(this.reader.getLocalName())) {
+                return readEntry();
+            } else {
+                skipElement();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        this.reader.close();
+    }
+
+    private Entry readEntry() throws XMLStreamException {
+        Entry entry = new Entry();
+        while (this.reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (this.reader.getLocalName()) {
+                case "title" -> entry.setTitle(this.reader.getElementText());
+                case "url" -> entry.setUrl(this.reader.getElementText());
+                case "user" -> entry.setUser(this.reader.getElementText());
+                case "password" -> entry.setPassword(this.reader.getElementText());
+                case "notes" -> entry.setNotes(this.reader.getElementText());
+                default -> skipElement();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Skips the current element with its content, leaving the reader on its end tag.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = this.reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
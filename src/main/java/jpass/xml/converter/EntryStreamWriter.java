@@ -0,0 +1,153 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.xml.converter;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import jpass.xml.bind.Entry;
+
+/**
+ * Writes an entries document one {@link Entry} at a time with StAX. The output is byte for
+ * byte the same as the output of {@link JAXBConverter}, both formatted and unformatted.
+ */
+public final class EntryStreamWriter implements AutoCloseable {
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String INDENT = "    ";
+
+    private final Writer output;
+    private final XMLStreamWriter writer;
+    private final boolean formattedOutput;
+    private boolean started = false;
+    private boolean closed = false;
+
+    /**
+     * Creates a writer and writes the XML declaration.
+     *
+     * @param outputStream the output stream, which is not closed by this writer
+     * @param formattedOutput formatting of the output XML
+     * @throws XMLStreamException if the writer cannot be created or the stream cannot be written
+     */
+    public EntryStreamWriter(OutputStream outputStream, boolean formattedOutput) throws XMLStreamException {
+        this.output = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            this.output.write(DECLARATION);
+            if (formattedOutput) {
+                this.output.write('\n');
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+        this.writer = OUTPUT_FACTORY.createXMLStreamWriter(this.output);
+        this.formattedOutput = formattedOutput;
+    }
+
+    /**
+     * Writes an entry.
+     *
+     * @param entry the entry
+     * @throws XMLStreamException if the entry cannot be written
+     */
+    public void write(Entry entry) throws XMLStreamException {
+        if (!this.started) {
+            this.writer.writeStartElement("entries");
+            this.started = true;
+        }
+        indent(1);
+        this.writer.writeStartElement("entry");
+        writeElement("title", entry.getTitle());
+        writeElement("url", entry.getUrl());
+        writeElement("user", entry.getUser());
+        writeElement("password", entry.getPassword());
+        writeElement("notes", entry.getNotes());
+        indent(1);
+        this.writer.writeEndElement();
+    }
+
+    /**
+     * Finishes the document and flushes it to the output stream.
+     *
+     * @throws XMLStreamException if the document cannot be written
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.started) {
+            indent(0);
+            this.writer.writeEndElement();
+        } else {
+            this.writer.writeEmptyElement("entries");
+        }
+        this.writer.writeEndDocument();
+        if (this.formattedOutput) {
+            this.writer.writeCharacters("\n");
+        }
+        this.writer.close();
+        try {
+            this.output.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    private void writeElement(String name, String value) throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        indent(2);
+        this.writer.writeStartElement(name);
+        // carriage returns would be normalized by parsers, so they are escaped like JAXB does
+        int start = 0;
+        for (int i = value.indexOf('\r'); i >= 0; i = value.indexOf('\r', start)) {
+            this.writer.writeCharacters(value.substring(start, i));
+            this.writer.writeEntityRef("#13");
+            start = i + 1;
+        }
+        this.writer.writeCharacters(start == 0 ? value : value.substring(start));
+        this.writer.writeEndElement();
+    }
+
+    private void indent(int level) throws XMLStreamException {
+        if (this.formattedOutput) {
+            this.writer.writeCharacters("\n" + INDENT.repeat(level));
+        }
+    }
+}
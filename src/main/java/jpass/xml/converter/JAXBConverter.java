@@ -34,22 +34,52 @@ import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Class for conversion between JAXB objects and streams representing XMLs.
+ * <p>
+ * The JAXB context is built once, on first use or by {@link #warmUp()}. Marshallers and
+ * unmarshallers are not thread-safe, so each call borrows one from a pool and returns it
+ * afterwards; at most {@value #MAX_POOLED} of each are kept.
  *
  * @author Gabor_Bata
  *
  * @param <T> the type of object to marshal/unmarshal
  */
-@SuppressWarnings("ClassCanBeRecord")
 public class JAXBConverter<T> {
+    private static final Logger LOG = Logger.getLogger(JAXBConverter.class.getName());
+    private static final int MAX_POOLED = 4;
+
     private final Class<T> documentClass;
+    private final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+    private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+    private volatile JAXBContext context;
 
     public JAXBConverter(Class<T> documentClass) {
         this.documentClass = documentClass;
     }
 
+    /**
+     * Builds the JAXB context on a background thread, so the first open or save does not have
+     * to wait for it.
+     */
+    public void warmUp() {
+        Thread thread = new Thread(() -> {
+            try {
+                release(this.marshallers, borrowMarshaller());
+                release(this.unmarshallers, borrowUnmarshaller());
+            } catch (JAXBException e) {
+                LOG.log(Level.WARNING, "Could not create JAXB context", e);
+            }
+        }, "JPass-jaxb-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * Marshals the given object to the given output stream.
      *
@@ -59,11 +89,10 @@ public class JAXBConverter<T> {
      * @throws JAXBException if any error occurred
      */
     public void marshal(T document, OutputStream outputStream, boolean formattedOutput) throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(this.documentClass);
-        Marshaller m = jc.createMarshaller();
+        Marshaller m = borrowMarshaller();
         m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput);
-        m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
         m.marshal(document, outputStream);
+        release(this.marshallers, m);
     }
 
     /**
@@ -75,8 +104,55 @@ public class JAXBConverter<T> {
      */
     @SuppressWarnings("unchecked")
     public T unmarshal(InputStream inputStream) throws JAXBException {
-        JAXBContext jc = JAXBContext.newInstance(this.documentClass);
-        Unmarshaller u = jc.createUnmarshaller();
-        return (T) u.unmarshal(inputStream);
+        Unmarshaller u = borrowUnmarshaller();
+        T result = (T) u.unmarshal(inputStream);
+        release(this.unmarshallers, u);
+        return result;
+    }
+
+    int getPooledMarshallers() {
+        return this.marshallers.size();
+    }
+
+    int getPooledUnmarshallers() {
+        return this.unmarshallers.size();
+    }
+
+    private JAXBContext getContext() throws JAXBException {
+        JAXBContext result = this.context;
+        if (result == null) {
+            synchronized (this) {
+                result = this.context;
+                if (result == null) {
+                    result = JAXBContext.newInstance(this.documentClass);
+                    this.context = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Marshaller borrowMarshaller() throws JAXBException {
+        Marshaller m = this.marshallers.poll();
+        if (m == null) {
+            m = getContext().createMarshaller();
+            m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+        }
+        return m;
+    }
+
+    private Unmarshaller borrowUnmarshaller() throws JAXBException {
+        Unmarshaller u = this.unmarshallers.poll();
+        return u == null ? getContext().createUnmarshaller() : u;
+    }
+
+    /**
+     * Returns an instance to its pool. Instances are only returned after successful use, so a
+     * failure never leaves one in an inconsistent state in the pool.
+     */
+    private static <E> void release(Queue<E> pool, E instance) {
+        if (pool.size() < MAX_POOLED) {
+            pool.offer(instance);
+        }
     }
 }
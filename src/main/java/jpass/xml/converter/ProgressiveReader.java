@@ -0,0 +1,175 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.xml.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+
+/**
+ * Reads a binary payload in two steps: the titles first, when the reader is created by
+ * {@link BinaryConverter#openProgressive(InputStream, SecretCodec)}, and the other fields of the
+ * entries by {@link #readRemaining()}, usually on a background thread. Other threads can wait
+ * for a single entry or for all of them.
+ */
+public final class ProgressiveReader {
+    private static final int PUBLISH_INTERVAL = 1024;
+
+    private final Entries document;
+    private final Entry[] entries;
+    private final BinaryConverter.Header header;
+    private final SecretCodec codec;
+    private final InputStream inputStream;
+    private int loaded;
+    private IOException failure;
+
+    /**
+     * Creates a reader of a payload which has already been read completely.
+     */
+    ProgressiveReader(Entries document) {
+        this(document, null, null, null);
+    }
+
+    ProgressiveReader(Entries document, BinaryConverter.Header header, SecretCodec codec, InputStream inputStream) {
+        this.document = document;
+        List<Entry> list = document.getEntry();
+        this.entries = list.toArray(new Entry[0]);
+        this.header = header;
+        this.codec = codec;
+        this.inputStream = inputStream;
+        this.loaded = inputStream == null ? this.entries.length : 0;
+    }
+
+    /**
+     * Gets the entries. Until they are loaded, only their titles are set.
+     *
+     * @return the entries
+     */
+    public Entries getEntries() {
+        return this.document;
+    }
+
+    /**
+     * Checks whether all entries are loaded.
+     *
+     * @return {@code true} if all entries are loaded
+     */
+    public synchronized boolean isLoaded() {
+        return this.loaded == this.entries.length;
+    }
+
+    /**
+     * Reads the remaining fields of the entries until the end of the stream. Waiting threads are
+     * notified as the entries are loaded.
+     *
+     * @throws BinaryFormatException if the data is not a valid binary payload
+     * @throws IOException if the stream cannot be read
+     */
+    public void readRemaining() throws IOException {
+        if (isLoaded()) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(this.inputStream.readAllBytes());
+            for (int i = 0; i < this.entries.length; i++) {
+                BinaryConverter.readFields(buffer, this.header, this.codec, this.entries[i]);
+                if ((i + 1) % PUBLISH_INTERVAL == 0) {
+                    publish(i + 1);
+                }
+            }
+            BinaryConverter.checkFinished(buffer);
+            publish(this.entries.length);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw fail(new BinaryFormatException("Unexpected end of the payload"));
+        } catch (IOException e) {
+            throw fail(e);
+        } catch (RuntimeException e) {
+            throw fail(new IOException(e));
+        }
+    }
+
+    /**
+     * Waits until an entry is loaded. Entries which are not part of the payload are not waited
+     * for.
+     *
+     * @param entry the entry
+     * @return {@code true} if the entry is loaded, {@code false} if reading the payload failed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public synchronized boolean awaitEntry(Entry entry) throws InterruptedException {
+        int index = indexOf(entry);
+        while (this.loaded <= index && this.failure == null) {
+            wait();
+        }
+        return this.loaded > index;
+    }
+
+    /**
+     * Waits until all entries are loaded.
+     *
+     * @throws IOException if reading the payload failed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public synchronized void awaitAll() throws IOException, InterruptedException {
+        while (!isLoaded() && this.failure == null) {
+            wait();
+        }
+        if (!isLoaded()) {
+            throw this.failure;
+        }
+    }
+
+    private int indexOf(Entry entry) {
+        if (isLoaded()) {
+            return -1;
+        }
+        for (int i = this.loaded; i < this.entries.length; i++) {
+            if (this.entries[i] == entry) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized void publish(int count) {
+        this.loaded = count;
+        notifyAll();
+    }
+
+    private synchronized IOException fail(IOException e) {
+        this.failure = e;
+        notifyAll();
+        return e;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.xml.converter;
+
+import java.io.IOException;
+
+import jpass.xml.bind.Entry;
+
+/**
+ * Keeps the secret fields of entries, the password and the notes, sealed in the binary payload
+ * and in memory, see {@link BinaryConverter#marshal(jpass.xml.bind.Entries, java.io.OutputStream, SecretCodec)}.
+ */
+public interface SecretCodec {
+
+    /**
+     * Gets the sealed secrets of an entry if they can be written as they are.
+     *
+     * @param entry the entry
+     * @return the sealed secrets, or {@code null} if the entry is not sealed by the key of this codec
+     */
+    byte[] getSealedSecrets(Entry entry);
+
+    /**
+     * Seals secret fields.
+     *
+     * @param password the password, can be {@code null}
+     * @param notes the notes, can be {@code null}
+     * @return the sealed secrets
+     * @throws IOException if the secrets cannot be sealed
+     */
+    byte[] seal(String password, String notes) throws IOException;
+
+    /**
+     * Creates an empty entry, which can hold sealed secrets.
+     *
+     * @return the entry
+     */
+    Entry newEntry();
+
+    /**
+     * Sets the sealed secrets of an entry created by {@link #newEntry()}. They are decrypted only
+     * when they are read.
+     *
+     * @param entry the entry
+     * @param sealedSecrets the sealed secrets
+     */
+    void setSealedSecrets(Entry entry, byte[] sealedSecrets);
+}
@@ -0,0 +1,77 @@
+/*
+ * JPass
+ *
+ * Copyright (c) 2009-2017 Gabor Bata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package jpass.xml.converter;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+
+/**
+ * Conversion between {@link Entries} and streams representing XMLs with StAX. It produces the
+ * same documents as {@link JAXBConverter}, without the cost of building a JAXB context and
+ * without reflection, see {@link EntryStreamWriter} and {@link EntryStreamReader}.
+ */
+public class StAXConverter {
+
+    /**
+     * Marshals the given entries to the given output stream.
+     *
+     * @param document the entries
+     * @param outputStream the output stream
+     * @param formattedOutput formatting of the output XML
+     * @throws XMLStreamException if any error occurred
+     */
+    public void marshal(Entries document, OutputStream outputStream, boolean formattedOutput) throws XMLStreamException {
+        try (EntryStreamWriter writer = new EntryStreamWriter(outputStream, formattedOutput)) {
+            for (Entry entry : document.getEntry()) {
+                writer.write(entry);
+            }
+        }
+    }
+
+    /**
+     * Unmarshals the given input stream to entries.
+     *
+     * @param inputStream the input stream
+     * @return the entries
+     * @throws XMLStreamException if any error occurred
+     */
+    public Entries unmarshal(InputStream inputStream) throws XMLStreamException {
+        Entries document = new Entries();
+        try (EntryStreamReader reader = new EntryStreamReader(inputStream)) {
+            for (Entry entry = reader.next(); entry != null; entry = reader.next()) {
+                document.getEntry().add(entry);
+            }
+        }
+        return document;
+    }
+}
@@ -0,0 +1,87 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Compares compression ratio and throughput of the codecs on a tiny and a large document. Run
+ * with {@code JPASS_BENCHMARK=true gradle test --tests '*Benchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class CompressionCodecBenchmark {
+    private static final int ROUNDS = 5;
+
+    @Test
+    void ratioAndThroughput() throws IOException {
+        for (int entries : new int[] {5, 100_000}) {
+            byte[] document = document(entries);
+            System.out.printf("%d entries, %d bytes%n", entries, document.length);
+            System.out.printf("%-16s %6s %10s %14s %14s%n", "codec", "level", "ratio", "compress MB/s", "expand MB/s");
+            for (CompressionCodec codec : CompressionCodec.values()) {
+                int[] levels = codec == CompressionCodec.DEFLATE || codec == CompressionCodec.DEFLATE_DICTIONARY
+                        ? new int[] {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}
+                        : new int[] {Deflater.DEFAULT_COMPRESSION};
+                for (int level : levels) {
+                    measure(codec, level, document);
+                }
+            }
+        }
+    }
+
+    private static void measure(CompressionCodec codec, int level, byte[] document) throws IOException {
+        int repeat = Math.max(1, 10_000_000 / document.length);
+        long compressNanos = Long.MAX_VALUE;
+        long expandNanos = Long.MAX_VALUE;
+        byte[] compressed = null;
+        byte[] buffer = new byte[8192];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < repeat; i++) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                try (OutputStream out = codec.compress(output, level)) {
+                    out.write(document);
+                }
+                compressed = output.toByteArray();
+            }
+            compressNanos = Math.min(compressNanos, (System.nanoTime() - start) / repeat);
+            start = System.nanoTime();
+            for (int i = 0; i < repeat; i++) {
+                try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+                    while (in.read(buffer) >= 0) {
+                        // consume
+                    }
+                }
+            }
+            expandNanos = Math.min(expandNanos, (System.nanoTime() - start) / repeat);
+        }
+        System.out.printf("%-16s %6d %10.3f %14.1f %14.1f%n", codec.getName(), level,
+                (double) compressed.length / document.length,
+                megabytesPerSecond(document.length, compressNanos), megabytesPerSecond(document.length, expandNanos));
+    }
+
+    private static double megabytesPerSecond(int length, long nanos) {
+        return length / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+
+    private static byte[] document(int entries) {
+        Random random = new Random(entries);
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><entries>");
+        for (int i = 0; i < entries; i++) {
+            builder.append("<entry><title>Account ").append(i).append("</title>")
+                    .append("<url>https://site").append(random.nextInt(1000)).append(".example.com/login</url>")
+                    .append("<user>user").append(random.nextInt(100_000)).append("@example.com</user>")
+                    .append("<password>").append(Long.toString(random.nextLong(), 36)).append("</password>")
+                    .append("<notes>Created for project ").append(random.nextInt(50)).append("</notes></entry>");
+        }
+        return builder.append("</entries>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressionCodecTest {
+    private static final byte[] DOCUMENT = ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><entries>"
+            + "<entry><title>Mail</title><url>https://mail.example.com/</url><user>john</user>"
+            + "<password>secret</password><notes>none</notes></entry></entries>").getBytes(StandardCharsets.UTF_8);
+
+    @ParameterizedTest
+    @EnumSource(CompressionCodec.class)
+    void roundTrip(CompressionCodec codec) throws IOException {
+        byte[] compressed = compress(codec, DOCUMENT);
+        try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(DOCUMENT, in.readAllBytes());
+        }
+        assertEquals(codec, CompressionCodec.forId(codec.getId()));
+        assertEquals(codec, CompressionCodec.forName(codec.getName()));
+    }
+
+    @Test
+    void dictionaryHelpsSmallDocuments() throws IOException {
+        int plain = compress(CompressionCodec.DEFLATE, DOCUMENT).length;
+        int dictionary = compress(CompressionCodec.DEFLATE_DICTIONARY, DOCUMENT).length;
+        assertTrue(dictionary < plain, dictionary + " < " + plain);
+    }
+
+    private static byte[] compress(CompressionCodec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(output, Deflater.DEFAULT_COMPRESSION)) {
+            out.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    void unknownCodecFallsBackToDefault() {
+        String configured = System.getProperty("compression.codec");
+        try {
+            System.setProperty("compression.codec", "brotli");
+            assertEquals(CompressionCodec.DEFLATE_DICTIONARY, CompressionCodec.forNewFiles());
+            System.setProperty("compression.codec", "none");
+            assertEquals(CompressionCodec.NONE, CompressionCodec.forNewFiles());
+        } finally {
+            if (configured == null) {
+                System.clearProperty("compression.codec");
+            } else {
+                System.setProperty("compression.codec", configured);
+            }
+        }
+    }
+}
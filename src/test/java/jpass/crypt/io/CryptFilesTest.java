@@ -0,0 +1,125 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CryptFilesTest {
+
+    @Test
+    void changePasswordKeepsPayload() throws IOException, GeneralSecurityException {
+        byte[] data = new byte[200_000];
+        new Random(1).nextBytes(data);
+        Path file = Files.createTempFile("unit-test-", ".jpass");
+        Path copy = Files.createTempFile("unit-test-", ".jpass");
+        try {
+            SessionKey sessionKey = SessionKey.derive("old".toCharArray());
+            try (OutputStream crypt = new CryptOutputStream(Files.newOutputStream(file), sessionKey)) {
+                crypt.write(data);
+            }
+            byte[] before = Files.readAllBytes(file);
+            try (SessionKey replacement = sessionKey.withPassword("new".toCharArray())) {
+                CryptFiles.copyWithKeys(file, copy, sessionKey, replacement);
+                assertTrue(replacement.isWrapped());
+                byte[] after = Files.readAllBytes(copy);
+                assertArrayEquals(Arrays.copyOfRange(before, before.length - 1000, before.length),
+                        Arrays.copyOfRange(after, after.length - 1000, after.length));
+                try (CryptInputStream crypt = CryptInputStream.open(copy, "new".toCharArray())) {
+                    assertArrayEquals(data, crypt.readAllBytes());
+                }
+                assertThrows(InvalidPasswordException.class, () -> CryptInputStream.open(copy, "old".toCharArray()).close());
+                assertThrows(IOException.class, () -> CryptFiles.copyWithKeys(copy, file, sessionKey, replacement));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    @Test
+    void addAndRevokeKeySlots() throws IOException, GeneralSecurityException {
+        byte[] data = new byte[50_000];
+        new Random(2).nextBytes(data);
+        Path file = Files.createTempFile("unit-test-", ".jpass");
+        Path keyFile = Files.createTempFile("unit-test-", ".key");
+        try {
+            Files.write(keyFile, new byte[] {1, 2, 3});
+            char[] keyFilePassword = CryptFiles.readKeyFile(keyFile);
+            assertEquals("039058c6f2c0cb492c533b0a4d14ef77cc0f78abccced5287d84a1a2011cfb81", new String(keyFilePassword));
+            SessionKey sessionKey = SessionKey.derive("first".toCharArray());
+            try (OutputStream crypt = new CryptOutputStream(Files.newOutputStream(file), sessionKey)) {
+                crypt.write(data);
+            }
+            SessionKey twoSlots = sessionKey.withAddedSlot(keyFilePassword);
+            rewriteKeys(file, sessionKey, twoSlots);
+            try (CryptInputStream crypt = CryptInputStream.open(file, keyFilePassword)) {
+                assertEquals(1, crypt.getSessionKey().getSlot());
+                assertArrayEquals(data, crypt.readAllBytes());
+            }
+            try (CryptInputStream crypt = CryptInputStream.open(file, "first".toCharArray())) {
+                assertEquals(2, crypt.getSessionKey().getSlotCount());
+                assertArrayEquals(data, crypt.readAllBytes());
+            }
+            assertThrows(InvalidPasswordException.class, () -> CryptInputStream.open(file, "other".toCharArray()).close());
+            assertThrows(IllegalArgumentException.class, () -> twoSlots.withoutSlot(0));
+            SessionKey oneSlot = twoSlots.withoutSlot(twoSlots.findSlot(keyFilePassword));
+            rewriteKeys(file, twoSlots, oneSlot);
+            assertThrows(InvalidPasswordException.class, () -> CryptInputStream.open(file, keyFilePassword).close());
+            try (CryptInputStream crypt = CryptInputStream.open(file, "first".toCharArray())) {
+                assertArrayEquals(data, crypt.readAllBytes());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(keyFile);
+        }
+    }
+
+    @Test
+    void limitKeySlots() throws IOException, GeneralSecurityException {
+        String configured = System.getProperty("kdf.iterations");
+        Path file = Files.createTempFile("unit-test-", ".jpass");
+        try {
+            System.setProperty("kdf.iterations", "1000");
+            SessionKey sessionKey = SessionKey.derive("first".toCharArray());
+            try (OutputStream crypt = new CryptOutputStream(Files.newOutputStream(file), sessionKey)) {
+                crypt.write(new byte[] {1, 2, 3});
+            }
+            SessionKey fullKey = sessionKey;
+            while (fullKey.getSlotCount() < SessionKey.MAX_SLOT_COUNT) {
+                fullKey = fullKey.withAddedSlot(("slot" + fullKey.getSlotCount()).toCharArray());
+            }
+            SessionKey full = fullKey;
+            assertThrows(IllegalStateException.class, () -> full.withAddedSlot("other".toCharArray()));
+            rewriteKeys(file, sessionKey, full);
+            try (CryptInputStream crypt = CryptInputStream.open(file, ("slot" + (SessionKey.MAX_SLOT_COUNT - 1)).toCharArray())) {
+                assertEquals(SessionKey.MAX_SLOT_COUNT, crypt.getSessionKey().getSlotCount());
+                assertArrayEquals(new byte[] {1, 2, 3}, crypt.readAllBytes());
+            }
+        } finally {
+            if (configured == null) {
+                System.clearProperty("kdf.iterations");
+            } else {
+                System.setProperty("kdf.iterations", configured);
+            }
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void rewriteKeys(Path file, SessionKey sessionKey, SessionKey replacement) throws IOException {
+        Path copy = Files.createTempFile("unit-test-", ".jpass");
+        CryptFiles.copyWithKeys(file, copy, sessionKey, replacement);
+        Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
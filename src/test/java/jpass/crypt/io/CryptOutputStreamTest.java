@@ -12,9 +12,17 @@ import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class CryptOutputStreamTest {
 
@@ -47,4 +55,123 @@ class CryptOutputStreamTest {
         var actual = buf2.toString();
         assertEquals(inputString, actual);
     }
-}
\ No newline at end of file
+
+    @Test
+    void writeWithSessionKey() throws IOException, GeneralSecurityException {
+        char[] passwd = "k3yr1ng".toCharArray();
+        byte[] data = "session key reuse".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        try (SessionKey sessionKey = SessionKey.derive(passwd)) {
+            try (OutputStream crypt = new CryptOutputStream(first, sessionKey)) {
+                crypt.write(data);
+            }
+            try (OutputStream crypt = new CryptOutputStream(second, sessionKey)) {
+                crypt.write(data);
+            }
+            assertFalse(sessionKey.isClosed());
+        }
+        assertFalse(Arrays.equals(first.toByteArray(), second.toByteArray()));
+        for (ByteArrayOutputStream output : new ByteArrayOutputStream[] {first, second}) {
+            try (CryptInputStream crypt = new CryptInputStream(new ByteArrayInputStream(output.toByteArray()), passwd)) {
+                assertArrayEquals(data, crypt.readAllBytes());
+                SessionKey sessionKey = crypt.getSessionKey();
+                sessionKey.close();
+                assertTrue(sessionKey.isClosed());
+                assertThrows(IllegalStateException.class, sessionKey::getSecretKey);
+            }
+        }
+    }
+
+    @Test
+    void openMappedFile() throws IOException, GeneralSecurityException {
+        char[] passwd = "m4pped".toCharArray();
+        byte[] data = new byte[300_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ("<entry><title>" + i % 97 + "</title></entry>").charAt(i % 20);
+        }
+        Path file = Files.createTempFile("unit-test-", ".jpass");
+        try {
+            try (OutputStream crypt = new CryptOutputStream(Files.newOutputStream(file), passwd)) {
+                crypt.write(data);
+            }
+            UnlockTimings timings;
+            try (CryptInputStream crypt = CryptInputStream.open(file, passwd)) {
+                assertArrayEquals(data, crypt.readAllBytes());
+                timings = crypt.getUnlockTimings();
+            }
+            assertTrue(timings.getKeyDerivationNanos() > 0);
+            assertTrue(timings.getUnlockNanos() >= timings.getReadNanos());
+            assertTrue(timings.getDecryptNanos() > 0);
+            byte[] tampered = Files.readAllBytes(file);
+            tampered[tampered.length - 100] ^= 1;
+            Files.write(file, tampered);
+            assertThrows(IOException.class, () -> {
+                try (CryptInputStream crypt = CryptInputStream.open(file, passwd)) {
+                    crypt.readAllBytes();
+                }
+            });
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void rejectWrongPasswordBeforePayload() throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream crypt = new CryptOutputStream(encrypted, "right".toCharArray())) {
+            crypt.write(new byte[100_000]);
+        }
+        byte[] header = Arrays.copyOf(encrypted.toByteArray(), 256);
+        assertThrows(InvalidPasswordException.class,
+                () -> new CryptInputStream(new ByteArrayInputStream(header), "wrong".toCharArray()));
+    }
+
+    @Test
+    void writeWithEachCipher() throws IOException, GeneralSecurityException {
+        byte[] data = "<entries><entry><title>cipher</title></entry></entries>".repeat(5000).getBytes(StandardCharsets.UTF_8);
+        String configured = System.getProperty("crypt.cipher");
+        try {
+            for (AeadAlgorithm cipher : AeadAlgorithm.values()) {
+                System.setProperty("crypt.cipher", cipher.getName());
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                try (OutputStream crypt = new CryptOutputStream(encrypted, "pass".toCharArray())) {
+                    crypt.write(data);
+                }
+                FileHeader header = FileHeader.read(new ByteArrayInputStream(encrypted.toByteArray()));
+                assertEquals(cipher, header.getCipher());
+                try (InputStream crypt = new CryptInputStream(new ByteArrayInputStream(encrypted.toByteArray()), "pass".toCharArray())) {
+                    assertArrayEquals(data, crypt.readAllBytes());
+                }
+                Path file = Files.write(Files.createTempFile("unit-test-", ".jpass"), encrypted.toByteArray());
+                try (InputStream crypt = CryptInputStream.open(file, "pass".toCharArray())) {
+                    assertArrayEquals(data, crypt.readAllBytes());
+                } finally {
+                    Files.delete(file);
+                }
+            }
+        } finally {
+            if (configured == null) {
+                System.clearProperty("crypt.cipher");
+            } else {
+                System.setProperty("crypt.cipher", configured);
+            }
+        }
+        assertNotNull(AeadAlgorithm.getFastest());
+    }
+
+    @Test
+    void unknownCipherFallsBackToAuto() {
+        String configured = System.getProperty("crypt.cipher");
+        try {
+            System.setProperty("crypt.cipher", "rot13");
+            assertEquals(AeadAlgorithm.getFastest(), AeadAlgorithm.forNewFiles());
+        } finally {
+            if (configured == null) {
+                System.clearProperty("crypt.cipher");
+            } else {
+                System.setProperty("crypt.cipher", configured);
+            }
+        }
+    }
+}
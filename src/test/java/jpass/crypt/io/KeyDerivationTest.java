@@ -0,0 +1,83 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyDerivationTest {
+
+    @Test
+    void scryptTestVector() throws GeneralSecurityException {
+        // RFC 7914, section 12
+        byte[] expected = HexFormat.of().parseHex("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640");
+        byte[] actual = ScryptKeyDerivation.scrypt("password".getBytes(StandardCharsets.US_ASCII),
+                "NaCl".getBytes(StandardCharsets.US_ASCII), 1024, 8, 16, 64);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void rejectOversizedScryptParameters() throws GeneralSecurityException {
+        KeyDerivation scrypt = KeyDerivations.forId(ScryptKeyDerivation.ID);
+        char[] passwd = "scrypt".toCharArray();
+        assertThrows(InvalidKeyException.class,
+                () -> scrypt.deriveKey(passwd, new KdfParameters(ScryptKeyDerivation.ID, 1, 1 << 30, 1, new byte[16]), 32));
+        assertThrows(InvalidKeyException.class,
+                () -> scrypt.deriveKey(passwd, new KdfParameters(ScryptKeyDerivation.ID, 1, 1 << 21, 1, new byte[16]), 32));
+        assertThrows(InvalidKeyException.class,
+                () -> scrypt.deriveKey(passwd, new KdfParameters(ScryptKeyDerivation.ID, 1, 1024, 1 << 20, new byte[16]), 32));
+        assertThrows(InvalidKeyException.class,
+                () -> ScryptKeyDerivation.scrypt(new byte[0], new byte[16], 1 << 20, 1 << 20, 1, 32));
+    }
+
+    @Test
+    void rejectOversizedPbkdf2Parameters() throws GeneralSecurityException {
+        KeyDerivation pbkdf2 = KeyDerivations.forId(Pbkdf2KeyDerivation.ID);
+        char[] passwd = "pbkdf2".toCharArray();
+        assertThrows(InvalidKeyException.class,
+                () -> pbkdf2.deriveKey(passwd, new KdfParameters(Pbkdf2KeyDerivation.ID, Integer.MAX_VALUE, 0, 1, new byte[16]), 32));
+        assertThrows(InvalidKeyException.class,
+                () -> pbkdf2.deriveKey(passwd, new KdfParameters(Pbkdf2KeyDerivation.ID, (1 << 24) + 1, 0, 1, new byte[16]), 32));
+        assertThrows(InvalidKeyException.class,
+                () -> pbkdf2.deriveKey(passwd, new KdfParameters(Pbkdf2KeyDerivation.ID, 0, 0, 1, new byte[16]), 32));
+        KdfParameters scaled = pbkdf2.scale(pbkdf2.getDefaultParameters(new byte[16]), 1e6);
+        assertEquals(1 << 24, scaled.getIterations());
+    }
+
+    @Test
+    void parametersAreStoredInHeader() throws IOException, GeneralSecurityException {
+        char[] passwd = "scrypt".toCharArray();
+        KdfParameters parameters = new KdfParameters(ScryptKeyDerivation.ID, 1, 1024, 2, new byte[16]);
+        byte[] data = "memory hard".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream crypt = new CryptOutputStream(output, SessionKey.derive(passwd, parameters))) {
+            crypt.write(data);
+        }
+        try (CryptInputStream crypt = new CryptInputStream(new ByteArrayInputStream(output.toByteArray()), passwd)) {
+            assertArrayEquals(data, crypt.readAllBytes());
+            KdfParameters actual = crypt.getSessionKey().getKdfParameters();
+            assertEquals(ScryptKeyDerivation.ID, actual.getAlgorithm());
+            assertEquals(1024, actual.getMemoryCost());
+            assertEquals(2, actual.getParallelism());
+        }
+    }
+
+    @Test
+    void calibrate() throws GeneralSecurityException {
+        KdfParameters parameters = KdfCalibration.calibrate(KeyDerivations.forName("PBKDF2WithHmacSHA256"), 20);
+        assertEquals(Pbkdf2KeyDerivation.ID, parameters.getAlgorithm());
+        assertTrue(parameters.getIterations() >= 10000);
+    }
+}
@@ -0,0 +1,76 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+/**
+ * Compares latency and heap allocation of reading a large file through the stream pipeline and
+ * through the memory-mapped pipeline. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*Benchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class MappedReadBenchmark {
+    private static final int ROUNDS = 5;
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+    @Test
+    void readLargeFile() throws IOException, GeneralSecurityException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int megabytes : new int[] {10, 50}) {
+            Path file = Files.createTempFile("benchmark-", ".jpass");
+            try {
+                KdfParameters cheap = new KdfParameters(Pbkdf2KeyDerivation.ID, 1000, 0, 1, new byte[16]);
+                try (OutputStream out = new CryptOutputStream(Files.newOutputStream(file), SessionKey.derive(PASSWORD, cheap), 1)) {
+                    writeDocument(out, megabytes * 1024 * 1024);
+                }
+                System.out.printf("%d MB of XML, %d bytes on disk%n", megabytes, Files.size(file));
+                System.out.printf("%-8s %10s %14s%n", "path", "ms", "allocated MB");
+                for (boolean mapped : new boolean[] {false, true}) {
+                    long bestNanos = Long.MAX_VALUE;
+                    long bestBytes = Long.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        long allocated = threads.getCurrentThreadAllocatedBytes();
+                        long start = System.nanoTime();
+                        try (InputStream in = mapped ? CryptInputStream.open(file, PASSWORD)
+                                : new CryptInputStream(new FileInputStream(file.toFile()), PASSWORD, 1)) {
+                            byte[] buffer = new byte[8192];
+                            while (in.read(buffer) >= 0) {
+                                // consume
+                            }
+                        }
+                        bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                        bestBytes = Math.min(bestBytes, threads.getCurrentThreadAllocatedBytes() - allocated);
+                    }
+                    System.out.printf("%-8s %10.1f %14.2f%n", mapped ? "mapped" : "stream",
+                            bestNanos / 1_000_000.0, bestBytes / (1024.0 * 1024.0));
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void writeDocument(OutputStream out, int size) throws IOException {
+        Random random = new Random(size);
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><entries>".getBytes(StandardCharsets.UTF_8));
+        for (int written = 0, i = 0; written < size; i++) {
+            byte[] entry = ("<entry><title>Account " + i + "</title><url>https://site" + random.nextInt(1000)
+                    + ".example.com/</url><user>user" + random.nextInt(100_000) + "</user><password>"
+                    + Long.toString(random.nextLong(), 36) + "</password></entry>").getBytes(StandardCharsets.UTF_8);
+            out.write(entry);
+            written += entry.length;
+        }
+        out.write("</entries>".getBytes(StandardCharsets.UTF_8));
+    }
+}
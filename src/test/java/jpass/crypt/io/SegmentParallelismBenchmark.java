@@ -0,0 +1,64 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Measures the throughput of sealing and opening a segmented payload with an increasing number
+ * of threads. Run with {@code JPASS_BENCHMARK=true gradle test --tests '*Benchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class SegmentParallelismBenchmark {
+    private static final int PAYLOAD_SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void throughput() throws IOException, GeneralSecurityException {
+        byte[] data = new byte[PAYLOAD_SIZE];
+        new Random(1).nextBytes(data);
+        SegmentCipher cipher = new SegmentCipher(new SecretKeySpec(new byte[32], CipherSpecifications.KEY_ALGORITHM),
+                new byte[CipherSpecifications.IV_LENGTH_BYTES], new byte[0]);
+        System.out.printf("%-12s %14s %14s%n", "parallelism", "seal MB/s", "open MB/s");
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int parallelism = 1; parallelism <= Math.max(4, cores); parallelism *= 2) {
+            long sealNanos = Long.MAX_VALUE;
+            long openNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(PAYLOAD_SIZE + PAYLOAD_SIZE / 1024);
+                long start = System.nanoTime();
+                try (OutputStream out = parallelism == 1
+                        ? new SegmentedOutputStream(output, cipher, CipherSpecifications.SEGMENT_SIZE_BYTES)
+                        : new ParallelSegmentedOutputStream(output, cipher, CipherSpecifications.SEGMENT_SIZE_BYTES, parallelism)) {
+                    out.write(data);
+                }
+                sealNanos = Math.min(sealNanos, System.nanoTime() - start);
+                byte[] sealed = output.toByteArray();
+                byte[] buffer = new byte[64 * 1024];
+                start = System.nanoTime();
+                try (InputStream in = parallelism == 1
+                        ? new SegmentedInputStream(new ByteArrayInputStream(sealed), cipher, CipherSpecifications.SEGMENT_SIZE_BYTES)
+                        : new ParallelSegmentedInputStream(new ByteArrayInputStream(sealed), cipher, CipherSpecifications.SEGMENT_SIZE_BYTES, parallelism)) {
+                    while (in.read(buffer) >= 0) {
+                        // consume
+                    }
+                }
+                openNanos = Math.min(openNanos, System.nanoTime() - start);
+            }
+            System.out.printf("%-12d %14.1f %14.1f%n", parallelism, megabytesPerSecond(sealNanos), megabytesPerSecond(openNanos));
+        }
+    }
+
+    private static double megabytesPerSecond(long nanos) {
+        return PAYLOAD_SIZE / (1024.0 * 1024.0) / (nanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,86 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SegmentedStreamTest {
+    private static final int SEGMENT_SIZE = 64;
+    private static final int SEALED_SIZE = SEGMENT_SIZE + SegmentCipher.TAG_LENGTH_BYTES;
+
+    private final SecretKeySpec key = new SecretKeySpec(new byte[32], CipherSpecifications.KEY_ALGORITHM);
+    private final byte[] iv = new byte[CipherSpecifications.IV_LENGTH_BYTES];
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 10 * SEGMENT_SIZE, 1000})
+    void roundTrip(int size) throws IOException, GeneralSecurityException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        byte[] sealed = encrypt(data);
+        int segments = Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        assertEquals(size + segments * SegmentCipher.TAG_LENGTH_BYTES, sealed.length);
+        assertArrayEquals(data, decrypt(sealed));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, SEGMENT_SIZE, 10 * SEGMENT_SIZE, 1000})
+    void parallelRoundTrip(int size) throws IOException, GeneralSecurityException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        SegmentCipher cipher = new SegmentCipher(key, iv, new byte[0]);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream out = new ParallelSegmentedOutputStream(output, cipher, SEGMENT_SIZE, 3)) {
+            out.write(data);
+        }
+        byte[] sealed = output.toByteArray();
+        assertArrayEquals(sealed, encrypt(data));
+        try (InputStream in = new ParallelSegmentedInputStream(new ByteArrayInputStream(sealed), cipher, SEGMENT_SIZE, 3)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    void truncationIsDetected() throws IOException, GeneralSecurityException {
+        byte[] sealed = encrypt(new byte[3 * SEGMENT_SIZE]);
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(sealed, 2 * SEALED_SIZE)));
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(sealed, sealed.length - 1)));
+    }
+
+    @Test
+    void reorderingIsDetected() throws IOException, GeneralSecurityException {
+        byte[] sealed = encrypt(new byte[3 * SEGMENT_SIZE]);
+        byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, 0, swapped, SEALED_SIZE, SEALED_SIZE);
+        System.arraycopy(sealed, SEALED_SIZE, swapped, 0, SEALED_SIZE);
+        assertThrows(IOException.class, () -> decrypt(swapped));
+    }
+
+    private byte[] encrypt(byte[] data) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream out = new SegmentedOutputStream(output, new SegmentCipher(key, iv, new byte[0]), SEGMENT_SIZE)) {
+            out.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] sealed) throws IOException, GeneralSecurityException {
+        try (InputStream in = new SegmentedInputStream(new ByteArrayInputStream(sealed), new SegmentCipher(key, iv, new byte[0]), SEGMENT_SIZE)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package jpass.crypt.io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+/**
+ * Compares opening a file with the key derivation before reading the payload and with the key
+ * derivation overlapped with reading the payload. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*Benchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class UnlockBenchmark {
+    private static final int ROUNDS = 5;
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+    @Test
+    void unlock() throws IOException, GeneralSecurityException {
+        Path file = Files.createTempFile("benchmark-", ".jpass");
+        try {
+            byte[] data = new byte[32 * 1024 * 1024];
+            new Random(1).nextBytes(data);
+            try (OutputStream out = new CryptOutputStream(Files.newOutputStream(file), PASSWORD)) {
+                out.write(data);
+            }
+            System.out.printf("%d MB on disk%n", Files.size(file) / (1024 * 1024));
+            for (String mode : new String[] {"sequential", "overlapped mmap", "overlapped heap"}) {
+                System.setProperty("io.mmap.enabled", Boolean.toString(!mode.endsWith("heap")));
+                long best = Long.MAX_VALUE;
+                UnlockTimings timings = null;
+                for (int round = 0; round < ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    try (CryptInputStream in = mode.equals("sequential")
+                            ? new CryptInputStream(new FileInputStream(file.toFile()), PASSWORD)
+                            : CryptInputStream.open(file, PASSWORD)) {
+                        consume(in);
+                        timings = in.getUnlockTimings();
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%-16s %8.1f ms %s%n", mode, best / 1_000_000.0, timings == null ? "" : timings);
+            }
+        } finally {
+            System.clearProperty("io.mmap.enabled");
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void consume(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            // consume
+        }
+    }
+}
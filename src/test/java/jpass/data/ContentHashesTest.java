@@ -0,0 +1,64 @@
+package jpass.data;
+
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentHashesTest {
+
+    @Test
+    void detectChangedTitles() {
+        var a = newEntry("a", "1");
+        var b = newEntry("b", "2");
+        var saved = new ContentHashes(List.of(a, b), null);
+
+        assertEquals(Set.of(), saved.getChangedTitles(List.of(b, newEntry("a", "1"))));
+        assertEquals(Set.of("a", "c"), saved.getChangedTitles(List.of(newEntry("a", "3"), b, newEntry("c", null))));
+        assertEquals(Set.of("b"), saved.getChangedTitles(List.of(a)));
+        // a change is still detected after the replaced entry has been compared before
+        assertEquals(Set.of("a"), saved.getChangedTitles(List.of(newEntry("a", "3"), b)));
+    }
+
+    @Test
+    void detectChangedTitlesOfChanges() {
+        var a = newEntry("a", "1");
+        var saved = new ContentHashes(List.of(a, newEntry("b", "2")), null);
+        var renamed = newEntry("x", "1");
+        var reverted = List.of(Journal.Change.edited("a", renamed), Journal.Change.edited("x", newEntry("a", "1")),
+                Journal.Change.added(newEntry("c", "3")), Journal.Change.deleted("c"));
+
+        assertEquals(Set.of(), saved.getChangedTitlesAfter(reverted));
+        var changes = List.of(Journal.Change.edited("a", renamed), Journal.Change.deleted("b"));
+        assertEquals(Set.of("a", "b", "x"), saved.getChangedTitlesAfter(changes));
+
+        saved.update(changes);
+        assertEquals(Set.of(), saved.getChangedTitles(List.of(renamed)));
+        saved.update(List.of(a), Set.of("a", "x"), null);
+        assertEquals(Set.of(), saved.getChangedTitles(List.of(a)));
+    }
+
+    @Test
+    void retainChangesOfChangedTitles() {
+        var renamed = newEntry("x", "1");
+        var restored = newEntry("a", "1");
+        var b = newEntry("b", "2");
+        var changes = List.of(Journal.Change.edited("a", renamed), Journal.Change.edited("x", restored), Journal.Change.added(b));
+
+        assertEquals(List.of(changes.get(2)), ContentHashes.retainChanged(changes, Set.of("b")));
+        // a change of an unchanged title is kept if a kept change touches the same title
+        var moved = List.of(Journal.Change.edited("a", renamed), Journal.Change.added(newEntry("a", "1")));
+        assertEquals(moved, ContentHashes.retainChanged(moved, Set.of("x")));
+        assertEquals(List.of(), ContentHashes.retainChanged(changes.subList(0, 2), Set.of()));
+    }
+
+    private static Entry newEntry(String title, String password) {
+        var entry = new Entry();
+        entry.setTitle(title);
+        entry.setPassword(password);
+        return entry;
+    }
+}
@@ -0,0 +1,89 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentExporterTest {
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("export.chunk.size");
+        System.clearProperty("export.part.entries");
+    }
+
+    @Test
+    void exportChunkedGzip() throws IOException, DocumentProcessException {
+        var directory = Files.createTempDirectory("unit-test-");
+        var file = directory.resolve("export.xml.gz");
+        var plain = directory.resolve("export.xml");
+        try {
+            System.setProperty("export.chunk.size", "100");
+            var entries = TestEntries.newEntries(20);
+            assertEquals(List.of(file), new DocumentExporter(file.toString()).write(entries.getEntry(), (count, total) -> { }));
+            assertEquals(List.of(plain), new DocumentExporter(plain.toString()).write(entries.getEntry(), (count, total) -> { }));
+
+            byte[] compressed = Files.readAllBytes(file);
+            int members = 0;
+            for (int i = 0; i + 2 < compressed.length; i++) {
+                if (compressed[i] == 0x1f && compressed[i + 1] == (byte) 0x8b && compressed[i + 2] == 8) {
+                    members++;
+                }
+            }
+            assertTrue(members > 1);
+            try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+                assertArrayEquals(Files.readAllBytes(plain), input.readAllBytes());
+            }
+            assertEquals(titles(entries), titles(new DocumentImporter(file.toString()).read((bytesRead, totalBytes, count) -> { })));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    void exportPartFiles() throws IOException, DocumentProcessException {
+        var directory = Files.createTempDirectory("unit-test-");
+        try {
+            System.setProperty("export.part.entries", "2");
+            var entries = TestEntries.newEntries(5);
+            List<Integer> progress = new ArrayList<>();
+            var files = new DocumentExporter(directory.resolve("export.xml").toString())
+                    .write(entries.getEntry(), (count, total) -> progress.add(count));
+
+            assertEquals(List.of("export.part1.xml", "export.part2.xml", "export.part3.xml"),
+                    files.stream().map(path -> path.getFileName().toString()).toList());
+            assertEquals(List.of(1, 2, 3, 4, 5), progress);
+            List<String> imported = new ArrayList<>();
+            for (Path part : files) {
+                imported.addAll(titles(new DocumentImporter(part.toString()).read((bytesRead, totalBytes, count) -> { })));
+            }
+            assertEquals(titles(entries), imported);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private static List<String> titles(Entries entries) {
+        return entries.getEntry().stream().map(Entry::getTitle).toList();
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -4,8 +4,15 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class DocumentHelperTest {
 
@@ -23,4 +30,182 @@ class DocumentHelperTest {
         Files.deleteIfExists(f);
         assertEquals(document1.getEntry().size(), document2.getEntry().size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void convertBetweenXmlAndBinary() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        var xml = Files.createTempFile("unit-test-", ".xml");
+        try {
+            DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).withFormat(PayloadFormat.BINARY).writeDocument(document);
+            var binaryHelper = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray());
+            var binaryDocument = binaryHelper.readDocument();
+            assertEquals(PayloadFormat.BINARY, binaryHelper.getFormat());
+
+            DocumentHelper.newInstance(xml.toString()).writeDocument(binaryDocument);
+            var xmlHelper = DocumentHelper.newInstance(xml.toString());
+            var xmlDocument = xmlHelper.readDocument();
+            assertEquals(PayloadFormat.XML, xmlHelper.getFormat());
+            assertTrue(Files.readString(xml).startsWith("<?xml"));
+
+            assertEquals(document.getEntry().size(), xmlDocument.getEntry().size());
+            for (int i = 0; i < document.getEntry().size(); i++) {
+                assertEquals(document.getEntry().get(i).getTitle(), xmlDocument.getEntry().get(i).getTitle());
+                assertEquals(document.getEntry().get(i).getPassword(), xmlDocument.getEntry().get(i).getPassword());
+            }
+        } finally {
+            Files.deleteIfExists(vault);
+            Files.deleteIfExists(xml);
+        }
+    }
+
+    @Test
+    void keepSecretsSealedInMemory() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        try {
+            DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).withFormat(PayloadFormat.SEALED).writeDocument(document);
+            var helper = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray());
+            var sealed = helper.readDocument();
+            assertEquals(PayloadFormat.SEALED, helper.getFormat());
+            assertEquals(document.getEntry().size(), sealed.getEntry().size());
+            for (int i = 0; i < document.getEntry().size(); i++) {
+                var entry = sealed.getEntry().get(i);
+                assertTrue(entry instanceof SealedEntry);
+                assertEquals(document.getEntry().get(i).getTitle(), entry.getTitle());
+                assertEquals(document.getEntry().get(i).getPassword(), entry.getPassword());
+                assertEquals(document.getEntry().get(i).getNotes(), entry.getNotes());
+            }
+
+            // saving with the same key writes the sealed secrets as they are
+            var sealedSecrets = ((SealedEntry) sealed.getEntry().get(0)).getSealedSecrets();
+            DocumentHelper.newInstance(vault.toString(), helper.getSessionKey()).withFormat(PayloadFormat.SEALED).writeDocument(sealed);
+            var reread = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument();
+            assertArrayEquals(sealedSecrets, ((SealedEntry) reread.getEntry().get(0)).getSealedSecrets());
+
+            // a new key seals the secrets again
+            DocumentHelper.newInstance(vault.toString(), "5678".toCharArray()).withFormat(PayloadFormat.SEALED).writeDocument(sealed);
+            var resealed = DocumentHelper.newInstance(vault.toString(), "5678".toCharArray()).readDocument();
+            assertEquals(document.getEntry().get(0).getPassword(), resealed.getEntry().get(0).getPassword());
+
+            sealed.getEntry().get(0).setNotes("changed");
+            assertEquals(document.getEntry().get(0).getPassword(), sealed.getEntry().get(0).getPassword());
+            assertNull(((SealedEntry) sealed.getEntry().get(0)).getSealedSecrets());
+        } finally {
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    @Test
+    void replaceFileAtomicallyWithBackup() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var directory = Files.createTempDirectory("unit-test-");
+        var vault = directory.resolve("vault.jpass");
+        var backup = directory.resolve("vault.jpass.bak");
+        var xml = directory.resolve("export.xml");
+        try {
+            DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).writeDocument(document);
+            assertFalse(Files.exists(backup));
+            var previous = Files.readAllBytes(vault);
+
+            document.getEntry().remove(0);
+            DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).writeDocument(document);
+            assertArrayEquals(previous, Files.readAllBytes(backup));
+            assertEquals(1, DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument().getEntry().size());
+            assertEquals(2, DocumentHelper.newInstance(backup.toString(), "4321".toCharArray()).readDocument().getEntry().size());
+
+            // unencrypted files get no plain copy
+            DocumentHelper.newInstance(xml.toString()).writeDocument(document);
+            DocumentHelper.newInstance(xml.toString()).writeDocument(document);
+            try (var files = Files.list(directory)) {
+                assertEquals(3, files.count());
+            }
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void keepPermissionsOnSave() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var directory = Files.createTempDirectory("unit-test-");
+        var vault = directory.resolve("vault.jpass");
+        try {
+            assumeTrue(Files.getFileAttributeView(directory, PosixFileAttributeView.class) != null);
+            DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).writeDocument(document);
+            var permissions = PosixFilePermissions.fromString("rw-rw-r--");
+            Files.setPosixFilePermissions(vault, permissions);
+
+            DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).writeDocument(document);
+            assertEquals(permissions, Files.getPosixFilePermissions(vault));
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void rewriteKeysOfBackup() throws IOException, DocumentProcessException, GeneralSecurityException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var directory = Files.createTempDirectory("unit-test-");
+        var vault = directory.resolve("vault.jpass");
+        var backup = directory.resolve("vault.jpass.bak");
+        try {
+            var helper = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray());
+            helper.writeDocument(document);
+            DocumentHelper.newInstance(vault.toString(), helper.getSessionKey()).writeDocument(document);
+            assertTrue(Files.exists(backup));
+
+            var changed = DocumentHelper.newInstance(vault.toString(), helper.getSessionKey()).changePassword("8765".toCharArray());
+            for (var file : List.of(vault, backup)) {
+                assertThrows(IOException.class, () -> DocumentHelper.newInstance(file.toString(), "4321".toCharArray()).readDocument());
+                assertEquals(2, DocumentHelper.newInstance(file.toString(), "8765".toCharArray()).readDocument().getEntry().size());
+            }
+
+            // a backup with other key slots is deleted
+            Files.copy(Path.of("src/test/resources/test.jpass"), backup, StandardCopyOption.REPLACE_EXISTING);
+            DocumentHelper.newInstance(vault.toString(), changed).changePassword("4321".toCharArray()).close();
+            assertFalse(Files.exists(backup));
+            assertEquals(2, DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument().getEntry().size());
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (var file : files.toList()) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void bufferSizeFromProperty() {
+        String configured = System.getProperty("io.buffer.size");
+        try {
+            System.clearProperty("io.buffer.size");
+            assertEquals(64 * 1024, DocumentHelper.getBufferSize("io.buffer.size"));
+
+            System.setProperty("io.buffer.size", "8192");
+            assertEquals(8192, DocumentHelper.getBufferSize("io.buffer.size"));
+
+            for (String invalid : List.of("0", "-1", String.valueOf(16 * 1024 * 1024 + 1), "large")) {
+                System.setProperty("io.buffer.size", invalid);
+                assertEquals(64 * 1024, DocumentHelper.getBufferSize("io.buffer.size"));
+            }
+        } finally {
+            if (configured == null) {
+                System.clearProperty("io.buffer.size");
+            } else {
+                System.setProperty("io.buffer.size", configured);
+            }
+        }
+    }
+}
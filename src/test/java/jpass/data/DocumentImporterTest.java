@@ -0,0 +1,63 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentImporterTest {
+
+    @Test
+    void renameCollidingTitles() throws IOException, DocumentProcessException {
+        var file = Files.createTempFile("unit-test-", ".xml");
+        try {
+            DocumentHelper.newInstance(file.toString()).writeDocument(newEntries("a", "b", "a", null, "a (2)", "a"));
+            var importer = new DocumentImporter(file.toString());
+            List<Long> progress = new ArrayList<>();
+            var entries = importer.read((bytesRead, totalBytes, count) -> progress.add(bytesRead * 100 / totalBytes));
+
+            assertEquals(List.of("a", "b", "a (2)", "Untitled", "a (2) (2)", "a (3)"),
+                    entries.getEntry().stream().map(Entry::getTitle).toList());
+            assertEquals(4, importer.getRenamedCount());
+            assertEquals(6, progress.size());
+            assertEquals(100L, progress.get(progress.size() - 1));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void cancelImport() throws IOException, DocumentProcessException {
+        var file = Files.createTempFile("unit-test-", ".xml");
+        try {
+            DocumentHelper.newInstance(file.toString()).writeDocument(newEntries("a", "b", "c"));
+            var importer = new DocumentImporter(file.toString());
+            try {
+                assertThrows(InterruptedIOException.class,
+                        () -> importer.read((bytesRead, totalBytes, count) -> Thread.currentThread().interrupt()));
+            } finally {
+                Thread.interrupted();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Entries newEntries(String... titles) {
+        var entries = new Entries();
+        for (String title : titles) {
+            var entry = new Entry();
+            entry.setTitle(title);
+            entry.setPassword("secret");
+            entries.getEntry().add(entry);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,76 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the throughput of exporting to plain XML, to a single GZIP member, to GZIP members of
+ * 1 MiB and to part files, in megabytes of XML per second. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*ExportBenchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class ExportBenchmark {
+    private static final int ROUNDS = 3;
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty("export.chunk.size");
+        System.clearProperty("export.part.entries");
+    }
+
+    @Test
+    void export() throws Exception {
+        for (int count : new int[] {100_000, 1_000_000}) {
+            Entries entries = TestEntries.newEntries(count);
+            Path directory = Files.createTempDirectory("benchmark-");
+            try {
+                long xmlBytes = measure(directory, "export.xml", entries, null, null)[1];
+                System.out.printf("%d entries, %d bytes of XML%n", count, xmlBytes);
+                report("plain XML", xmlBytes, measure(directory, "export.xml", entries, null, null));
+                report("gzip, one member", xmlBytes, measure(directory, "export.xml.gz", entries, "0", null));
+                report("gzip, 1 MiB members", xmlBytes, measure(directory, "export.xml.gz", entries, null, null));
+                report("gzip, parts of 10k entries", xmlBytes, measure(directory, "export.xml.gz", entries, null, "10000"));
+            } finally {
+                try (var files = Files.list(directory)) {
+                    for (Path path : files.toList()) {
+                        Files.delete(path);
+                    }
+                }
+                Files.delete(directory);
+            }
+        }
+    }
+
+    private static long[] measure(Path directory, String name, Entries entries, String chunkSize, String partEntries) throws Exception {
+        setProperty("export.chunk.size", chunkSize);
+        setProperty("export.part.entries", partEntries);
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            DocumentExporter exporter = new DocumentExporter(directory.resolve(name).toString());
+            long start = System.nanoTime();
+            exporter.write(entries.getEntry(), (exported, total) -> { });
+            best = Math.min(best, System.nanoTime() - start);
+            bytes = exporter.getBytesWritten();
+        }
+        return new long[] {best, bytes};
+    }
+
+    private static void report(String name, long xmlBytes, long[] result) {
+        System.out.printf("  %-28s %7.0f ms %7.1f MB/s, %d bytes written%n",
+                name, result[0] / 1e6, xmlBytes / (result[0] / 1e9) / 1e6, result[1]);
+    }
+
+    private static void setProperty(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+}
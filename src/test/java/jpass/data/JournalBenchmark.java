@@ -0,0 +1,72 @@
+package jpass.data;
+
+import jpass.crypt.io.SessionKey;
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares saving one edited entry by writing the whole file with appending it to the journal,
+ * and measures the cost of replaying a journal of the default compaction threshold when the
+ * file is opened. Run with {@code JPASS_BENCHMARK=true gradle test --tests '*JournalBenchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class JournalBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int REPLAYED_CHANGES = 400;
+
+    @Test
+    void save() throws Exception {
+        char[] password = "benchmark".toCharArray();
+        for (int count : new int[] {1_000, 100_000, 1_000_000}) {
+            Path file = Files.createTempFile("benchmark-", ".jpass");
+            try (SessionKey sessionKey = SessionKey.derive(password)) {
+                Entries entries = TestEntries.newEntries(count);
+                long full = Long.MAX_VALUE;
+                byte[] snapshotId = null;
+                for (int i = 0; i < ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    DocumentHelper helper = DocumentHelper.newInstance(file.toString(), sessionKey).withFormat(PayloadFormat.BINARY);
+                    helper.writeDocument(entries);
+                    full = Math.min(full, System.nanoTime() - start);
+                    snapshotId = helper.getSnapshotId();
+                }
+                long append = Long.MAX_VALUE;
+                try (Journal journal = Journal.create(file.toString(), sessionKey, snapshotId)) {
+                    for (int i = 0; i < REPLAYED_CHANGES; i++) {
+                        Entry edited = TestEntries.newEntry(i);
+                        edited.setNotes("edited " + i);
+                        long start = System.nanoTime();
+                        journal.append(List.of(Journal.Change.edited(edited.getTitle(), edited)));
+                        append = Math.min(append, System.nanoTime() - start);
+                    }
+                    long plain = Long.MAX_VALUE;
+                    long replayed = Long.MAX_VALUE;
+                    for (int i = 0; i < ROUNDS; i++) {
+                        List<Entry> copy = new ArrayList<>(entries.getEntry());
+                        long start = System.nanoTime();
+                        try (Journal opened = Journal.open(file.toString(), sessionKey, snapshotId)) {
+                            Journal.replay(opened.read(), copy);
+                        }
+                        replayed = Math.min(replayed, System.nanoTime() - start);
+                        start = System.nanoTime();
+                        DocumentHelper.newInstance(file.toString(), password).readDocument();
+                        plain = Math.min(plain, System.nanoTime() - start);
+                    }
+                    System.out.printf("%d entries: full save %.1f ms, journaled save of one edit %.2f ms; "
+                            + "reading %d journaled changes (%d bytes) %.1f ms, open with replay %.1f ms%n",
+                            count, full / 1e6, append / 1e6, REPLAYED_CHANGES, journal.getSize(), replayed / 1e6, plain / 1e6);
+                }
+            } finally {
+                Files.deleteIfExists(Journal.getPath(file.toString()));
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTest {
+
+    @Test
+    void replayChangesOnOpen() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        String first = document.getEntry().get(0).getTitle();
+        String second = document.getEntry().get(1).getTitle();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        try {
+            var helper = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray());
+            helper.writeDocument(document);
+            try (var journal = Journal.create(vault.toString(), helper.getSessionKey(), helper.getSnapshotId())) {
+                journal.append(List.of(Journal.Change.edited(first, newEntry("renamed", "secret")),
+                        Journal.Change.added(newEntry("added", "p1"))));
+                journal.append(List.of(Journal.Change.deleted(second)));
+            }
+
+            var reread = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument();
+            assertEquals(List.of("renamed", "added"), titles(reread));
+            assertEquals("secret", reread.getEntry().get(0).getPassword());
+
+            // an interrupted append leaves a truncated record, which is dropped
+            Files.write(Journal.getPath(vault.toString()), new byte[] {0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+            assertEquals(List.of("renamed", "added"), titles(DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument()));
+
+            // a new version of the file makes the journal stale
+            DocumentHelper.newInstance(vault.toString(), helper.getSessionKey()).writeDocument(document);
+            assertEquals(List.of(first, second), titles(DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument()));
+        } finally {
+            Files.deleteIfExists(Journal.getPath(vault.toString()));
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    @Test
+    void compactIntoNewVersion() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        Path journalPath = Journal.getPath(vault.toString());
+        try {
+            var helper = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).withFormat(PayloadFormat.SEALED);
+            helper.writeDocument(document);
+            try (var journal = Journal.create(vault.toString(), helper.getSessionKey(), helper.getSnapshotId())) {
+                var added = newEntry("added", "p1");
+                journal.append(List.of(Journal.Change.added(added)));
+                document.getEntry().add(added);
+                long size = journal.getSize();
+
+                var compaction = journal.prepareCompaction(document, helper.getSessionKey(), PayloadFormat.SEALED);
+                // changes made during the compaction stay in the journal
+                journal.append(List.of(Journal.Change.added(newEntry("later", "p2"))));
+                assertTrue(compaction.run());
+                assertTrue(journal.getSize() < 2 * size);
+
+                var compacted = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray());
+                var reread = compacted.readDocument();
+                assertEquals(PayloadFormat.SEALED, compacted.getFormat());
+                assertEquals(List.of(document.getEntry().get(0).getTitle(), document.getEntry().get(1).getTitle(), "added", "later"),
+                        titles(reread));
+
+                // a compaction is dropped if the file is written otherwise meanwhile
+                compaction = journal.prepareCompaction(reread, helper.getSessionKey(), PayloadFormat.SEALED);
+                journal.cancelCompaction();
+                assertFalse(compaction.run());
+            }
+        } finally {
+            Files.deleteIfExists(journalPath);
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    @Test
+    void rejectTamperedJournal() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        Path journalPath = Journal.getPath(vault.toString());
+        try {
+            var helper = DocumentHelper.newInstance(vault.toString(), "4321".toCharArray());
+            helper.writeDocument(document);
+            try (var journal = Journal.create(vault.toString(), helper.getSessionKey(), helper.getSnapshotId())) {
+                journal.append(List.of(Journal.Change.added(newEntry("a", "p1")), Journal.Change.added(newEntry("b", "p2"))));
+            }
+            byte[] bytes = Files.readAllBytes(journalPath);
+            bytes[20] ^= 1;
+            Files.write(journalPath, bytes);
+            assertThrows(DocumentProcessException.class,
+                    () -> DocumentHelper.newInstance(vault.toString(), "4321".toCharArray()).readDocument());
+        } finally {
+            Files.deleteIfExists(journalPath);
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    private static Entry newEntry(String title, String password) {
+        var entry = new Entry();
+        entry.setTitle(title);
+        entry.setPassword(password);
+        return entry;
+    }
+
+    private static List<String> titles(Entries entries) {
+        return entries.getEntry().stream().map(Entry::getTitle).toList();
+    }
+}
@@ -0,0 +1,91 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures writing and reading a file with different buffer sizes at each stage of the I/O
+ * pipeline of {@link DocumentHelper}, varying one stage at a time while the others keep their
+ * defaults. The key derivation is made cheap, so reading measures the pipeline only. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*PipelineBenchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class PipelineBenchmark {
+    private static final int ROUNDS = 3;
+    private static final int ENTRIES = 100_000;
+    private static final String[] PROPERTIES = {"io.buffer.size", "compression.buffer.size", "io.file.buffer.size"};
+    private static final int[] SIZES = {512, 8 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+    @AfterEach
+    void clearProperties() {
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        System.clearProperty("kdf.iterations");
+        System.clearProperty("xml.converter");
+        System.clearProperty("save.backup.enabled");
+    }
+
+    @Test
+    void bufferSizes() throws Exception {
+        System.setProperty("kdf.iterations", "1000");
+        System.setProperty("save.backup.enabled", "false");
+        Entries entries = TestEntries.newEntries(ENTRIES);
+        run("encrypted XML", entries, PayloadFormat.XML, true, "stax");
+        run("encrypted binary", entries, PayloadFormat.BINARY, true, "stax");
+        run("plain XML (JAXB)", entries, PayloadFormat.XML, false, "jaxb");
+    }
+
+    private static void run(String name, Entries entries, PayloadFormat format, boolean encrypted, String converter) throws Exception {
+        System.setProperty("xml.converter", converter);
+        Path directory = Files.createTempDirectory("benchmark-");
+        Path file = directory.resolve("vault.jpass");
+        try {
+            char[] warmUp = encrypted ? "benchmark".toCharArray() : null;
+            DocumentHelper.newInstance(file.toString(), warmUp).withFormat(format).writeDocument(entries);
+            DocumentHelper.newInstance(file.toString(), warmUp).readDocument();
+            System.out.printf("%s, %d entries, write / read in ms%n", name, ENTRIES);
+            System.out.printf("%-24s", "");
+            for (int size : SIZES) {
+                System.out.printf("%16s", size / 1024 > 0 ? size / 1024 + " KiB" : size + " B");
+            }
+            System.out.println();
+            for (String property : PROPERTIES) {
+                if (!encrypted && !"io.buffer.size".equals(property)) {
+                    continue;
+                }
+                System.out.printf("%-24s", property);
+                for (int size : SIZES) {
+                    System.setProperty(property, Integer.toString(size));
+                    long write = Long.MAX_VALUE;
+                    long read = Long.MAX_VALUE;
+                    for (int i = 0; i < ROUNDS; i++) {
+                        char[] password = encrypted ? "benchmark".toCharArray() : null;
+                        long start = System.nanoTime();
+                        DocumentHelper.newInstance(file.toString(), password).withFormat(format).writeDocument(entries);
+                        write = Math.min(write, System.nanoTime() - start);
+                        start = System.nanoTime();
+                        DocumentHelper.newInstance(file.toString(), password).readDocument();
+                        read = Math.min(read, System.nanoTime() - start);
+                    }
+                    System.out.printf("%16s", String.format("%.0f / %.0f", write / 1e6, read / 1e6));
+                    System.clearProperty(property);
+                }
+                System.out.println();
+            }
+            System.out.printf("file size %d bytes%n%n", Files.size(file));
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path path : files.toList()) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares the time until the titles of an encrypted binary file are available with the time
+ * to read the file completely, both including the key derivation. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*ProgressiveOpenBenchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class ProgressiveOpenBenchmark {
+    private static final int ROUNDS = 3;
+
+    @Test
+    void open() throws Exception {
+        char[] password = "benchmark".toCharArray();
+        for (int count : new int[] {1_000, 100_000, 1_000_000}) {
+            Path file = Files.createTempFile("benchmark-", ".jpass");
+            try {
+                DocumentHelper.newInstance(file.toString(), password).withFormat(PayloadFormat.BINARY).writeDocument(TestEntries.newEntries(count));
+                long titles = Long.MAX_VALUE;
+                long loaded = Long.MAX_VALUE;
+                long full = Long.MAX_VALUE;
+                for (int i = 0; i < ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    try (DocumentLoader loader = DocumentHelper.newInstance(file.toString(), password).openDocument()) {
+                        titles = Math.min(titles, System.nanoTime() - start);
+                        loader.load();
+                        loaded = Math.min(loaded, System.nanoTime() - start);
+                    }
+                    start = System.nanoTime();
+                    DocumentHelper.newInstance(file.toString(), password).readDocument();
+                    full = Math.min(full, System.nanoTime() - start);
+                }
+                System.out.printf("%d entries (%d bytes): titles after %.1f ms, all entries after %.1f ms; full read %.1f ms%n",
+                        count, Files.size(file), titles / 1e6, loaded / 1e6, full / 1e6);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package jpass.data;
+
+import jpass.crypt.io.CryptOutputStream;
+import jpass.crypt.io.SessionKey;
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import jpass.xml.converter.BinaryConverter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the latency which the crash-safe save adds to writing the file directly: forcing the
+ * temporary file to the storage device, moving it over the file, and keeping a backup. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*SaveBenchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class SaveBenchmark {
+    private static final int ROUNDS = 5;
+
+    @Test
+    void save() throws Exception {
+        BinaryConverter converter = new BinaryConverter();
+        for (int count : new int[] {1_000, 100_000, 1_000_000}) {
+            Path directory = Files.createTempDirectory("benchmark-");
+            Path file = directory.resolve("vault.jpass");
+            try (SessionKey sessionKey = SessionKey.derive("benchmark".toCharArray())) {
+                Entries entries = TestEntries.newEntries(count);
+                long direct = Long.MAX_VALUE;
+                long atomic = Long.MAX_VALUE;
+                long backup = Long.MAX_VALUE;
+                for (int i = 0; i < ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    try (OutputStream output = new CryptOutputStream(new FileOutputStream(file.toFile()), sessionKey)) {
+                        converter.marshal(entries, output);
+                    }
+                    direct = Math.min(direct, System.nanoTime() - start);
+
+                    System.setProperty("save.backup.enabled", "false");
+                    start = System.nanoTime();
+                    DocumentHelper.newInstance(file.toString(), sessionKey).withFormat(PayloadFormat.BINARY).writeDocument(entries);
+                    atomic = Math.min(atomic, System.nanoTime() - start);
+
+                    System.clearProperty("save.backup.enabled");
+                    start = System.nanoTime();
+                    DocumentHelper.newInstance(file.toString(), sessionKey).withFormat(PayloadFormat.BINARY).writeDocument(entries);
+                    backup = Math.min(backup, System.nanoTime() - start);
+                }
+                System.out.printf("%d entries (%d bytes): direct write %.1f ms, forced atomic save %.1f ms, with backup %.1f ms%n",
+                        count, Files.size(file), direct / 1e6, atomic / 1e6, backup / 1e6);
+            } finally {
+                System.clearProperty("save.backup.enabled");
+                try (var files = Files.list(directory)) {
+                    for (Path path : files.toList()) {
+                        Files.delete(path);
+                    }
+                }
+                Files.delete(directory);
+            }
+        }
+    }
+
+    @Test
+    void unchangedSave() throws Exception {
+        for (int count : new int[] {1_000, 100_000, 1_000_000}) {
+            Entries entries = TestEntries.newEntries(count);
+            long open = Long.MAX_VALUE;
+            long full = Long.MAX_VALUE;
+            long journaled = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                ContentHashes saved = new ContentHashes(entries.getEntry(), null);
+                open = Math.min(open, System.nanoTime() - start);
+
+                Entry original = entries.getEntry().get(i);
+                Entry edited = copy(original);
+                edited.setPassword("changed");
+                Entry reverted = copy(original);
+                List<Journal.Change> changes = List.of(Journal.Change.edited(original.getTitle(), edited),
+                        Journal.Change.edited(edited.getTitle(), reverted));
+                start = System.nanoTime();
+                if (!saved.getChangedTitlesAfter(changes).isEmpty()) {
+                    throw new IllegalStateException("Reverted entry is reported as changed");
+                }
+                journaled = Math.min(journaled, System.nanoTime() - start);
+
+                List<Entry> snapshot = new ArrayList<>(entries.getEntry());
+                snapshot.set(i, copy(original));
+                saved = new ContentHashes(entries.getEntry(), null);
+                start = System.nanoTime();
+                if (!saved.getChangedTitles(snapshot).isEmpty()) {
+                    throw new IllegalStateException("Reverted entry is reported as changed");
+                }
+                full = Math.min(full, System.nanoTime() - start);
+            }
+            System.out.printf("%d entries: taking the content after open %.1f ms, checking a save with a reverted edit "
+                    + "%.1f ms (whole file) / %.3f ms (journal)%n", count, open / 1e6, full / 1e6, journaled / 1e6);
+        }
+    }
+
+    private static Entry copy(Entry original) {
+        Entry entry = new Entry();
+        entry.setTitle(original.getTitle());
+        entry.setUrl(original.getUrl());
+        entry.setUser(original.getUser());
+        entry.setPassword(original.getPassword());
+        entry.setNotes(original.getNotes());
+        return entry;
+    }
+}
@@ -0,0 +1,81 @@
+package jpass.data;
+
+import jpass.crypt.io.RecordCipher;
+import jpass.crypt.io.SessionKey;
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import jpass.xml.converter.BinaryConverter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares opening a binary payload with plain secrets and one with sealed secrets: the time to
+ * unmarshal, the heap retained by the entries, and the time to read one password. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*SealedEntryBenchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class SealedEntryBenchmark {
+    private static final int ROUNDS = 3;
+
+    @Test
+    void open() throws Exception {
+        BinaryConverter converter = new BinaryConverter();
+        try (SessionKey sessionKey = SessionKey.derive("benchmark".toCharArray());
+                EntrySecretCodec codec = new EntrySecretCodec(RecordCipher.forKey(sessionKey))) {
+            for (int count : new int[] {1_000, 100_000}) {
+                Entries entries = newSecretEntries(count);
+                ByteArrayOutputStream plain = new ByteArrayOutputStream();
+                converter.marshal(entries, plain);
+                ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+                converter.marshal(entries, sealed, codec);
+                entries = null;
+
+                long plainOpen = Long.MAX_VALUE;
+                long sealedOpen = Long.MAX_VALUE;
+                for (int i = 0; i < ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    converter.unmarshal(ByteBuffer.wrap(plain.toByteArray()));
+                    plainOpen = Math.min(plainOpen, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    converter.unmarshal(ByteBuffer.wrap(sealed.toByteArray()), codec);
+                    sealedOpen = Math.min(sealedOpen, System.nanoTime() - start);
+                }
+
+                long base = usedMemory();
+                Entries plainEntries = converter.unmarshal(ByteBuffer.wrap(plain.toByteArray()));
+                long plainHeap = usedMemory() - base;
+                base = usedMemory();
+                Entries sealedEntries = converter.unmarshal(ByteBuffer.wrap(sealed.toByteArray()), codec);
+                long sealedHeap = usedMemory() - base;
+
+                long start = System.nanoTime();
+                String password = sealedEntries.getEntry().get(count / 2).getPassword();
+                long reveal = System.nanoTime() - start;
+
+                System.out.printf("%d entries: open plain %.1f ms, sealed %.1f ms; heap plain %d KB, sealed %d KB; reading one password %.1f us (%s)%n",
+                        count, plainOpen / 1e6, sealedOpen / 1e6, plainHeap / 1024, sealedHeap / 1024, reveal / 1e3,
+                        password.equals(plainEntries.getEntry().get(count / 2).getPassword()) ? "ok" : "mismatch");
+            }
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Entries newSecretEntries(int count) {
+        Entries entries = TestEntries.newEntries(count);
+        for (Entry entry : entries.getEntry()) {
+            entry.setPassword(entry.getPassword() + "-Xq7!vR2#mK9$");
+            entry.setNotes("Recovery codes: " + "0123-4567-89ab ".repeat(8) + entry.getNotes());
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,44 @@
+package jpass.data;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+
+/**
+ * Entries with generated content for tests and benchmarks.
+ */
+public final class TestEntries {
+
+    private TestEntries() {
+        // empty constructor
+    }
+
+    /**
+     * Creates entries titled "Account 0", "Account 1", ... with all fields filled.
+     *
+     * @param count the number of entries
+     * @return the entries
+     */
+    public static Entries newEntries(int count) {
+        Entries entries = new Entries();
+        for (int i = 0; i < count; i++) {
+            entries.getEntry().add(newEntry(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Creates the entry with the given index, see {@link #newEntries(int)}.
+     *
+     * @param i the index of the entry
+     * @return the entry
+     */
+    public static Entry newEntry(int i) {
+        Entry entry = new Entry();
+        entry.setTitle("Account " + i);
+        entry.setUrl("https://site" + i + ".example.com/");
+        entry.setUser("user" + i);
+        entry.setPassword("p4ssw0rd-" + i);
+        entry.setNotes("notes " + i);
+        return entry;
+    }
+}
@@ -0,0 +1,249 @@
+package jpass.ui.helper;
+
+import jpass.data.ContentHashes;
+import jpass.data.DataModel;
+import jpass.data.DocumentHelper;
+import jpass.data.DocumentProcessException;
+import jpass.data.Journal;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaveJobTest {
+    private final DataModel model = DataModel.getInstance();
+
+    @AfterEach
+    void clearModel() {
+        model.clear();
+    }
+
+    @Test
+    void keepChangesMadeDuringSave() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        char[] password = "4321".toCharArray();
+        try {
+            DocumentHelper.newInstance(vault.toString(), password).writeDocument(document);
+            var helper = DocumentHelper.newInstance(vault.toString(), password);
+            model.setEntries(helper.openDocument().getEntries());
+            model.setFileName(vault.toString());
+            model.setPassword(password);
+            model.setSessionKey(helper.getSessionKey());
+            model.setPayloadFormat(helper.getFormat());
+            model.setJournal(helper.getJournal());
+            long size = Files.size(vault);
+
+            add(newEntry("first"));
+            var job = new SaveJob(model, vault.toString(), password);
+            add(newEntry("second"));
+            job.run();
+            assertTrue(job.apply());
+            assertTrue(model.isModified());
+            assertEquals(1, model.getChanges().size());
+            assertEquals(size, Files.size(vault));
+
+            job = new SaveJob(model, vault.toString(), password);
+            job.run();
+            assertTrue(job.apply());
+            assertFalse(model.isModified());
+            assertTrue(model.getChanges().isEmpty());
+
+            var titles = DocumentHelper.newInstance(vault.toString(), password).readDocument().getEntry().stream()
+                    .map(Entry::getTitle).toList();
+            assertEquals(List.of("first", "second"), titles.subList(2, 4));
+        } finally {
+            model.clear();
+            Files.deleteIfExists(Journal.getPath(vault.toString()));
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    @Test
+    void releaseKeysAfterRunningSaves() throws Exception {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        char[] password = "4321".toCharArray();
+        try {
+            DocumentHelper.newInstance(vault.toString(), password).writeDocument(document);
+            var helper = DocumentHelper.newInstance(vault.toString(), password);
+            model.setReleaseExecutor(SaveJob::afterSaves);
+            model.setEntries(helper.openDocument().getEntries());
+            model.setFileName(vault.toString());
+            model.setPassword(password);
+            model.setSessionKey(helper.getSessionKey());
+            model.setPayloadFormat(helper.getFormat());
+            model.setJournal(helper.getJournal());
+            var sessionKey = model.getSessionKey();
+
+            // the model is cleared, e.g. by opening another file, while a save is waiting
+            var running = new CountDownLatch(1);
+            SaveJob.afterSaves(() -> awaitQuietly(running));
+            add(newEntry("added"));
+            var job = new SaveJob(model, vault.toString(), password);
+            var saved = new CompletableFuture<Void>();
+            SaveJob.afterSaves(() -> {
+                try {
+                    job.run();
+                    saved.complete(null);
+                } catch (Exception | Error e) {
+                    saved.completeExceptionally(e);
+                }
+            });
+            model.clear();
+            assertFalse(sessionKey.isClosed());
+
+            running.countDown();
+            saved.get(30, TimeUnit.SECONDS);
+            var released = new CountDownLatch(1);
+            SaveJob.afterSaves(released::countDown);
+            assertTrue(released.await(30, TimeUnit.SECONDS));
+            assertTrue(sessionKey.isClosed());
+            assertFalse(job.apply());
+            var titles = DocumentHelper.newInstance(vault.toString(), password).readDocument().getEntry().stream()
+                    .map(Entry::getTitle).toList();
+            assertEquals("added", titles.get(titles.size() - 1));
+        } finally {
+            model.setReleaseExecutor(Runnable::run);
+            model.clear();
+            Files.deleteIfExists(Journal.getPath(vault.toString()));
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    @Test
+    void skipRevertedChanges() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        char[] password = "4321".toCharArray();
+        try {
+            DocumentHelper.newInstance(vault.toString(), password).writeDocument(document);
+            var helper = DocumentHelper.newInstance(vault.toString(), password);
+            model.setEntries(helper.openDocument().getEntries());
+            model.setSavedContent(new ContentHashes(model.getEntries().getEntry(), helper.getSnapshotId()));
+            model.setFileName(vault.toString());
+            model.setPassword(password);
+            model.setSessionKey(helper.getSessionKey());
+            model.setPayloadFormat(helper.getFormat());
+            model.setJournal(helper.getJournal());
+            var journalPath = Journal.getPath(vault.toString());
+            long size = Files.size(vault);
+
+            // an entry which is edited and changed back is not written
+            var original = model.getEntries().getEntry().get(0);
+            var edited = newEntry(original.getTitle());
+            edit(original, edited);
+            var copy = newEntry(original.getTitle());
+            copy.setUrl(original.getUrl());
+            copy.setUser(original.getUser());
+            copy.setPassword(original.getPassword());
+            copy.setNotes(original.getNotes());
+            edit(edited, copy);
+            var job = new SaveJob(model, vault.toString(), password);
+            job.run();
+            assertTrue(job.apply());
+            assertEquals("No changes to save", job.getStatus("Saved"));
+            assertFalse(model.isModified());
+            assertTrue(model.getChanges().isEmpty());
+            assertEquals(size, Files.size(vault));
+            assertFalse(Files.exists(journalPath));
+
+            edit(copy, edited);
+            job = new SaveJob(model, vault.toString(), password);
+            job.run();
+            assertTrue(job.apply());
+            assertTrue(Files.exists(journalPath));
+
+            // a file which another program has replaced or deleted is written again
+            for (boolean delete : new boolean[] {false, true}) {
+                if (delete) {
+                    Files.delete(vault);
+                } else {
+                    DocumentHelper.newInstance(vault.toString(), password).writeDocument(document);
+                }
+                job = new SaveJob(model, vault.toString(), password);
+                job.run();
+                assertTrue(job.apply());
+                assertNotEquals("No changes to save", job.getStatus("Saved"));
+                var titles = DocumentHelper.newInstance(vault.toString(), password).readDocument().getEntry().stream()
+                        .map(Entry::getTitle).toList();
+                assertEquals(model.getTitles(), titles);
+                assertFalse(Files.exists(journalPath));
+
+                job = new SaveJob(model, vault.toString(), password);
+                job.run();
+                assertTrue(job.apply());
+                assertEquals("No changes to save", job.getStatus("Saved"));
+            }
+        } finally {
+            model.clear();
+            Files.deleteIfExists(Journal.getPath(vault.toString()));
+            Files.deleteIfExists(vault);
+        }
+    }
+
+    @Test
+    void ignoreOlderSaveToPreviousFile() throws IOException, DocumentProcessException {
+        var document = DocumentHelper.newInstance("src/test/resources/test.jpass", "1234".toCharArray()).readDocument();
+        var vault = Files.createTempFile("unit-test-", ".jpass");
+        var copy = Files.createTempFile("unit-test-", ".jpass");
+        char[] password = "4321".toCharArray();
+        try {
+            model.setEntries(document);
+            model.setFileName(vault.toString());
+            model.setPassword(password);
+            add(newEntry("added"));
+
+            // an autosave of the current file is applied after a 'Save as' started later
+            var autosave = new SaveJob(model, vault.toString(), password);
+            var saveAs = new SaveJob(model, copy.toString(), password);
+            saveAs.run();
+            assertTrue(saveAs.apply());
+            autosave.run();
+            assertFalse(autosave.apply());
+            assertEquals(copy.toString(), model.getFileName());
+            assertFalse(model.isModified());
+        } finally {
+            model.clear();
+            Files.deleteIfExists(Journal.getPath(vault.toString()));
+            Files.deleteIfExists(Journal.getPath(copy.toString()));
+            Files.deleteIfExists(vault);
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private void edit(Entry oldEntry, Entry newEntry) {
+        model.getEntries().getEntry().remove(oldEntry);
+        model.getEntries().getEntry().add(newEntry);
+        model.addChange(Journal.Change.edited(oldEntry.getTitle(), newEntry));
+        model.setModified(true);
+    }
+
+    private void add(Entry entry) {
+        model.getEntries().getEntry().add(entry);
+        model.addChange(Journal.Change.added(entry));
+        model.setModified(true);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Entry newEntry(String title) {
+        var entry = new Entry();
+        entry.setTitle(title);
+        return entry;
+    }
+}
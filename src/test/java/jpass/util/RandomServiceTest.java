@@ -0,0 +1,24 @@
+package jpass.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RandomServiceTest {
+
+    @Test
+    void drawsAreRecorded() {
+        long count = RandomService.getDrawCount();
+        byte[] first = new byte[16];
+        byte[] second = new byte[16];
+        RandomService.nextBytes(first);
+        CryptUtils.getRandomNumberGenerator().nextBytes(second);
+        assertFalse(Arrays.equals(first, second));
+        assertTrue(RandomService.getDrawCount() >= count + 2);
+        assertTrue(RandomService.getMaxDrawNanos() >= RandomService.getLastDrawNanos());
+        assertTrue(RandomService.getTotalDrawNanos() > 0);
+    }
+}
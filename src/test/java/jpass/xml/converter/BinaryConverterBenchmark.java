@@ -0,0 +1,57 @@
+package jpass.xml.converter;
+
+import jpass.data.TestEntries;
+import jpass.xml.bind.Entries;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the XML payload written by {@link StAXConverter} with the binary payload of
+ * {@link BinaryConverter} for 1k, 100k and 1M entries. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*BinaryConverterBenchmark' -i}, the largest
+ * size needs a heap of about 2 GB.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class BinaryConverterBenchmark {
+    private static final int ROUNDS = 3;
+
+    @Test
+    void convert() throws Exception {
+        StAXConverter staxConverter = new StAXConverter();
+        BinaryConverter binaryConverter = new BinaryConverter();
+        for (int count : new int[] {1_000, 100_000, 1_000_000}) {
+            Entries entries = TestEntries.newEntries(count);
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            staxConverter.marshal(entries, xml, false);
+            byte[] xmlDocument = xml.toByteArray();
+            ByteArrayOutputStream binary = new ByteArrayOutputStream();
+            binaryConverter.marshal(entries, binary);
+            byte[] binaryDocument = binary.toByteArray();
+
+            long xmlSave = Long.MAX_VALUE;
+            long binarySave = Long.MAX_VALUE;
+            long xmlOpen = Long.MAX_VALUE;
+            long binaryOpen = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                staxConverter.marshal(entries, new ByteArrayOutputStream(xmlDocument.length), false);
+                xmlSave = Math.min(xmlSave, System.nanoTime() - start);
+                start = System.nanoTime();
+                binaryConverter.marshal(entries, new ByteArrayOutputStream(binaryDocument.length));
+                binarySave = Math.min(binarySave, System.nanoTime() - start);
+                start = System.nanoTime();
+                staxConverter.unmarshal(new ByteArrayInputStream(xmlDocument));
+                xmlOpen = Math.min(xmlOpen, System.nanoTime() - start);
+                start = System.nanoTime();
+                binaryConverter.unmarshal(ByteBuffer.wrap(binaryDocument));
+                binaryOpen = Math.min(binaryOpen, System.nanoTime() - start);
+            }
+            System.out.printf("%d entries: size XML %d, binary %d bytes; save XML %.1f ms, binary %.1f ms; open XML %.1f ms, binary %.1f ms%n",
+                    count, xmlDocument.length, binaryDocument.length, xmlSave / 1e6, binarySave / 1e6, xmlOpen / 1e6, binaryOpen / 1e6);
+        }
+    }
+}
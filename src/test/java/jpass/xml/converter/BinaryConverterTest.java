@@ -0,0 +1,113 @@
+package jpass.xml.converter;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryConverterTest {
+    private final BinaryConverter converter = new BinaryConverter();
+
+    @Test
+    void roundTrip() throws Exception {
+        Entries entries = new Entries();
+        Entry entry = new Entry();
+        entry.setTitle("<Bank & \"Co\"> 'ü' € 🔑");
+        entry.setUrl("");
+        entry.setPassword("a\tb\r\nc\u0001" + "x".repeat(200_000));
+        entry.setNotes("unpaired \uD800 surrogate");
+        entries.getEntry().add(entry);
+        Entry other = new Entry();
+        other.setTitle("Other");
+        entries.getEntry().add(other);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        converter.marshal(entries, data);
+        byte[] bytes = data.toByteArray();
+        assertTrue(BinaryConverter.isBinary(bytes, bytes.length));
+
+        Entries result = converter.unmarshal(new ByteArrayInputStream(bytes));
+        assertEquals(2, result.getEntry().size());
+        Entry actual = result.getEntry().get(0);
+        assertEquals(entry.getTitle(), actual.getTitle());
+        assertEquals("", actual.getUrl());
+        assertNull(actual.getUser());
+        assertEquals(entry.getPassword(), actual.getPassword());
+        assertEquals("unpaired ? surrogate", actual.getNotes());
+        assertEquals("Other", result.getEntry().get(1).getTitle());
+        assertNull(result.getEntry().get(1).getNotes());
+    }
+
+    @Test
+    void readTitlesFirst() throws Exception {
+        Entries entries = new Entries();
+        for (int i = 0; i < 3000; i++) {
+            Entry entry = new Entry();
+            entry.setTitle(i == 1 ? null : "Title " + i);
+            entry.setUser("user " + i);
+            entry.setPassword("password " + i);
+            entries.getEntry().add(entry);
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        converter.marshal(entries, data);
+
+        ProgressiveReader reader = converter.openProgressive(new ByteArrayInputStream(data.toByteArray()), null);
+        assertFalse(reader.isLoaded());
+        List<Entry> titles = reader.getEntries().getEntry();
+        assertEquals(3000, titles.size());
+        assertEquals("Title 2999", titles.get(2999).getTitle());
+        assertNull(titles.get(1).getTitle());
+        assertNull(titles.get(2999).getUser());
+
+        Thread loader = new Thread(() -> {
+            try {
+                reader.readRemaining();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        loader.start();
+        assertTrue(reader.awaitEntry(titles.get(2500)));
+        assertEquals("password 2500", titles.get(2500).getPassword());
+        reader.awaitAll();
+        loader.join();
+        assertTrue(reader.isLoaded());
+        assertEquals("user 2999", titles.get(2999).getUser());
+    }
+
+    @Test
+    void skipUnknownFields() throws Exception {
+        byte[] data = {'J', 'P', 'B', 1, 1, (byte) 0x21, 1, 'a', 2, 'x', 'y'};
+        Entries result = converter.unmarshal(ByteBuffer.wrap(data));
+        assertEquals("a", result.getEntry().get(0).getTitle());
+    }
+
+    @Test
+    void rejectInvalidPayloads() throws Exception {
+        Entries entries = new Entries();
+        Entry entry = new Entry();
+        entry.setTitle("title");
+        entries.getEntry().add(entry);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        converter.marshal(entries, data);
+        byte[] bytes = data.toByteArray();
+
+        assertThrows(BinaryFormatException.class, () -> converter.unmarshal(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1))));
+        bytes[3] = 2;
+        assertThrows(BinaryFormatException.class, () -> converter.unmarshal(ByteBuffer.wrap(bytes)));
+        assertThrows(BinaryFormatException.class, () -> converter.unmarshal(ByteBuffer.wrap(new byte[] {'J', 'P', 'B', 1, -1, -1, -1, -1, 15})));
+    }
+}
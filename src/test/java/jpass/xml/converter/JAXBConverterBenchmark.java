@@ -0,0 +1,63 @@
+package jpass.xml.converter;
+
+import jpass.data.TestEntries;
+import jpass.xml.bind.Entries;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares the overhead of marshalling and unmarshalling with a new JAXB context per call and
+ * with the cached context and pooled (un)marshallers of {@link JAXBConverter}. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*Benchmark' -i}.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class JAXBConverterBenchmark {
+    private static final int ROUNDS = 50;
+
+    @Test
+    void convert() throws JAXBException {
+        for (int count : new int[] {10, 1000}) {
+            Entries entries = TestEntries.newEntries(count);
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            new JAXBConverter<>(Entries.class).marshal(entries, xml, false);
+            byte[] document = xml.toByteArray();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                Marshaller m = JAXBContext.newInstance(Entries.class).createMarshaller();
+                m.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+                m.marshal(entries, new ByteArrayOutputStream());
+            }
+            long uncachedSave = (System.nanoTime() - start) / ROUNDS;
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                JAXBContext.newInstance(Entries.class).createUnmarshaller().unmarshal(new ByteArrayInputStream(document));
+            }
+            long uncachedOpen = (System.nanoTime() - start) / ROUNDS;
+
+            JAXBConverter<Entries> converter = new JAXBConverter<>(Entries.class);
+            start = System.nanoTime();
+            converter.marshal(entries, new ByteArrayOutputStream(), false);
+            long firstSave = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                converter.marshal(entries, new ByteArrayOutputStream(), false);
+            }
+            long cachedSave = (System.nanoTime() - start) / ROUNDS;
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                converter.unmarshal(new ByteArrayInputStream(document));
+            }
+            long cachedOpen = (System.nanoTime() - start) / ROUNDS;
+
+            System.out.printf("%d entries: save %.2f -> %.2f ms, open %.2f -> %.2f ms, first save with a new converter %.2f ms%n",
+                    count, uncachedSave / 1e6, cachedSave / 1e6, uncachedOpen / 1e6, cachedOpen / 1e6, firstSave / 1e6);
+        }
+    }
+}
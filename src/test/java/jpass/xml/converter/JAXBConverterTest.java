@@ -0,0 +1,111 @@
+package jpass.xml.converter;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JAXBConverterTest {
+    private static final int THREADS = 8;
+
+    @Test
+    void reusePooledInstances() throws JAXBException {
+        JAXBConverter<Entries> converter = new JAXBConverter<>(Entries.class);
+        ByteArrayOutputStream formatted = new ByteArrayOutputStream();
+        converter.marshal(newEntries("a", 2), formatted, true);
+        assertEquals(1, converter.getPooledMarshallers());
+
+        // the pooled marshaller does not keep the formatting of the previous call
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        converter.marshal(newEntries("a", 2), plain, false);
+        assertEquals(1, converter.getPooledMarshallers());
+        assertTrue(formatted.toString(StandardCharsets.UTF_8).contains("\n"));
+        assertFalse(plain.toString(StandardCharsets.UTF_8).contains("\n"));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(List.of("a 0", "a 1"), titles(converter.unmarshal(new ByteArrayInputStream(plain.toByteArray()))));
+        }
+        assertEquals(1, converter.getPooledUnmarshallers());
+    }
+
+    @Test
+    void dropInstanceAfterFailure() throws JAXBException {
+        JAXBConverter<Entries> converter = new JAXBConverter<>(Entries.class);
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        assertThrows(JAXBException.class, () -> converter.marshal(newEntries("a", 1), failing, false));
+        assertEquals(0, converter.getPooledMarshallers());
+        assertThrows(JAXBException.class,
+                () -> converter.unmarshal(new ByteArrayInputStream("<entries>".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(0, converter.getPooledUnmarshallers());
+    }
+
+    @Test
+    void marshalConcurrently() throws Exception {
+        JAXBConverter<Entries> converter = new JAXBConverter<>(Entries.class);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                String prefix = "thread " + i;
+                Callable<List<String>> roundTrip = () -> {
+                    start.await();
+                    List<String> titles = new ArrayList<>();
+                    for (int round = 0; round < 20; round++) {
+                        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+                        converter.marshal(newEntries(prefix, 50), xml, round % 2 == 0);
+                        titles = titles(converter.unmarshal(new ByteArrayInputStream(xml.toByteArray())));
+                    }
+                    return titles;
+                };
+                results.add(executor.submit(roundTrip));
+            }
+            start.countDown();
+            for (int i = 0; i < THREADS; i++) {
+                assertEquals(titles(newEntries("thread " + i, 50)), results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(converter.getPooledMarshallers() <= 4);
+        assertTrue(converter.getPooledUnmarshallers() <= 4);
+    }
+
+    private static Entries newEntries(String prefix, int count) {
+        Entries entries = new Entries();
+        for (int i = 0; i < count; i++) {
+            Entry entry = new Entry();
+            entry.setTitle(prefix + " " + i);
+            entry.setPassword("secret " + i);
+            entries.getEntry().add(entry);
+        }
+        return entries;
+    }
+
+    private static List<String> titles(Entries entries) {
+        return entries.getEntry().stream().map(Entry::getTitle).toList();
+    }
+}
@@ -0,0 +1,53 @@
+package jpass.xml.converter;
+
+import jpass.data.TestEntries;
+import jpass.xml.bind.Entries;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compares marshalling and unmarshalling with {@link JAXBConverter} and {@link StAXConverter}
+ * for 1k, 100k and 1M entries. Run with
+ * {@code JPASS_BENCHMARK=true gradle test --tests '*StAXConverterBenchmark' -i}, the largest
+ * size needs a heap of about 2 GB.
+ */
+@EnabledIfEnvironmentVariable(named = "JPASS_BENCHMARK", matches = "true")
+class StAXConverterBenchmark {
+    private static final int ROUNDS = 3;
+
+    @Test
+    void convert() throws Exception {
+        JAXBConverter<Entries> jaxbConverter = new JAXBConverter<>(Entries.class);
+        StAXConverter staxConverter = new StAXConverter();
+        for (int count : new int[] {1_000, 100_000, 1_000_000}) {
+            Entries entries = TestEntries.newEntries(count);
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            staxConverter.marshal(entries, xml, false);
+            byte[] document = xml.toByteArray();
+
+            long jaxbSave = Long.MAX_VALUE;
+            long staxSave = Long.MAX_VALUE;
+            long jaxbOpen = Long.MAX_VALUE;
+            long staxOpen = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                jaxbConverter.marshal(entries, new ByteArrayOutputStream(document.length), false);
+                jaxbSave = Math.min(jaxbSave, System.nanoTime() - start);
+                start = System.nanoTime();
+                staxConverter.marshal(entries, new ByteArrayOutputStream(document.length), false);
+                staxSave = Math.min(staxSave, System.nanoTime() - start);
+                start = System.nanoTime();
+                jaxbConverter.unmarshal(new ByteArrayInputStream(document));
+                jaxbOpen = Math.min(jaxbOpen, System.nanoTime() - start);
+                start = System.nanoTime();
+                staxConverter.unmarshal(new ByteArrayInputStream(document));
+                staxOpen = Math.min(staxOpen, System.nanoTime() - start);
+            }
+            System.out.printf("%d entries (%d bytes): save JAXB %.1f ms, StAX %.1f ms; open JAXB %.1f ms, StAX %.1f ms%n",
+                    count, document.length, jaxbSave / 1e6, staxSave / 1e6, jaxbOpen / 1e6, staxOpen / 1e6);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package jpass.xml.converter;
+
+import jpass.xml.bind.Entries;
+import jpass.xml.bind.Entry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class StAXConverterTest {
+    private final JAXBConverter<Entries> jaxbConverter = new JAXBConverter<>(Entries.class);
+    private final StAXConverter staxConverter = new StAXConverter();
+
+    @Test
+    void writeSameBytesAsJAXB() throws Exception {
+        Entries invalidCharacters = new Entries();
+        Entry entry = new Entry();
+        // not allowed in XML 1.0, but JAXB writes it as it is
+        entry.setTitle("\u0001");
+        invalidCharacters.getEntry().add(entry);
+        for (Entries entries : new Entries[] {newEntries(), new Entries(), invalidCharacters}) {
+            for (boolean formattedOutput : new boolean[] {false, true}) {
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                jaxbConverter.marshal(entries, expected, formattedOutput);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                staxConverter.marshal(entries, actual, formattedOutput);
+                assertEquals(expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+                assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    void readWhatJAXBWrites() throws Exception {
+        Entries entries = newEntries();
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        jaxbConverter.marshal(entries, xml, true);
+
+        Entries result = staxConverter.unmarshal(new ByteArrayInputStream(xml.toByteArray()));
+        assertEquals(entries.getEntry().size(), result.getEntry().size());
+        for (int i = 0; i < entries.getEntry().size(); i++) {
+            Entry expected = entries.getEntry().get(i);
+            Entry actual = result.getEntry().get(i);
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getUrl(), actual.getUrl());
+            assertEquals(expected.getUser(), actual.getUser());
+            assertEquals(expected.getPassword(), actual.getPassword());
+            assertEquals(expected.getNotes(), actual.getNotes());
+        }
+    }
+
+    @Test
+    void skipUnknownElements() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><entries><group><entry><title>hidden</title></entry></group>"
+                + "<entry><title>a</title><icon>x<b/></icon><notes/></entry></entries>";
+        try (EntryStreamReader reader = new EntryStreamReader(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))) {
+            Entry entry = reader.next();
+            assertEquals("a", entry.getTitle());
+            assertNull(entry.getUrl());
+            assertEquals("", entry.getNotes());
+            assertNull(reader.next());
+        }
+    }
+
+    private static Entries newEntries() {
+        Entries entries = new Entries();
+        Entry entry = new Entry();
+        entry.setTitle("<Bank & \"Co\"> 'ü' €");
+        entry.setUrl("");
+        entry.setPassword("a\tb\r\nc\rd]]>");
+        entry.setNotes("line 1\nline 2\r\n");
+        entries.getEntry().add(entry);
+        Entry other = new Entry();
+        other.setTitle("Other");
+        other.setUser("user");
+        entries.getEntry().add(other);
+        return entries;
+    }
+}